@@ -0,0 +1,45 @@
+#!/usr/bin/env bash
+# Startup modes side by side: JVM start to ready, to the first game tick, and the tick time warm-up curve
+# (mean/p99 in us per warmup-bucket-ticks ticks) - see StartupBenchmark.
+#
+#   scripts/startup-benchmark.sh [runs per mode]
+#
+# Run from the repo root with JDK 21. Builds the jar with the aot profile, extracts it and trains the CDS archives.
+# The native mode runs only if target/SpongOut exists (./mvnw -Pnative native:compile -DskipTests on GraalVM).
+set -euo pipefail
+
+RUNS=${1:-3}
+WORK=target/startup-benchmark
+APP_ARGS=(--app.config.startup.benchmark=true --server.port=0 --app.config.drain.enabled=false
+  --spring.datasource.url=jdbc:h2:mem:benchmark --logging.level.com.spongout.spongout=WARN
+  --logging.level.com.spongout.spongout.service.StartupBenchmark=INFO)
+# the training run only starts the context, that's where most of the classes get loaded
+TRAINING_ARGS=(-Dspring.context.exit=onRefresh)
+TRAINING_APP_ARGS=(--spring.datasource.url=jdbc:h2:mem:training --app.config.drain.enabled=false)
+
+./mvnw -q -Paot package -DskipTests
+rm -rf "$WORK"
+java -Djarmode=tools -jar target/SpongOut-*.jar extract --destination "$WORK/app"
+JAR=$(ls "$WORK"/app/SpongOut-*.jar)
+
+java -XX:ArchiveClassesAtExit="$WORK/jit.jsa" "${TRAINING_ARGS[@]}" -jar "$JAR" "${TRAINING_APP_ARGS[@]}" > /dev/null
+java -XX:ArchiveClassesAtExit="$WORK/aot.jsa" -Dspring.aot.enabled=true "${TRAINING_ARGS[@]}" -jar "$JAR" \
+  "${TRAINING_APP_ARGS[@]}" > /dev/null
+
+declare -A MODES=(
+  [jit]="java -jar $JAR"
+  [cds]="java -XX:SharedArchiveFile=$WORK/jit.jsa -jar $JAR"
+  [aot]="java -Dspring.aot.enabled=true -jar $JAR"
+  [aot+cds]="java -XX:SharedArchiveFile=$WORK/aot.jsa -Dspring.aot.enabled=true -jar $JAR"
+)
+if [[ -x target/SpongOut ]]; then
+  MODES[native]="target/SpongOut"
+fi
+
+for mode in jit cds aot aot+cds native; do
+  [[ -n "${MODES[$mode]:-}" ]] || continue
+  for ((run = 1; run <= RUNS; run++)); do
+    # shellcheck disable=SC2086 # the command is meant to be split
+    ${MODES[$mode]} "${APP_ARGS[@]}" 2>&1 | grep -o 'STARTUP .*' || echo "STARTUP mode=$mode run $run failed"
+  done
+done
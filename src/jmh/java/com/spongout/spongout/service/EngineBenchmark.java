@@ -0,0 +1,59 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.model.GameInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulation of one game: a whole loop frame, and the collision pass alone.
+ * <p>
+ * {@code update} plays the round on (spinning, growing, shrinking arena, eliminations, next round), so it measures
+ * the mix of a real round. {@code collidePlayers} runs on the world as it is after a second of play, where the pushes
+ * of the first calls have settled - broadphase plus the pair tests of the players that touch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+    @Param({"2", "5", "50", "500"})
+    private int players;
+
+    private BenchmarkGames games;
+    private GameInstance game;
+
+    @Setup
+    public void setUp() {
+        games = new BenchmarkGames();
+        game = games.newGame("bench-", players, 42);
+        for (int i = 0; i < 1000 / games.gameConstants.getTickRateMs(); i++) {
+            games.frame(game);
+        }
+    }
+
+    @Benchmark
+    public GameInstance update() {
+        games.frame(game);
+        return game;
+    }
+
+    @Benchmark
+    public GameInstance collidePlayers() {
+        games.engine.collidePlayers(game, game.getWorld());
+        return game;
+    }
+}
@@ -0,0 +1,70 @@
+package com.spongout.spongout.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.spongout.spongout.controller.dto.GameStateDto;
+import com.spongout.spongout.model.GameInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a broadcast costs per game: filling the snapshot DTOs (StateBroadcaster, it replaced the stream-and-list
+ * building that used to be in GameExecutionService.tick), serializing them to JSON like the STOMP converter does,
+ * and the full binary frame for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({"2", "5", "50", "500"})
+    private int players;
+
+    private GameInstance game;
+    private GameStateDto snapshot;
+    private StateFrameEncoder frameEncoder;
+    private ObjectMapper objectMapper;
+
+    @Setup
+    public void setUp() {
+        BenchmarkGames games = new BenchmarkGames();
+        game = games.newGame("bench-", players, 42);
+        for (int i = 0; i < 1000 / games.gameConstants.getTickRateMs(); i++) {
+            games.frame(game);
+        }
+        snapshot = StateBroadcaster.buildSnapshot(game);
+        frameEncoder = new StateFrameEncoder(games.gameConstants);
+        objectMapper = Jackson2ObjectMapperBuilder.json().build(); // what the message converter gets
+    }
+
+    @Benchmark
+    public GameStateDto buildSnapshot() {
+        return StateBroadcaster.buildSnapshot(game);
+    }
+
+    @Benchmark
+    public byte[] serializeJson() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(snapshot);
+    }
+
+    @Benchmark
+    public byte[] encodeBinaryFrame() {
+        frameEncoder.snapshot(game);
+        return frameEncoder.encodeState(game);
+    }
+}
@@ -0,0 +1,114 @@
+package com.spongout.spongout.cluster;
+
+import com.spongout.spongout.config.ClusterConstants;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Who does what in cluster mode.
+ * <ul>
+ *     <li>Matchmaking has one writer: the <b>leader</b>, the member with the smallest node id. Other nodes forward
+ *     their joins and leaves to it, so all instances fill the same waiting room.</li>
+ *     <li>Every game is run by exactly one <b>owner</b>, picked by rendezvous hashing of the game id over the live
+ *     members - deterministic, spreads games evenly, and a node joining or leaving only moves the games it wins
+ *     or loses.</li>
+ *     <li>Players connected to another node are handed to the owner: they reconnect there and bind with a one-time
+ *     token, so inputs and state never cross nodes while the game runs.</li>
+ * </ul>
+ * With cluster mode off every node is its own leader and owner, and nothing goes over the transport.
+ * If the leader goes away the next node takes over with an empty waiting room, waiting players have to join again.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ClusterCoordinator {
+
+    private final ClusterConstants clusterConstants;
+    private final ClusterTransport transport;
+
+    /**
+     * Joins the cluster (if cluster mode is on); messages for this node go to {@code handler}.
+     */
+    public void start(Consumer<ClusterMessage> handler) {
+        if (clusterConstants.isEnabled()) {
+            transport.join(clusterConstants.getNodeId(), handler);
+        }
+    }
+
+    public boolean isEnabled() {
+        return clusterConstants.isEnabled();
+    }
+
+    public String localNodeId() {
+        return clusterConstants.getNodeId();
+    }
+
+    public boolean isLocal(String nodeId) {
+        return !isEnabled() || localNodeId().equals(nodeId);
+    }
+
+    public boolean isLeader() {
+        return isLocal(leader());
+    }
+
+    public String leader() {
+        if (!isEnabled()) {
+            return localNodeId();
+        }
+        List<String> members = transport.members();
+        return members.isEmpty() ? localNodeId() : members.getFirst();
+    }
+
+    /**
+     * @return node that runs the game - the member with the highest hash of (game, node)
+     */
+    public String ownerOf(UUID gameId) {
+        if (!isEnabled()) {
+            return localNodeId();
+        }
+        String owner = localNodeId();
+        long best = Long.MIN_VALUE;
+        for (String nodeId : transport.members()) {
+            long score = mix(gameId.getMostSignificantBits() ^ gameId.getLeastSignificantBits() ^ mix(nodeId.hashCode()));
+            if (score > best) {
+                best = score;
+                owner = nodeId;
+            }
+        }
+        return owner;
+    }
+
+    public void send(String nodeId, ClusterMessage message) {
+        transport.send(nodeId, message);
+    }
+
+    /**
+     * Waiting room id of a player. Session ids are only unique within one node, so remote ones get their home
+     * node in front.
+     */
+    public String qualify(String homeNode, String sessionId) {
+        return isLocal(homeNode) ? sessionId : homeNode + "/" + sessionId;
+    }
+
+    /**
+     * Reverse of {@link #qualify}.
+     */
+    public ClusterMessage.Seat seatOf(String qualifiedId, String nickname) {
+        int separator = qualifiedId.indexOf('/');
+        return separator < 0
+                ? new ClusterMessage.Seat(localNodeId(), qualifiedId, nickname)
+                : new ClusterMessage.Seat(qualifiedId.substring(0, separator), qualifiedId.substring(separator + 1), nickname);
+    }
+
+    // SplitMix64 finalizer, plain hashCode()s of similar node ids are too close to each other
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,30 @@
+package com.spongout.spongout.cluster;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Everything nodes tell each other. Sessions are always given with their home node - session ids are only
+ * unique within one instance.
+ */
+public sealed interface ClusterMessage {
+
+    /** Home node -> leader: a player wants a game. */
+    record JoinLobby(String homeNode, String sessionId, String nickname) implements ClusterMessage {
+    }
+
+    /** Home node -> leader: a player left (or disconnected) before his game formed. */
+    record LeaveLobby(String homeNode, String sessionId) implements ClusterMessage {
+    }
+
+    /** Leader -> owner: a game formed and this node runs it. */
+    record StartGame(UUID gameId, List<Seat> seats) implements ClusterMessage {
+    }
+
+    /** Owner -> home node: tell the player to reconnect to the owner and bind with the token. */
+    record Redirect(String sessionId, UUID gameId, String ownerUrl, String handoffToken) implements ClusterMessage {
+    }
+
+    record Seat(String homeNode, String sessionId, String nickname) {
+    }
+}
@@ -0,0 +1,28 @@
+package com.spongout.spongout.cluster;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * How SpongOut instances talk to each other in cluster mode. Delivery is asynchronous and, per pair of nodes,
+ * in order. The transport doesn't interpret messages, that's {@link ClusterCoordinator}'s job.
+ */
+public interface ClusterTransport {
+
+    /**
+     * Joins the cluster as {@code nodeId}; from now on messages for it go to {@code handler}.
+     */
+    void join(String nodeId, Consumer<ClusterMessage> handler);
+
+    void leave();
+
+    /**
+     * @return ids of the live nodes, this one included, sorted
+     */
+    List<String> members();
+
+    /**
+     * Sends to any member, this node included.
+     */
+    void send(String nodeId, ClusterMessage message);
+}
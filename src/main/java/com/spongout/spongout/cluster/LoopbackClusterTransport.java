@@ -0,0 +1,88 @@
+package com.spongout.spongout.cluster;
+
+import com.spongout.spongout.config.ClusterConstants;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * In-process cluster: every SpongOut application context in this JVM that joins is a node, messages are handed
+ * over through a shared map. Good for running and testing several instances (on different ports) on one machine
+ * without any infrastructure. Each node handles its messages on its own thread, one at a time.
+ * <p>
+ * The {@code transport} setting is checked when the node joins, not with a {@code @ConditionalOnProperty} -
+ * an AOT processed context (the "fast" Docker image) fixes bean conditions at build time.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LoopbackClusterTransport implements ClusterTransport {
+
+    public static final String NAME = "loopback";
+
+    private static final Map<String, LoopbackClusterTransport> NODES = new ConcurrentSkipListMap<>();
+
+    private final ClusterConstants clusterConstants;
+
+    private volatile String nodeId;
+    private volatile Consumer<ClusterMessage> handler;
+    private volatile ExecutorService inbox;
+
+    @Override
+    public void join(String nodeId, Consumer<ClusterMessage> handler) {
+        String transport = clusterConstants.getTransport();
+        if (transport != null && !transport.isBlank() && !NAME.equals(transport)) {
+            throw new IllegalStateException("Unknown cluster transport '" + transport + "', only " + NAME + " is available");
+        }
+        this.nodeId = nodeId;
+        this.handler = handler;
+        this.inbox = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "cluster-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (NODES.putIfAbsent(nodeId, this) != null) {
+            throw new IllegalStateException("Node " + nodeId + " is already in the loopback cluster");
+        }
+        log.info("Node {} joined the loopback cluster, members: {}", nodeId, members());
+    }
+
+    @PreDestroy
+    @Override
+    public void leave() {
+        if (nodeId != null && NODES.remove(nodeId, this)) {
+            inbox.shutdownNow();
+            log.info("Node {} left the loopback cluster", nodeId);
+        }
+    }
+
+    @Override
+    public List<String> members() {
+        return new ArrayList<>(NODES.keySet());
+    }
+
+    @Override
+    public void send(String nodeId, ClusterMessage message) {
+        LoopbackClusterTransport target = NODES.get(nodeId);
+        if (target == null) {
+            log.warn("Dropping {} for node {}, it's not in the cluster", message.getClass().getSimpleName(), nodeId);
+            return;
+        }
+        target.inbox.execute(() -> {
+            try {
+                target.handler.accept(message);
+            } catch (Exception e) {
+                log.error("Node {} failed to handle {}", nodeId, message, e);
+            }
+        });
+    }
+}
@@ -0,0 +1,18 @@
+package com.spongout.spongout.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Setter
+@Getter
+@Component
+@ConfigurationProperties(prefix = "app.config.cluster")
+public class ClusterConstants {
+    private boolean enabled; // Several instances share matchmaking, see ClusterCoordinator
+    private String nodeId; // Unique per instance, the smallest one of the cluster runs matchmaking
+    private String publicUrl; // STOMP endpoint clients of games owned by this node connect to
+    private String transport; // ClusterTransport implementation, "loopback" = in-process
+    private long handoffTimeoutMs; // How long an owned game waits for handed off players before it starts anyway
+}
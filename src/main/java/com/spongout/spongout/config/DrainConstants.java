@@ -0,0 +1,20 @@
+package com.spongout.spongout.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Setter
+@Getter
+@Component
+@ConfigurationProperties(prefix = "app.config.drain")
+public class DrainConstants {
+    private boolean enabled; // Checkpoint running games on shutdown and resume them on the next start, see DrainService
+    private String directory; // Where the checkpoint file goes, has to survive the restart
+    private long finishTimeoutMs; // How long running rounds get to end on their own before they are checkpointed
+    private long checkpointTimeoutMs; // Games that don't checkpoint in time are lost
+    private long resumeTimeoutMs; // Resumed game starts without players that didn't come back in time
+    private long maxCheckpointAgeMs; // Older checkpoints are thrown away, those players are long gone
+    private long retryAfterMs; // Told to clients, when to reconnect
+}
@@ -17,6 +17,13 @@ public class GameConstants {
     private double arenaInitialRadius;
     private double playerStartingSize;
     private long tickRateMs;
+    private int loopThreads; // Game loop shards, 0 = one per CPU core
+    private int senderThreads; // Threads writing binary frames to clients, 0 = half the CPU cores
+    private int matchmakerThreads; // Threads creating formed games, 0 = half the CPU cores
+
+    private long reapIntervalMs; // How often finished games are looked for
+    private long reapGraceMs; // Finished game stays this long before it's reaped, so its last frames go out
+    private int gamePoolSize; // Reaped game instances kept for reuse
     
     private double playerGrowthRate; // Mass per second
     private double playerSpinRateRad; // Radians per second
@@ -24,4 +31,31 @@ public class GameConstants {
     private long suddenDeathMs; // Time in ms before sudden death starts
     private double arenaShrinkRate; // Radius units per second
     private double launchPowerMultiplier;
+
+    private boolean fixedTimestep; // Step physics at simulationRateHz instead of once per loop wake-up
+    private int simulationRateHz; // Physics steps per second (fixed-timestep mode)
+    private int broadcastRateHz; // State snapshots per second (fixed-timestep mode)
+    private int maxCatchUpSteps; // Max physics steps per loop wake-up when the loop falls behind
+
+    private int tickMaxFailures; // Failed ticks in a row before the round is aborted
+    private long tickStallMs; // A loop shard that doesn't tick for this long is stalled
+    private double overloadUtilization; // Shard busy/frame ratio above which it counts as overloaded
+    private double recoverUtilization; // Shard busy/frame ratio below which it counts as calm again
+    private long degradeAfterMs; // Sustained overload before going one degradation level down
+    private long recoverAfterMs; // Sustained calm before going one degradation level back up
+
+    private int interestMinPlayers; // Rounds with fewer players send everybody everything at full rate
+    private double interestRadiusFraction; // Players closer than this * arena radius are sent at full rate
+    private int farUpdateEvery; // Players further away are sent every n-th broadcast
+
+    private long maxRewindMs; // How far back an EXPEL can use the angle the player saw, 0 = no lag compensation
+    private long rewindSlackMs; // On top of the player's measured RTT, the rewind never goes further back than that
+
+    public long getSimulationStepNanos() {
+        return 1_000_000_000L / simulationRateHz;
+    }
+
+    public long getBroadcastIntervalNanos() {
+        return 1_000_000_000L / broadcastRateHz;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,17 @@
+package com.spongout.spongout.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Setter
+@Getter
+@Component
+@ConfigurationProperties(prefix = "app.config.jfr")
+public class JfrConstants {
+    private boolean continuous; // Keep a Flight Recorder recording running, see ContinuousRecording
+    private long maxAgeMinutes; // Recording keeps this much history...
+    private long maxSizeMb; // ...but never more than this on disk
+    private String dumpPath; // Written on shutdown, empty = only dump on demand with jcmd
+}
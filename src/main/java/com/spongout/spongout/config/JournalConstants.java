@@ -0,0 +1,18 @@
+package com.spongout.spongout.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Setter
+@Getter
+@Component
+@ConfigurationProperties(prefix = "app.config.journal")
+public class JournalConstants {
+    private boolean enabled; // Record every round for replays, see RoundJournal
+    private String directory; // Where the journal segments go
+    private int segmentSizeMb; // Size of one memory-mapped segment file
+    private int retentionDays; // Older segments get deleted
+    private int maxQueuedMb; // Finished rounds waiting for the writer, above this they are dropped
+}
@@ -0,0 +1,16 @@
+package com.spongout.spongout.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Setter
+@Getter
+@Component
+@ConfigurationProperties(prefix = "app.config.leaderboard")
+public class LeaderboardConstants {
+    private int topSize; // Players kept in the in-memory ranking, the most the endpoint returns
+    private int recentPlayers; // Players outside the top kept in memory after they played, the rest is read on demand
+    private long flushIntervalMs; // How often finished rounds are written to the database
+}
@@ -0,0 +1,15 @@
+package com.spongout.spongout.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Setter
+@Getter
+@Component
+@ConfigurationProperties(prefix = "app.config.logging")
+public class LoggingConstants {
+    private int gameSampleRate = 1; // Only 1 in N games logs its launches. Eliminations and results always get logged
+    private int launchLogsPerSecond; // Per sampled game, the rest is only counted. 0 = log them all
+}
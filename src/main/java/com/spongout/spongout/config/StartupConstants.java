@@ -0,0 +1,18 @@
+package com.spongout.spongout.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Setter
+@Getter
+@Component
+@ConfigurationProperties(prefix = "app.config.startup")
+public class StartupConstants {
+    private int warmupTicks; // First ticks after start kept for the warm-up curve, see StartupProbe
+    private int warmupBucketTicks; // Ticks per point of the curve
+    private boolean benchmark; // Start synthetic games right away, report the warm-up and exit - see StartupBenchmark
+    private int benchmarkGames;
+    private int benchmarkPlayers; // Per game
+}
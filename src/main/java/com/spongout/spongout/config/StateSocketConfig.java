@@ -0,0 +1,26 @@
+package com.spongout.spongout.config;
+
+import com.spongout.spongout.controller.StateSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Plain WebSocket endpoint next to the STOMP one in {@link WebSocketConfig}. It only carries the binary state
+ * stream, so the hot path doesn't go through STOMP framing and the SimpleBroker. Lobby and events stay on STOMP.
+ */
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+public class StateSocketConfig implements WebSocketConfigurer {
+
+    private final StateSocketHandler stateSocketHandler;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        registry.addHandler(stateSocketHandler, WebSocketConstants.STATE_SOCKET_ENDPOINT)
+                .setAllowedOrigins(WebSocketConstants.ALLOWED_ORIGINS);
+    }
+}
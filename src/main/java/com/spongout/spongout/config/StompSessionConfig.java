@@ -0,0 +1,53 @@
+package com.spongout.spongout.config;
+
+import com.spongout.spongout.service.SessionSendBuffers;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+/**
+ * What {@code @EnableWebSocketMessageBroker} sets up, configured by {@link WebSocketConfig}, except that every
+ * STOMP session's send buffer is registered with {@link SessionSendBuffers}: the state rate of a client backs off
+ * on what Spring still buffers for it, not only on what waits in its outbox.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class StompSessionConfig extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    private final SessionSendBuffers sessionSendBuffers;
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(AbstractSubscribableChannel clientInboundChannel,
+                                                        AbstractSubscribableChannel clientOutboundChannel) {
+        SubProtocolWebSocketHandler handler = new SubProtocolWebSocketHandler(clientInboundChannel,
+                clientOutboundChannel) {
+            @Override
+            protected WebSocketSession decorateSession(WebSocketSession session) {
+                WebSocketSession decorated = super.decorateSession(session);
+                if (decorated instanceof ConcurrentWebSocketSessionDecorator buffered) {
+                    sessionSendBuffers.register(buffered);
+                }
+                return decorated;
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+                try {
+                    super.afterConnectionClosed(session, closeStatus);
+                } finally {
+                    sessionSendBuffers.unregister(session.getId());
+                }
+            }
+        };
+        handler.setPhase(getPhase());
+        return handler;
+    }
+}
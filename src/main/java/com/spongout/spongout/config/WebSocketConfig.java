@@ -1,32 +1,47 @@
 package com.spongout.spongout.config;
 
+import com.spongout.spongout.monitoring.MessageMetricsInterceptor;
+import com.spongout.spongout.service.FrameWrittenInterceptor;
+import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
 
+/**
+ * STOMP endpoint and broker. The broker infrastructure itself comes from {@link StompSessionConfig}.
+ */
 @Configuration
-@EnableWebSocketMessageBroker
+@RequiredArgsConstructor
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    private final MessageMetricsInterceptor messageMetricsInterceptor;
+    private final FrameWrittenInterceptor frameWrittenInterceptor;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         registry.setApplicationDestinationPrefixes("/app");
         registry.enableSimpleBroker("/queue", "/topic");
+        registry.configureBrokerChannel().interceptors(messageMetricsInterceptor);
+    }
+
+    /**
+     * State frames, JSON or binary, go to the outbound channel directly and get conflated per client (see
+     * FrameOutbox), so a slow client's session buffer stays small and Spring's default send limits (10 s, 512 KB)
+     * are left alone.
+     */
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.interceptors(frameWrittenInterceptor);
     }
 
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         registry.addEndpoint("/ws")
-                .setAllowedOrigins(
-                        "http://localhost:*",
-                        "https://localhost:*",
-                        "http://127.0.0.1:*",
-                        "https://127.0.0.1:*",
-                        "https://game.mackiewicz.info",
-                        "http://game.mackiewicz.info"
-                );
+                .setAllowedOrigins(WebSocketConstants.ALLOWED_ORIGINS);
+        // clients subscribe and send right after (game.find, game.bind) - the reply must not beat the subscription
+        registry.setPreserveReceiveOrder(true);
     }
 
 }
@@ -2,6 +2,21 @@ package com.spongout.spongout.config;
 
 public class WebSocketConstants {
     public static final String GAME_STATE_TOPIC = "/topic/game.state/";
+    // binary state, one stream per client (see StateFrameEncoder). Clients subscribe to the /user/... form
+    public static final String USER_GAME_FRAME_QUEUE = "/user/queue/game.frame/";
+    public static final String GAME_FRAME_QUEUE = "/queue/game.frame/";
     public static final String GAME_EVENTS_TOPIC = "/topic/game.events/";
     public static final String USER_PRIVATE_QUEUE = "/queue/private-user";
+    public static final String CLOCK_SYNC_QUEUE = "/queue/clock-user"; // clients subscribe to /user/queue/clock
+    // raw binary state socket, no STOMP (see StateSocketHandler)
+    public static final String STATE_SOCKET_ENDPOINT = "/ws/state";
+
+    public static final String[] ALLOWED_ORIGINS = {
+            "http://localhost:*",
+            "https://localhost:*",
+            "http://127.0.0.1:*",
+            "https://127.0.0.1:*",
+            "https://game.mackiewicz.info",
+            "http://game.mackiewicz.info"
+    };
 }
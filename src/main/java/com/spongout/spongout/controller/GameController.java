@@ -1,16 +1,22 @@
 package com.spongout.spongout.controller;
 
+import com.spongout.spongout.config.WebSocketConstants;
 import com.spongout.spongout.controller.dto.ActionRequestDto;
+import com.spongout.spongout.controller.dto.ClockSyncDto;
+import com.spongout.spongout.controller.dto.FrameAckDto;
+import com.spongout.spongout.controller.dto.HandoffBindDto;
 import com.spongout.spongout.controller.dto.JoinRequestDto;
 import com.spongout.spongout.model.Action;
 import com.spongout.spongout.service.GameExecutionService;
 import com.spongout.spongout.service.GameLobbyService;
+import com.spongout.spongout.service.StateStreamRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
 import java.util.UUID;
@@ -22,6 +28,8 @@ public class GameController {
 
     private final GameLobbyService gameLobbyService;
     private final GameExecutionService gameExecutionService;
+    private final StateStreamRegistry stateStreamRegistry;
+    private final SimpMessagingTemplate messagingTemplate;
 
     @MessageMapping("/game.find")
     public void findGame(@Payload JoinRequestDto dto, SimpMessageHeaderAccessor header) {
@@ -30,11 +38,39 @@ public class GameController {
         gameLobbyService.handlePlayerJoin(dto.nickname(), sessionId);
     }
 
-    //gameId isnt needed, but leave for now - dont have time for change.
+    // cluster mode - player handed over from another node takes his seat in a game owned by this one
+    @MessageMapping("/game.bind")
+    public void bindHandoff(@Payload HandoffBindDto dto, SimpMessageHeaderAccessor header) {
+        gameLobbyService.handleHandoffBind(dto.handoffToken(), header.getSessionId());
+    }
+
+    // gameId routes the action straight into that game's command queue - only a player of that game gets there
     @MessageMapping("/game.action/{gameId}")
     public void handleGameAction(SimpMessageHeaderAccessor header, @DestinationVariable UUID gameId, @Payload ActionRequestDto dto) {
+       if (!gameLobbyService.isSeatedIn(header.getSessionId(), gameId)) {
+           log.debug("Session {} sent an action for game {} it isn't in, ignored", header.getSessionId(), gameId);
+           return;
+       }
        if (dto.action().equals(Action.EXPEL)) {
-           gameExecutionService.requestExpelAction(header.getSessionId());
+           gameExecutionService.requestExpelAction(gameId, header.getSessionId(), dto.clientTick() != null ? dto.clientTick() : -1);
        }
     }
+
+    // clock sync / RTT - answered right away, off the game loop
+    @MessageMapping("/game.ping")
+    public void handlePing(SimpMessageHeaderAccessor header, @Payload ClockSyncDto dto) {
+        messagingTemplate.convertAndSend(WebSocketConstants.CLOCK_SYNC_QUEUE + header.getSessionId(),
+                new ClockSyncDto(dto.clientTime(), System.currentTimeMillis()));
+    }
+
+    // the client echoes our answer to the ping - the server side RTT, which bounds the lag compensation
+    @MessageMapping("/game.pong")
+    public void handlePong(SimpMessageHeaderAccessor header, @Payload ClockSyncDto dto) {
+        gameLobbyService.recordRtt(header.getSessionId(), System.currentTimeMillis() - dto.serverTime());
+    }
+
+    @MessageMapping("/game.ack/{gameId}")
+    public void handleFrameAck(SimpMessageHeaderAccessor header, @DestinationVariable UUID gameId, @Payload FrameAckDto dto) {
+        stateStreamRegistry.acknowledge(gameId, header.getSessionId(), dto.tick());
+    }
 }
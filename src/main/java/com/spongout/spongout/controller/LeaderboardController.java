@@ -0,0 +1,35 @@
+package com.spongout.spongout.controller;
+
+import com.spongout.spongout.controller.dto.LeaderboardEntryDto;
+import com.spongout.spongout.model.PlayerStats;
+import com.spongout.spongout.service.Leaderboard;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Leaderboard for players. Served from memory, see {@link Leaderboard}.
+ */
+@RestController
+@RequestMapping("/leaderboard")
+@RequiredArgsConstructor
+public class LeaderboardController {
+
+    private final Leaderboard leaderboard;
+
+    @GetMapping
+    public List<LeaderboardEntryDto> top(@RequestParam(defaultValue = "10") int limit) {
+        return leaderboard.getTop(limit);
+    }
+
+    @GetMapping("/{nickname}")
+    public ResponseEntity<PlayerStats> player(@PathVariable String nickname) {
+        return ResponseEntity.of(leaderboard.find(nickname));
+    }
+}
@@ -0,0 +1,110 @@
+package com.spongout.spongout.controller;
+
+import com.spongout.spongout.service.StateStreamRegistry;
+import jakarta.websocket.Session;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Raw binary state socket: {@code /ws/state?token=<streamToken from GameStartDto>}.
+ * <p>
+ * Server to client: the same frames as {@code /user/queue/game.frame/{gameId}} (see {@code StateFrameEncoder}),
+ * one frame per WebSocket message. Client to server: a 4 byte big-endian tick, the ack for delta frames.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StateSocketHandler extends BinaryWebSocketHandler {
+
+    private static final String SUBSCRIBER_ATTRIBUTE = "frameSubscriber";
+    private static final String GAME_ID_ATTRIBUTE = "gameId";
+
+    // a frame the client didn't take in this long means the connection is dead (same as Spring's STOMP send limit)
+    private static final long SEND_TIMEOUT_MS = 10_000;
+
+    private final StateStreamRegistry stateStreamRegistry;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        String token = session.getUri() == null ? null
+                : UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().getFirst("token");
+        StateStreamRegistry.StreamTicket ticket = stateStreamRegistry.redeemStreamToken(token);
+        if (ticket == null) {
+            log.warn("State socket {} opened with unknown stream token, closing", session.getId());
+            session.close(CloseStatus.POLICY_VIOLATION);
+            return;
+        }
+
+        // async writes: a slow reader keeps its frame in flight (and its newer state conflating in the outbox)
+        // instead of blocking a sender thread
+        Session container = session instanceof NativeWebSocketSession nativeSession
+                ? nativeSession.getNativeSession(Session.class) : null;
+        if (container != null) {
+            container.getAsyncRemote().setSendTimeout(SEND_TIMEOUT_MS);
+        }
+        var subscriber = new StateStreamRegistry.FrameSubscriber(ticket.sessionId(), StateStreamRegistry.Transport.RAW_SOCKET,
+                new StateStreamRegistry.FrameSink() {
+                    @Override
+                    public void send(byte[] frame, Runnable written) throws IOException {
+                        if (container == null) {
+                            try {
+                                session.sendMessage(new BinaryMessage(frame));
+                            } finally {
+                                written.run();
+                            }
+                            return;
+                        }
+                        container.getAsyncRemote().sendBinary(ByteBuffer.wrap(frame), result -> {
+                            if (!result.isOK()) {
+                                log.debug("Frame to state socket {} failed: {}", session.getId(), result.getException().getMessage());
+                                close();
+                            }
+                            written.run();
+                        });
+                    }
+
+                    @Override
+                    public void close() {
+                        try {
+                            session.close(CloseStatus.SESSION_NOT_RELIABLE);
+                        } catch (IOException e) {
+                            log.debug("Closing state socket {} failed: {}", session.getId(), e.getMessage());
+                        }
+                    }
+                });
+        session.getAttributes().put(SUBSCRIBER_ATTRIBUTE, subscriber);
+        session.getAttributes().put(GAME_ID_ATTRIBUTE, ticket.gameId());
+        stateStreamRegistry.addFrameSubscriber(ticket.gameId(), subscriber);
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        ByteBuffer payload = message.getPayload();
+        var subscriber = (StateStreamRegistry.FrameSubscriber) session.getAttributes().get(SUBSCRIBER_ATTRIBUTE);
+        if (subscriber == null || payload.remaining() < 4) {
+            return;
+        }
+        subscriber.acknowledge(Integer.toUnsignedLong(payload.getInt(payload.position())));
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        var subscriber = (StateStreamRegistry.FrameSubscriber) session.getAttributes().get(SUBSCRIBER_ATTRIBUTE);
+        var gameId = (UUID) session.getAttributes().get(GAME_ID_ATTRIBUTE);
+        if (subscriber != null && gameId != null) {
+            stateStreamRegistry.removeFrameSubscriber(gameId, subscriber);
+            log.debug("State socket of session {} closed: {}", subscriber.getSessionId(), status);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.spongout.spongout.controller;
+
+import com.spongout.spongout.controller.dto.GameLifecycleStatsDto;
+import com.spongout.spongout.controller.dto.JournalStatsDto;
+import com.spongout.spongout.controller.dto.MatchmakingStatsDto;
+import com.spongout.spongout.controller.dto.ShardLoadDto;
+import com.spongout.spongout.controller.dto.StartupStatsDto;
+import com.spongout.spongout.controller.dto.TransportStatsDto;
+import com.spongout.spongout.journal.RoundJournal;
+import com.spongout.spongout.monitoring.StartupProbe;
+import com.spongout.spongout.service.FrameTransportStats;
+import com.spongout.spongout.service.GameLifecycleManager;
+import com.spongout.spongout.service.GameLoopRuntime;
+import com.spongout.spongout.service.Matchmaker;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * Internal server status, for us and not for players.
+ */
+@RestController
+@RequestMapping("/status")
+@RequiredArgsConstructor
+public class StatusController {
+
+    private final GameLoopRuntime gameLoopRuntime;
+    private final FrameTransportStats frameTransportStats;
+    private final Matchmaker matchmaker;
+    private final GameLifecycleManager gameLifecycleManager;
+    private final RoundJournal roundJournal;
+    private final StartupProbe startupProbe;
+
+    @GetMapping("/shards")
+    public List<ShardLoadDto> shards() {
+        return gameLoopRuntime.getShardLoads();
+    }
+
+    @GetMapping("/transports")
+    public List<TransportStatsDto> transports() {
+        return frameTransportStats.getStats();
+    }
+
+    @GetMapping("/games")
+    public GameLifecycleStatsDto games() {
+        return gameLifecycleManager.getStats();
+    }
+
+    @GetMapping("/matchmaking")
+    public MatchmakingStatsDto matchmaking() {
+        return matchmaker.getStats();
+    }
+
+    @GetMapping("/journal")
+    public JournalStatsDto journal() {
+        return roundJournal.getStats();
+    }
+
+    @GetMapping("/startup")
+    public StartupStatsDto startup() {
+        return startupProbe.getStats();
+    }
+}
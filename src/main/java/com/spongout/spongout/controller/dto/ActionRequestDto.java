@@ -3,6 +3,7 @@ package com.spongout.spongout.controller.dto;
 import com.spongout.spongout.model.Action;
 
 public record ActionRequestDto(
-        Action action
+        Action action,
+        Long clientTick // tick of the state frame the player was looking at, null = don't compensate
 ) {
 }
@@ -0,0 +1,7 @@
+package com.spongout.spongout.controller.dto;
+
+public record ClockSyncDto(
+        long clientTime, // echoed back, the client gets its RTT from it
+        long serverTime // filled in by the server (epoch ms) - clients echo it back to /app/game.pong right away
+) {
+}
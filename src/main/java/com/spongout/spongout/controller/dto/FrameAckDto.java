@@ -0,0 +1,6 @@
+package com.spongout.spongout.controller.dto;
+
+public record FrameAckDto(
+        long tick // last binary state frame the client decoded
+) {
+}
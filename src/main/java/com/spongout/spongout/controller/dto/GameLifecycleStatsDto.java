@@ -0,0 +1,12 @@
+package com.spongout.spongout.controller.dto;
+
+public record GameLifecycleStatsDto(
+        int liveGames,
+        int finishedGames, // round over, waiting to be reaped
+        long reapedGames,
+        long reclaimedBytes, // estimate, arrays and buffers of reaped games
+        int pooledInstances,
+        long poolHits,
+        long poolMisses
+) {
+}
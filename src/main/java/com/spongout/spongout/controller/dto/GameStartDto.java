@@ -3,6 +3,12 @@ package com.spongout.spongout.controller.dto;
 import java.util.UUID;
 
 public record GameStartDto(
-        UUID gameId
+        UUID gameId,
+        String streamToken, // opens /ws/state?token=... for this player
+        String serverUrl, // cluster mode: the game runs on another node, reconnect there...
+        String handoffToken // ...and send this to /app/game.bind. Both null when the game runs here.
 ) {
+    public GameStartDto(UUID gameId, String streamToken) {
+        this(gameId, streamToken, null, null);
+    }
 }
@@ -1,9 +1,34 @@
 package com.spongout.spongout.controller.dto;
 
+import lombok.Data;
+
+import java.util.ArrayList;
 import java.util.List;
 
-public record GameStateDto(
-        List<PlayerStateDto> players,
-        double arenaRadius
-) {
+/**
+ * World state broadcast every tick, together with the game events that happened since the previous one.
+ * {@code tick} goes up by one with every broadcast of the round.
+ * <p>
+ * Every game keeps one instance and refills it in place instead of building a new list of DTOs per tick.
+ * It is safe because {@code convertAndSend} serializes the payload before returning.
+ */
+@Data
+public class GameStateDto {
+
+    private long tick;
+    private final List<PlayerStateDto> players = new ArrayList<>();
+    private double arenaRadius;
+    private final List<GameEventDto> events = new ArrayList<>();
+
+    /**
+     * Makes sure there is exactly one reusable {@link PlayerStateDto} per player slot.
+     */
+    public void resize(int playersCount) {
+        while (players.size() > playersCount) {
+            players.removeLast();
+        }
+        while (players.size() < playersCount) {
+            players.add(new PlayerStateDto());
+        }
+    }
 }
@@ -0,0 +1,4 @@
+package com.spongout.spongout.controller.dto;
+
+public record HandoffBindDto(String handoffToken) {
+}
@@ -0,0 +1,10 @@
+package com.spongout.spongout.controller.dto;
+
+public record JournalStatsDto(
+        boolean enabled,
+        long writtenRounds,
+        long writtenBytes,
+        long droppedRounds, // too big, or the writer couldn't keep up
+        int queuedRounds
+) {
+}
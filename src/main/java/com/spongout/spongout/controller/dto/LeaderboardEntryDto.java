@@ -0,0 +1,11 @@
+package com.spongout.spongout.controller.dto;
+
+public record LeaderboardEntryDto(
+        int rank,
+        String nickname,
+        long wins,
+        long rounds,
+        long eliminations, // rounds the player got knocked out of
+        long score
+) {
+}
@@ -0,0 +1,14 @@
+package com.spongout.spongout.controller.dto;
+
+public record MatchmakingStatsDto(
+        int waitingPlayers,
+        int openLobbies,
+        int runningCountdowns,
+        long gamesFormed,
+        // join to game start, over the last few thousand players
+        double joinToStartP50Ms,
+        double joinToStartP90Ms,
+        double joinToStartP99Ms,
+        double joinToStartMaxMs
+) {
+}
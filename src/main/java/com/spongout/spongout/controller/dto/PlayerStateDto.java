@@ -1,11 +1,17 @@
 package com.spongout.spongout.controller.dto;
 
-public record PlayerStateDto(
-        boolean eliminated,
-        String nickname,
-        double x,
-        double y,
-        double size,
-        double angle
-) {
+import lombok.Data;
+
+/**
+ * Mutable on purpose - one instance per player slot is reused every tick, see {@link GameStateDto}.
+ */
+@Data
+public class PlayerStateDto {
+
+    private boolean eliminated;
+    private String nickname;
+    private double x;
+    private double y;
+    private double size;
+    private double angle;
 }
@@ -0,0 +1,11 @@
+package com.spongout.spongout.controller.dto;
+
+/**
+ * This server is going away (deploy). Drop the connection, wait and connect again.
+ */
+public record ReconnectDto(
+        String serverUrl, // null = same url, the next process takes over
+        String handoffToken, // send it to /app/game.bind to get back into your game, null = just join again
+        long retryAfterMs
+) {
+}
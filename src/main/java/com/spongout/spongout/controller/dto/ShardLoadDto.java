@@ -0,0 +1,11 @@
+package com.spongout.spongout.controller.dto;
+
+public record ShardLoadDto(
+        int shard,
+        int games,
+        double utilization, // busy time / frame time, above 1.0 the shard can't keep up
+        long overruns,
+        int degradationLevel, // see TickSupervisor
+        boolean stalled
+) {
+}
@@ -0,0 +1,14 @@
+package com.spongout.spongout.controller.dto;
+
+import java.util.List;
+
+public record StartupStatsDto(
+        String mode, // jit, cds, aot, aot+cds or native
+        long readyMs, // JVM start to application ready, -1 = not yet
+        long firstTickMs, // JVM start to the first game tick, -1 = no game ticked yet
+        int ticksRecorded,
+        List<WarmupBucket> warmup // tick times of the first ticks, one bucket per warmup-bucket-ticks
+) {
+    public record WarmupBucket(int fromTick, double meanUs, double p99Us, double maxUs) {
+    }
+}
@@ -0,0 +1,11 @@
+package com.spongout.spongout.controller.dto;
+
+public record TransportStatsDto(
+        String transport,
+        long frames,
+        long bytes,
+        double avgSendMicros, // handed to the transport until written to the socket
+        long conflated, // state frames replaced by a newer one before a slow client got them
+        long failures
+) {
+}
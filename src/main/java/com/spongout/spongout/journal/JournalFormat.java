@@ -0,0 +1,94 @@
+package com.spongout.spongout.journal;
+
+import com.spongout.spongout.model.WorldState;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of the replay journal.
+ * <pre>
+ * segment: MAGIC, VERSION, then rounds as [int length][round], length 0 = nothing more (rest of the file is zeros)
+ * round:   gameId (2 longs), start epoch ms, spawn seed, physics constants, players in slot order
+ *          (session id, nickname), then records until END
+ * </pre>
+ * Records don't carry tick numbers: they sit between the steps they happened between, so a run of 1000 quiet steps
+ * is one STEPS record and an input is 2-12 bytes. Counts, slots and ticks are varints.
+ */
+public final class JournalFormat {
+
+    public static final int MAGIC = 0x53504A31; // "SPJ1"
+    public static final int VERSION = 1;
+    public static final int SEGMENT_HEADER_BYTES = 2 * Integer.BYTES;
+
+    /** Run of fixed steps: count, step nanos. */
+    static final byte STEPS = 1;
+    /** One variable step: delta seconds (double), round time ms. */
+    static final byte STEP = 2;
+    /** EXPEL of a player in the round: slot, client tick + 1, accepted, angle (double, only if accepted). */
+    static final byte EXPEL = 3;
+    /** Player left mid-round: slot. */
+    static final byte LEAVE = 4;
+    /** Round over: outcome, winner slot + 1, checksum of the final world. */
+    static final byte END = 5;
+
+    public enum Outcome {
+        WINNER,
+        NO_SURVIVORS,
+        ABORTED
+    }
+
+    private JournalFormat() {
+    }
+
+    /**
+     * Fingerprint of the simulation state. Two runs are the same round only if they end with the same bits.
+     */
+    public static long checksum(WorldState world, double arenaRadius) {
+        long hash = Double.doubleToLongBits(arenaRadius);
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            hash = mix(hash, Double.doubleToLongBits(world.getX()[slot]));
+            hash = mix(hash, Double.doubleToLongBits(world.getY()[slot]));
+            hash = mix(hash, Double.doubleToLongBits(world.getVx()[slot]));
+            hash = mix(hash, Double.doubleToLongBits(world.getVy()[slot]));
+            hash = mix(hash, Double.doubleToLongBits(world.getSize()[slot]));
+            hash = mix(hash, Double.doubleToLongBits(world.getAngle()[slot]));
+            hash = mix(hash, world.getAlive()[slot] ? 1 : 0);
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return Long.rotateLeft(hash ^ value, 27) * 0x9E3779B97F4A7C15L;
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    static void putString(ByteBuffer buffer, byte[] utf8) {
+        putVarLong(buffer, utf8.length);
+        buffer.put(utf8);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] utf8 = new byte[(int) getVarLong(buffer)];
+        buffer.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,72 @@
+package com.spongout.spongout.journal;
+
+import com.spongout.spongout.config.GameConstants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One round read back from the journal, see {@link JournalFormat}.
+ *
+ * @param constants the physics constants the round was played with, the rest are left at defaults
+ * @param records   the step and input records, positioned at the first one
+ */
+public record JournaledRound(UUID gameId, long startEpochMs, long seed, GameConstants constants,
+                             List<String> sessionIds, List<String> nicknames, ByteBuffer records) {
+
+    /**
+     * Reads all rounds of a segment file.
+     */
+    public static List<JournaledRound> readSegment(Path segment) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.remaining() < JournalFormat.SEGMENT_HEADER_BYTES || data.getInt() != JournalFormat.MAGIC) {
+            throw new IOException(segment + " is not a round journal");
+        }
+        int version = data.getInt();
+        if (version != JournalFormat.VERSION) {
+            throw new IOException(segment + " has journal version " + version + ", expected " + JournalFormat.VERSION);
+        }
+        List<JournaledRound> rounds = new ArrayList<>();
+        while (data.remaining() >= Integer.BYTES) {
+            int length = data.getInt();
+            if (length <= 0 || length > data.remaining()) {
+                break; // end of the written part
+            }
+            rounds.add(parse(data.slice(data.position(), length)));
+            data.position(data.position() + length);
+        }
+        return rounds;
+    }
+
+    static JournaledRound parse(ByteBuffer round) {
+        UUID gameId = new UUID(round.getLong(), round.getLong());
+        long startEpochMs = round.getLong();
+        long seed = round.getLong();
+        GameConstants constants = new GameConstants();
+        constants.setArenaInitialRadius(round.getDouble());
+        constants.setPlayerStartingSize(round.getDouble());
+        constants.setPlayerGrowthRate(round.getDouble());
+        constants.setPlayerSpinRateRad(round.getDouble());
+        constants.setFrictionFactor(round.getDouble());
+        constants.setSuddenDeathMs(round.getLong());
+        constants.setArenaShrinkRate(round.getDouble());
+        constants.setLaunchPowerMultiplier(round.getDouble());
+        int players = (int) JournalFormat.getVarLong(round);
+        List<String> sessionIds = new ArrayList<>(players);
+        List<String> nicknames = new ArrayList<>(players);
+        for (int slot = 0; slot < players; slot++) {
+            sessionIds.add(JournalFormat.getString(round));
+            nicknames.add(JournalFormat.getString(round));
+        }
+        return new JournaledRound(gameId, startEpochMs, seed, constants, sessionIds, nicknames, round.slice());
+    }
+}
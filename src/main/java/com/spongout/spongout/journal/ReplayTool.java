@@ -0,0 +1,84 @@
+package com.spongout.spongout.journal;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays journaled rounds from the command line and checks they end the same way they did live.
+ * <pre>
+ * java -cp SpongOut.jar -Dloader.main=com.spongout.spongout.journal.ReplayTool \
+ *      org.springframework.boot.loader.launch.PropertiesLauncher [--game &lt;id&gt;] [-v] &lt;segment or directory&gt;...
+ * </pre>
+ * {@code --game} replays only rounds of that game (id or its start), {@code -v} prints every input.
+ * Exits with 1 if any round didn't replay exactly.
+ */
+public final class ReplayTool {
+
+    private ReplayTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String game = null;
+        boolean verbose = false;
+        List<Path> segments = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--game" -> game = args[++i];
+                case "-v" -> verbose = true;
+                default -> segments.addAll(segmentsIn(Path.of(args[i])));
+            }
+        }
+        if (segments.isEmpty()) {
+            System.err.println("Usage: ReplayTool [--game <id>] [-v] <segment or directory>...");
+            System.exit(2);
+        }
+
+        int replayed = 0;
+        int mismatched = 0;
+        for (Path segment : segments) {
+            for (JournaledRound round : JournaledRound.readSegment(segment)) {
+                if (game != null && !round.gameId().toString().startsWith(game)) {
+                    continue;
+                }
+                System.out.printf("%s game %s, %d players %s%n", Instant.ofEpochMilli(round.startEpochMs()),
+                        round.gameId(), round.sessionIds().size(), round.nicknames());
+                RoundReplayer.Result result = RoundReplayer.replay(round,
+                        verbose ? line -> System.out.println("  " + line) : line -> { });
+                replayed++;
+                if (result.matches()) {
+                    System.out.printf("  OK - %s after %d steps%n", describe(round, result.expectedOutcome(),
+                            result.expectedWinnerSlot()), result.steps());
+                } else {
+                    mismatched++;
+                    System.out.printf("  MISMATCH - live: %s (checksum %x), replay: %s after %d steps (checksum %x)%n",
+                            describe(round, result.expectedOutcome(), result.expectedWinnerSlot()), result.expectedChecksum(),
+                            result.state(), result.steps(), result.checksum());
+                }
+            }
+        }
+        System.out.printf("%d round(s) replayed, %d mismatched%n", replayed, mismatched);
+        System.exit(mismatched == 0 ? 0 : 1);
+    }
+
+    private static String describe(JournaledRound round, JournalFormat.Outcome outcome, int winnerSlot) {
+        return outcome == JournalFormat.Outcome.WINNER ? round.nicknames().get(winnerSlot) + " won" : outcome.toString();
+    }
+
+    private static List<Path> segmentsIn(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path,
+                RoundJournal.SEGMENT_PREFIX + "*" + RoundJournal.SEGMENT_SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        segments.sort(null); // by start time, it's in the name
+        return segments;
+    }
+}
@@ -0,0 +1,207 @@
+package com.spongout.spongout.journal;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.config.JournalConstants;
+import com.spongout.spongout.controller.dto.JournalStatsDto;
+import com.spongout.spongout.model.GameInstance;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only journal of every played round, for replaying "I pressed space and nothing happened" -
+ * see {@link RoundReplayer}.
+ * <p>
+ * The tick thread records into the game's own {@link RoundRecorder} and hands the finished round over through a
+ * lock-free queue, it never touches the disk. A single writer thread appends the rounds to memory-mapped segment
+ * files ({@code rounds-<epoch ms>.journal}) and deletes segments older than {@code retention-days}.
+ * Segments are sparse, the unwritten tail takes no disk. Rounds still running when the process dies are lost.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RoundJournal {
+
+    static final String SEGMENT_PREFIX = "rounds-";
+    static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final long RETENTION_CHECK_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    private final JournalConstants journalConstants;
+    private final GameConstants gameConstants;
+
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong droppedRounds = new AtomicLong();
+    private final AtomicLong writtenRounds = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private Thread writer;
+    private volatile boolean running;
+
+    // writer thread only
+    private Path directory;
+    private MappedByteBuffer segment;
+    private Path segmentPath;
+    private long lastRetentionCheckNanos;
+
+    @PostConstruct
+    void start() {
+        if (!journalConstants.isEnabled()) {
+            return;
+        }
+        directory = Path.of(journalConstants.getDirectory());
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            // replays are a debugging aid, the game server runs without them
+            log.error("Can't create the journal directory {}, rounds won't be recorded", directory.toAbsolutePath(), e);
+            return;
+        }
+        running = true;
+        writer = new Thread(this::run, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Recording rounds to {}", directory.toAbsolutePath());
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * Starts recording the round the game just spawned. Tick thread of the game.
+     */
+    public void begin(GameInstance game, long seed) {
+        if (running) {
+            game.getJournal().begin(game, seed, gameConstants);
+        }
+    }
+
+    /**
+     * Ends the recording and queues the round for the writer. Tick thread of the game, never blocks.
+     *
+     * @param winnerSlot -1 if nobody won
+     */
+    public void finish(GameInstance game, JournalFormat.Outcome outcome, int winnerSlot) {
+        RoundRecorder recorder = game.getJournal();
+        if (!recorder.isRecording()) {
+            return;
+        }
+        byte[] round = recorder.end(outcome, winnerSlot,
+                JournalFormat.checksum(game.getWorld(), game.getCurrentArenaRadius()));
+        if (round == null || queuedBytes.get() > journalConstants.getMaxQueuedMb() * 1024L * 1024L) {
+            // too big, or the disk can't keep up - losing a replay beats stalling the game loop
+            long dropped = droppedRounds.incrementAndGet();
+            if (dropped == 1 || dropped % 100 == 0) {
+                log.warn("Round of game {} not journaled ({} dropped so far)", game.getGameId(), dropped);
+            }
+            return;
+        }
+        queuedBytes.addAndGet(round.length);
+        pending.add(round);
+        LockSupport.unpark(writer);
+    }
+
+    public JournalStatsDto getStats() {
+        return new JournalStatsDto(running, writtenRounds.get(), writtenBytes.get(), droppedRounds.get(), pending.size());
+    }
+
+    private void run() {
+        lastRetentionCheckNanos = System.nanoTime();
+        deleteExpiredSegments();
+        while (running || !pending.isEmpty()) {
+            try {
+                byte[] round;
+                while ((round = pending.poll()) != null) {
+                    queuedBytes.addAndGet(-round.length);
+                    append(round);
+                }
+                if (System.nanoTime() - lastRetentionCheckNanos > RETENTION_CHECK_NANOS) {
+                    lastRetentionCheckNanos = System.nanoTime();
+                    deleteExpiredSegments();
+                }
+                if (running) {
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                }
+            } catch (Exception e) {
+                log.error("Writing the round journal failed", e);
+                segment = null; // start over in a new segment
+                LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    private void append(byte[] round) throws IOException {
+        if (segment == null || segment.remaining() < Integer.BYTES + round.length + Integer.BYTES) {
+            openSegment(round.length);
+        }
+        segment.putInt(round.length);
+        segment.put(round);
+        writtenRounds.incrementAndGet();
+        writtenBytes.addAndGet(Integer.BYTES + round.length);
+    }
+
+    private void openSegment(int firstRoundBytes) throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        long size = Math.max(journalConstants.getSegmentSizeMb() * 1024L * 1024L,
+                JournalFormat.SEGMENT_HEADER_BYTES + 2L * Integer.BYTES + firstRoundBytes);
+        Path path = directory.resolve(SEGMENT_PREFIX + System.currentTimeMillis() + SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // stays mapped after the close
+        }
+        segment.putInt(JournalFormat.MAGIC);
+        segment.putInt(JournalFormat.VERSION);
+        segmentPath = path;
+        log.debug("New journal segment {}", path);
+    }
+
+    private void deleteExpiredSegments() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(journalConstants.getRetentionDays());
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : segments) {
+                // by the start time in the name, writes through the mapping don't reliably touch the mtime
+                if (segmentStartMillis(path) < cutoff && !path.equals(segmentPath)) {
+                    Files.deleteIfExists(path);
+                    log.info("Deleted expired journal segment {}", path);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Cleaning up old journal segments failed", e);
+        }
+    }
+
+    static long segmentStartMillis(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE; // not ours, keep it
+        }
+    }
+}
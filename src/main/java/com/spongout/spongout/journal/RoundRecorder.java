@@ -0,0 +1,173 @@
+package com.spongout.spongout.journal;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.WorldState;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Journal entry of the round a game is playing, see {@link JournalFormat}. Lives next to the game and only its tick
+ * thread writes to it - into a plain heap buffer, the disk is the writer thread's business ({@link RoundJournal}).
+ * The buffer is kept between rounds, so recording doesn't allocate once it grew big enough.
+ * <p>
+ * Every method is a no-op while nothing is being recorded (journal off, or a replayed game).
+ */
+public class RoundRecorder {
+
+    /** A round that grows past this (stuck or flooded with inputs) isn't worth keeping. */
+    private static final int MAX_ROUND_BYTES = 8 * 1024 * 1024;
+    private static final int MAX_RECORD_BYTES = 32;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private boolean recording;
+
+    // steps are run-length encoded, the run is written out when something else happens
+    private long runSteps;
+    private long runStepNanos;
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /**
+     * Starts a new entry. Call right after spawning, so the players are in their slots.
+     */
+    public void begin(GameInstance game, long seed, GameConstants constants) {
+        buffer.clear();
+        recording = true;
+        runSteps = 0;
+
+        WorldState world = game.getWorld();
+        ensure(128);
+        buffer.putLong(game.getGameId().getMostSignificantBits());
+        buffer.putLong(game.getGameId().getLeastSignificantBits());
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putLong(seed);
+        buffer.putDouble(constants.getArenaInitialRadius());
+        buffer.putDouble(constants.getPlayerStartingSize());
+        buffer.putDouble(constants.getPlayerGrowthRate());
+        buffer.putDouble(constants.getPlayerSpinRateRad());
+        buffer.putDouble(constants.getFrictionFactor());
+        buffer.putLong(constants.getSuddenDeathMs());
+        buffer.putDouble(constants.getArenaShrinkRate());
+        buffer.putDouble(constants.getLaunchPowerMultiplier());
+        JournalFormat.putVarLong(buffer, world.getCount());
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            Player player = world.getPlayers()[slot];
+            byte[] sessionId = player.getSessionId().getBytes(StandardCharsets.UTF_8);
+            byte[] nickname = player.getNickname().getBytes(StandardCharsets.UTF_8);
+            ensure(sessionId.length + nickname.length + 2 * MAX_RECORD_BYTES);
+            JournalFormat.putString(buffer, sessionId);
+            JournalFormat.putString(buffer, nickname);
+        }
+    }
+
+    public void steps(int count, long stepNanos) {
+        if (!recording || count == 0) {
+            return;
+        }
+        if (runSteps > 0 && runStepNanos != stepNanos) {
+            flushRun();
+        }
+        runSteps += count;
+        runStepNanos = stepNanos;
+    }
+
+    public void step(double deltaSeconds, long gameTimeMs) {
+        if (!record(JournalFormat.STEP)) {
+            return;
+        }
+        buffer.putDouble(deltaSeconds);
+        JournalFormat.putVarLong(buffer, Math.max(0, gameTimeMs));
+    }
+
+    /**
+     * @param accepted false if the player was already out, nothing happens then
+     * @param angle    the launch angle the player gets, NaN = whatever the angle is when he launches
+     */
+    public void expel(int slot, long clientTick, boolean accepted, double angle) {
+        if (!record(JournalFormat.EXPEL)) {
+            return;
+        }
+        JournalFormat.putVarLong(buffer, slot);
+        JournalFormat.putVarLong(buffer, Math.max(0, clientTick + 1));
+        buffer.put((byte) (accepted ? 1 : 0));
+        if (accepted) {
+            buffer.putDouble(angle);
+        }
+    }
+
+    public void leave(int slot) {
+        if (!record(JournalFormat.LEAVE)) {
+            return;
+        }
+        JournalFormat.putVarLong(buffer, slot);
+    }
+
+    /**
+     * Closes the entry.
+     *
+     * @param winnerSlot -1 if nobody won
+     * @return the whole round, or null if nothing was being recorded
+     */
+    public byte[] end(JournalFormat.Outcome outcome, int winnerSlot, long checksum) {
+        if (!record(JournalFormat.END)) {
+            return null;
+        }
+        buffer.put((byte) outcome.ordinal());
+        JournalFormat.putVarLong(buffer, winnerSlot + 1);
+        buffer.putLong(checksum);
+        recording = false;
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    public void clear() {
+        recording = false;
+        runSteps = 0;
+    }
+
+    private boolean record(byte type) {
+        if (!recording) {
+            return false;
+        }
+        flushRun();
+        if (!ensure(MAX_RECORD_BYTES)) {
+            return false;
+        }
+        buffer.put(type);
+        return true;
+    }
+
+    private void flushRun() {
+        if (runSteps == 0) {
+            return;
+        }
+        if (ensure(MAX_RECORD_BYTES)) {
+            buffer.put(JournalFormat.STEPS);
+            JournalFormat.putVarLong(buffer, runSteps);
+            JournalFormat.putVarLong(buffer, runStepNanos);
+        }
+        runSteps = 0;
+    }
+
+    /**
+     * Makes room for {@code bytes} (plus one more record). Gives up on the round if it got too big.
+     */
+    private boolean ensure(int bytes) {
+        int needed = bytes + MAX_RECORD_BYTES;
+        if (buffer.remaining() >= needed) {
+            return true;
+        }
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + needed);
+        if (capacity > MAX_ROUND_BYTES) {
+            recording = false;
+            return false;
+        }
+        buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+        return true;
+    }
+}
@@ -0,0 +1,108 @@
+package com.spongout.spongout.journal;
+
+import com.spongout.spongout.config.LoggingConstants;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.WorldState;
+import com.spongout.spongout.service.GameEngine;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+/**
+ * Plays a journaled round again on a fresh {@link GameEngine}, no Spring and no network. Spawn, steps and inputs
+ * come from the journal, so the round must end exactly as it did live - same outcome, same checksum.
+ */
+public final class RoundReplayer {
+
+    /**
+     * @param expectedChecksum checksum of the world at the end of the live round
+     * @param checksum         checksum at the end of the replay
+     * @param steps            physics steps replayed
+     */
+    public record Result(JournalFormat.Outcome expectedOutcome, int expectedWinnerSlot, long expectedChecksum,
+                         GameInstance.GameState state, int winnerSlot, long checksum, long steps) {
+
+        public boolean matches() {
+            boolean outcomeMatches = expectedOutcome == JournalFormat.Outcome.ABORTED
+                    || (state == GameInstance.GameState.ROUND_OVER && winnerSlot == expectedWinnerSlot);
+            return outcomeMatches && checksum == expectedChecksum;
+        }
+    }
+
+    private RoundReplayer() {
+    }
+
+    /**
+     * @param trace gets a line for every input, eliminations go to the engine's log as they did live
+     */
+    public static Result replay(JournaledRound round, Consumer<String> trace) {
+        GameEngine engine = new GameEngine(round.constants(), new LoggingConstants());
+        GameInstance game = new GameInstance();
+        game.setGameId(round.gameId());
+        for (int slot = 0; slot < round.sessionIds().size(); slot++) {
+            String sessionId = round.sessionIds().get(slot);
+            game.getPlayers().put(sessionId, new Player(round.nicknames().get(slot), sessionId));
+        }
+        engine.startRound(game, round.seed());
+
+        WorldState world = game.getWorld();
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            if (!world.getPlayers()[slot].getSessionId().equals(round.sessionIds().get(slot))) {
+                throw new IllegalStateException("Players spawned in a different order than in the journal");
+            }
+        }
+
+        ByteBuffer records = round.records().duplicate();
+        long steps = 0;
+        while (records.hasRemaining()) {
+            byte type = records.get();
+            switch (type) {
+                case JournalFormat.STEPS -> {
+                    long count = JournalFormat.getVarLong(records);
+                    long stepNanos = JournalFormat.getVarLong(records);
+                    for (long i = 0; i < count; i++) {
+                        engine.stepFixed(game, stepNanos);
+                    }
+                    steps += count;
+                }
+                case JournalFormat.STEP -> {
+                    engine.stepVariable(game, records.getDouble(), JournalFormat.getVarLong(records));
+                    steps++;
+                }
+                case JournalFormat.EXPEL -> {
+                    int slot = (int) JournalFormat.getVarLong(records);
+                    long clientTick = JournalFormat.getVarLong(records) - 1;
+                    boolean accepted = records.get() != 0;
+                    double angle = accepted ? records.getDouble() : Double.NaN;
+                    trace.accept(String.format("step %d: EXPEL by %s (saw tick %d) %s", steps, round.nicknames().get(slot),
+                            clientTick, accepted ? rewindNote(world, slot, angle) : "ignored, already out"));
+                    if (accepted) {
+                        engine.expel(game, slot, angle);
+                    }
+                }
+                case JournalFormat.LEAVE -> {
+                    int slot = (int) JournalFormat.getVarLong(records);
+                    trace.accept(String.format("step %d: %s left", steps, round.nicknames().get(slot)));
+                    world.kill(slot);
+                }
+                case JournalFormat.END -> {
+                    JournalFormat.Outcome outcome = JournalFormat.Outcome.values()[records.get()];
+                    int winnerSlot = (int) JournalFormat.getVarLong(records) - 1;
+                    long checksum = records.getLong();
+                    return new Result(outcome, winnerSlot, checksum, game.getCurrentState(),
+                            game.getCurrentState() == GameInstance.GameState.ROUND_OVER ? world.firstAlive() : -1,
+                            JournalFormat.checksum(world, game.getCurrentArenaRadius()), steps);
+                }
+                default -> throw new IllegalStateException("Unknown journal record " + type);
+            }
+        }
+        throw new IllegalStateException("Round " + round.gameId() + " has no end record");
+    }
+
+    private static String rewindNote(WorldState world, int slot, double angle) {
+        return Double.isNaN(angle)
+                ? "at the current angle"
+                : String.format("rewound by %.3f rad", world.getAngle()[slot] - angle);
+    }
+}
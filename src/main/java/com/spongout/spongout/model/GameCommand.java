@@ -0,0 +1,34 @@
+package com.spongout.spongout.model;
+
+/**
+ * Something a network thread wants done to a game. Applied by the game's tick thread, see {@link GameCommandQueue}.
+ *
+ * @param sessionId  the player the command is about - for REBIND his previous session
+ * @param player     the joining player (JOIN), the player's new session (REBIND)
+ * @param clientTick broadcast tick the player saw when pressing EXPEL, -1 = unknown (EXPEL only)
+ */
+public record GameCommand(Type type, String sessionId, Player player, long clientTick) {
+
+    public enum Type {
+        JOIN, // takes part from the next round on
+        LEAVE,
+        EXPEL,
+        REBIND // player of a resumed game came back on a new session, see GameCheckpoints
+    }
+
+    public static GameCommand join(Player player) {
+        return new GameCommand(Type.JOIN, player.getSessionId(), player, -1);
+    }
+
+    public static GameCommand leave(String sessionId) {
+        return new GameCommand(Type.LEAVE, sessionId, null, -1);
+    }
+
+    public static GameCommand rebind(String previousSessionId, Player player) {
+        return new GameCommand(Type.REBIND, previousSessionId, player, -1);
+    }
+
+    public static GameCommand expel(String sessionId, long clientTick) {
+        return new GameCommand(Type.EXPEL, sessionId, null, clientTick);
+    }
+}
@@ -0,0 +1,60 @@
+package com.spongout.spongout.model;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mailbox of one game. Any thread offers commands, the game's tick thread drains them at the start of every frame,
+ * so the game state has a single writer and needs no concurrent collections.
+ * <p>
+ * Lock-free. Only expels are bounded: when a game is flooded with them, new ones are dropped instead of piling up.
+ * Joins, leaves and rebinds are never dropped - a lost leave would keep a ghost alive in the world - and there are
+ * only ever a handful of them per player.
+ */
+public class GameCommandQueue {
+
+    /** Expels waiting at most. */
+    public static final int CAPACITY = 1024;
+
+    private final ConcurrentLinkedQueue<GameCommand> commands = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger expels = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @return false if it's an expel, the queue is full of them and so it was dropped
+     */
+    public boolean offer(GameCommand command) {
+        if (command.type() == GameCommand.Type.EXPEL && expels.incrementAndGet() > CAPACITY) {
+            expels.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        commands.add(command);
+        return true;
+    }
+
+    /**
+     * @return next command, or null if there is none. Tick thread only.
+     */
+    public GameCommand poll() {
+        GameCommand command = commands.poll();
+        if (command != null && command.type() == GameCommand.Type.EXPEL) {
+            expels.decrementAndGet();
+        }
+        return command;
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // drop
+        }
+    }
+
+    /**
+     * @return expels dropped so far because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
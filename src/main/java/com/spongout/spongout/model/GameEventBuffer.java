@@ -0,0 +1,57 @@
+package com.spongout.spongout.model;
+
+import java.util.Arrays;
+
+/**
+ * Game events that happened since the last state broadcast.
+ * <p>
+ * The engine only records them here - they go out inside the next state frame, stamped with its tick, so the
+ * client knows exactly which state an event belongs to and the physics loop never talks to the broker.
+ * Only the game's tick thread touches it.
+ */
+public class GameEventBuffer {
+
+    public static final int NO_SLOT = -1;
+
+    private GameEventType[] types = new GameEventType[8];
+    private int[] slots = new int[8];
+    private int count;
+
+    /**
+     * @param slot player the event is about, or {@link #NO_SLOT}
+     */
+    public void add(GameEventType type, int slot) {
+        if (count == types.length) {
+            types = Arrays.copyOf(types, count * 2);
+            slots = Arrays.copyOf(slots, count * 2);
+        }
+        types[count] = type;
+        slots[count] = slot;
+        count++;
+    }
+
+    public void add(GameEventType type) {
+        add(type, NO_SLOT);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public GameEventType typeAt(int index) {
+        return types[index];
+    }
+
+    public int slotAt(int index) {
+        return slots[index];
+    }
+
+    public void clear() {
+        Arrays.fill(types, 0, count, null);
+        count = 0;
+    }
+}
@@ -20,5 +20,7 @@ public enum GameEventType {
     /** SUDDEN DEATH Started! */
     SUDDEN_DEATH,
     /** The game round has finished and there is a winner. */
-    ROUND_WINNER
+    ROUND_WINNER,
+    /** The round broke on the server and was stopped without a winner. */
+    ROUND_ABORTED
 }
\ No newline at end of file
@@ -1,15 +1,21 @@
 package com.spongout.spongout.model;
 
+import com.spongout.spongout.controller.dto.GameStateDto;
+import com.spongout.spongout.journal.RoundRecorder;
+import com.spongout.spongout.monitoring.LogSampler;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ThreadLocalRandom;
 
 @Slf4j
 @Getter
@@ -17,13 +23,38 @@ import java.util.concurrent.ThreadLocalRandom;
 public class GameInstance {
 
     private UUID gameId;
+    @Setter(AccessLevel.NONE)
+    private String logContext; // MDC value of the game's thread while it ticks, computed once per game
     private GameState currentState;
-    private final Map<String, Player> players = new ConcurrentHashMap<>(); //now i see that it would be soo easier to have them in list.
-    private final List<Player> alivePlayers = new CopyOnWriteArrayList<>();
+    private final Map<String, Player> players = new HashMap<>(); //now i see that it would be soo easier to have them in list.
+    private final GameCommandQueue commands = new GameCommandQueue(); // only way in for other threads once the round runs
+    private final WorldState world = new WorldState(); // physics of the current round, see WorldState
     private double currentArenaRadius;
     private long roundStartTime;
     private long lastTickTime; // Used to calculate deltaTime for physics
 
+    // Fixed-timestep bookkeeping (System.nanoTime based)
+    private long lastLoopNanos;
+    private long accumulatorNanos; // simulated time we still owe
+    private long simulationTick; // physics steps done this round
+    private long simulatedNanos; // round time in simulated (not wall clock) time
+    private volatile int degradationLevel; // set from the loop shard, see TickSupervisor
+    private long nextBroadcastNanos;
+
+    // Collision scratch space, reused every tick so the broadphase doesn't allocate
+    private final SpatialGrid collisionGrid = new SpatialGrid();
+    private int[] collisionCandidates = new int[0];
+
+    // Snapshot sent to players every tick. DTOs are mutable and reused - convertAndSend serializes them right away
+    private final GameStateDto stateSnapshot = new GameStateDto();
+    private long broadcastTick; // number of state frames sent this round
+    private ByteBuffer frameBuffer; // scratch for binary frames, see StateFrameEncoder
+    private final SnapshotHistory snapshotHistory = new SnapshotHistory(); // baselines for delta frames
+    private final GameEventBuffer pendingEvents = new GameEventBuffer(); // go out with the next state frame
+    private final RewindHistory rewindHistory = new RewindHistory(); // angles players saw, for lag compensation
+    private final LogSampler launchLogs = new LogSampler();
+    private final RoundRecorder journal = new RoundRecorder(); // the round for replays, see RoundJournal
+
     // An enum to represent the game's current state
     public enum GameState {
         WAITING_FOR_PLAYERS,
@@ -37,37 +68,94 @@ public class GameInstance {
      * Constructor to initialize a new game instance with default values.
      */
     public GameInstance() {
-        this.gameId = UUID.randomUUID();
+        setGameId(UUID.randomUUID());
         this.currentState = GameState.WAITING_FOR_PLAYERS;
 
         //rest should be set by gameEngine when round starts
     }
 
+    /**
+     * Makes a finished game look like a brand new one, but keeps the world arrays, histories and frame buffer
+     * it already grew - see GameInstancePool.
+     */
+    public void reset(UUID newGameId) {
+        setGameId(newGameId);
+        this.currentState = GameState.WAITING_FOR_PLAYERS;
+        players.clear();
+        world.clear(0);
+        currentArenaRadius = 0;
+        roundStartTime = lastTickTime = 0;
+        lastLoopNanos = accumulatorNanos = simulationTick = simulatedNanos = nextBroadcastNanos = 0;
+        degradationLevel = 0;
+        broadcastTick = 0;
+        snapshotHistory.clear();
+        pendingEvents.clear();
+        rewindHistory.clear();
+        commands.clear();
+        launchLogs.clear();
+        journal.clear();
+    }
+
+    public void setGameId(UUID gameId) {
+        this.gameId = gameId;
+        // first block of the UUID - short, but still greppable against the full ids in the other log lines
+        this.logContext = gameId != null ? gameId.toString().substring(0, 8) : null;
+    }
+
+    /**
+     * Rough number of bytes in the primitive arrays and buffers the game holds on to, for the lifecycle stats.
+     * Object headers and the players themselves aren't counted.
+     */
+    public long estimateRetainedBytes() {
+        // world: x, y, vx, vy, size, angle + alive + players + bodies
+        long bytes = (long) world.getX().length * (6 * Double.BYTES + 1 + 2 * Integer.BYTES);
+        for (int i = 0; i < SnapshotHistory.CAPACITY; i++) {
+            // x, y, size, angle + eliminated
+            bytes += snapshotHistory.getX()[i].length * (4L * Short.BYTES + 1);
+        }
+        for (double[] angles : rewindHistory.getAngles()) {
+            bytes += (long) angles.length * Double.BYTES;
+        }
+        bytes += (long) collisionCandidates.length * Integer.BYTES;
+        bytes += frameBuffer != null ? frameBuffer.capacity() : 0;
+        return bytes;
+    }
+
     //TODO move it to `GameEngine`
-    public void spawnPlayers(double playerInitialMass) {
+    /**
+     * Same seed and same players give the same spawn, so a journaled round can be replayed - see RoundJournal.
+     * That's also why slots go by session id and not by the (hash) order of the players map.
+     */
+    public void spawnPlayers(double playerInitialMass, long seed) {
         // We'll spawn players in the inner 80% of the arena to give them some space.
         final double spawnRadius = this.currentArenaRadius * 0.8;
-        for (Player player : players.values()) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Player> ordered = new ArrayList<>(players.values());
+        ordered.sort(Comparator.comparing(Player::getSessionId));
+        world.clear(players.size());
+        for (Player player : ordered) {
             // Reset all physics and state for the new round
             player.resetForNewRound();
-            player.setSize(playerInitialMass);
+            int slot = world.add(player);
+            world.getSize()[slot] = playerInitialMass;
 
             double spawnX, spawnY;
 
             // The Rejection Sampling loop
             do {
                 // 1. Pick a random point in the bounding square [-spawnRadius, +spawnRadius]
-                spawnX = ThreadLocalRandom.current().nextDouble(-spawnRadius, spawnRadius);
-                spawnY = ThreadLocalRandom.current().nextDouble(-spawnRadius, spawnRadius);
+                spawnX = random.nextDouble(-spawnRadius, spawnRadius);
+                spawnY = random.nextDouble(-spawnRadius, spawnRadius);
 
                 // 2. Check if the point is inside the circle. If not, the loop repeats.
             } while (spawnX * spawnX + spawnY * spawnY > spawnRadius * spawnRadius);
 
             // 3. We have a valid position. Assign it to the player.
-            player.setX(spawnX);
-            player.setY(spawnY);
+            world.getX()[slot] = spawnX;
+            world.getY()[slot] = spawnY;
 
             log.info("Spawning player {} at ({}, {})", player.getNickname(), spawnX, spawnY);
         }
+        stateSnapshot.resize(world.getCount());
     }
 }
@@ -0,0 +1,58 @@
+package com.spongout.spongout.model;
+
+import java.util.Arrays;
+
+/**
+ * What one binary client holds for every slot after each of its last frames, indexed by broadcast tick like
+ * {@link SnapshotHistory}.
+ * <p>
+ * With area of interest filtering a client doesn't get far away players in every frame, so after the frame of
+ * tick T its copy of a slot can come from an older snapshot. For every slot we keep the tick of that snapshot -
+ * the delta for the slot is encoded against it, and it says how stale the client's copy is.
+ * Only the tick thread of the game touches it.
+ */
+public class InterestHistory {
+
+    public static final int NOTHING = -1;
+
+    private final long[] ticks = new long[SnapshotHistory.CAPACITY];
+    private int[][] sourceTicks = new int[SnapshotHistory.CAPACITY][0];
+
+    public InterestHistory() {
+        Arrays.fill(ticks, -1);
+    }
+
+    public void clear() {
+        Arrays.fill(ticks, -1);
+    }
+
+    /**
+     * Claims the entry for the frame of {@code tick}. The caller fills in the source tick of every slot.
+     */
+    public int[] record(long tick, int playersCount) {
+        int index = (int) (tick % SnapshotHistory.CAPACITY);
+        if (sourceTicks[index].length < playersCount) {
+            sourceTicks[index] = new int[playersCount];
+        }
+        ticks[index] = tick;
+        return sourceTicks[index];
+    }
+
+    /**
+     * Records a frame with every slot in it (a full state frame).
+     */
+    public void recordAll(long tick, int playersCount) {
+        Arrays.fill(record(tick, playersCount), 0, playersCount, (int) tick);
+    }
+
+    /**
+     * @return source ticks of the slots after the frame of {@code tick}, or null if it's not known (anymore)
+     */
+    public int[] find(long tick) {
+        if (tick < 0) {
+            return null;
+        }
+        int index = (int) (tick % SnapshotHistory.CAPACITY);
+        return ticks[index] == tick ? sourceTicks[index] : null;
+    }
+}
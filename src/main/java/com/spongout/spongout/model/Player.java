@@ -17,13 +17,14 @@ public class Player implements Principal {
     private boolean isEliminated;
     private boolean inMove;
 
-    //Physics
-    private double x, y;
-    private double velocityX, velocityY;
-    private double size;
-    private double angle;
+    //Physics lives in the game's WorldState, under this player's slot
 
-    private volatile boolean goingToExpel; //not sure if this will be needed.
+    // set from EXPEL commands, on the tick thread - see GameCommandQueue
+    private boolean goingToExpel; //not sure if this will be needed.
+    private double expelAngle = Double.NaN; // angle the player saw when pressing EXPEL, NaN = unknown, use the current one
+
+    // smoothed round trip of this session, from the clock sync pings - bounds the lag compensation
+    private volatile long rttMs = -1; // -1 = not measured yet
 
     public Player(String nickname, String sessionId) {
         this.score = 0;
@@ -39,26 +40,35 @@ public class Player implements Principal {
     public void resetForNewRound() {
         this.isEliminated = false;
         this.goingToExpel = false;
-        this.velocityX = 0;
-        this.velocityY = 0;
-        // Position (x, y) and initial size should be set by the GameEngine when spawning.
+        this.expelAngle = Double.NaN;
+        // Position (x, y), velocity and initial size are set in the WorldState when spawning.
     }
 
-    @Override
-    public String getName() {
-        return this.getNickname();
+    /**
+     * Carries over the round state of the same player on his previous session.
+     */
+    public void takeOver(Player previous) {
+        this.score = previous.score;
+        this.isEliminated = previous.isEliminated;
+        this.goingToExpel = previous.goingToExpel;
+        this.expelAngle = previous.expelAngle;
     }
 
-    public void changeSize(double value) {
-        this.size += value;
+    /**
+     * Adds one RTT measurement, smoothed the same way the client does it.
+     */
+    public void recordRtt(long sampleMs) {
+        long previous = rttMs;
+        rttMs = previous < 0 ? sampleMs : Math.round(previous * 0.8 + sampleMs * 0.2);
     }
 
-    public void changeAngle(double value) {
-        this.angle += value;
+    @Override
+    public String getName() {
+        return this.getNickname();
     }
 
     public void addWin(int playersCount) {
-        this.score = playersCount * 100;
+        this.score += playersCount * 100;
     }
 }
 
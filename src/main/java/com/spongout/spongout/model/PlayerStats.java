@@ -0,0 +1,26 @@
+package com.spongout.spongout.model;
+
+import java.util.Comparator;
+
+/**
+ * Totals of one player over all rounds he played, kept across sessions by nickname.
+ *
+ * @param eliminations rounds the player got knocked out of
+ * @param score        what {@link Player#addWin} gives: 100 per opponent in every won round
+ */
+public record PlayerStats(String nickname, long wins, long rounds, long eliminations, long score) {
+
+    /** Leaderboard order: best score first, then more wins, then by name so the order is stable. */
+    public static final Comparator<PlayerStats> RANKING = Comparator.comparingLong(PlayerStats::score).reversed()
+            .thenComparing(Comparator.comparingLong(PlayerStats::wins).reversed())
+            .thenComparing(PlayerStats::nickname);
+
+    public static PlayerStats empty(String nickname) {
+        return new PlayerStats(nickname, 0, 0, 0, 0);
+    }
+
+    public PlayerStats plus(PlayerStats other) {
+        return new PlayerStats(nickname, wins + other.wins, rounds + other.rounds,
+                eliminations + other.eliminations, score + other.score);
+    }
+}
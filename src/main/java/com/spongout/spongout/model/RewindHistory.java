@@ -0,0 +1,54 @@
+package com.spongout.spongout.model;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Player angles as they were sent in the last state broadcasts, indexed by broadcast tick.
+ * <p>
+ * A client presses EXPEL looking at the frame of some tick, while the server already spun the arrow further by
+ * the time the input arrives. With this ring the launch can use the angle the player actually saw.
+ * Fixed size and reused, so recording every broadcast doesn't allocate. Only the game's tick thread touches it.
+ */
+@Getter
+public class RewindHistory {
+
+    public static final int CAPACITY = 64; // ~1 s at 60 broadcasts per second, more than the rewind window
+
+    private final long[] ticks = new long[CAPACITY];
+    private final long[] recordedNanos = new long[CAPACITY];
+    private double[][] angles = new double[CAPACITY][0];
+
+    public RewindHistory() {
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(ticks, -1);
+    }
+
+    /**
+     * Remembers the angles of the world as they go out with the broadcast of {@code tick}.
+     */
+    public void record(long tick, long nanos, WorldState world) {
+        int index = (int) (tick % CAPACITY);
+        if (angles[index].length < world.getCount()) {
+            angles[index] = new double[world.getCount()];
+        }
+        System.arraycopy(world.getAngle(), 0, angles[index], 0, world.getCount());
+        ticks[index] = tick;
+        recordedNanos[index] = nanos;
+    }
+
+    /**
+     * @return index of the entry for {@code tick}, or -1 if it was already overwritten (or never recorded)
+     */
+    public int indexOf(long tick) {
+        if (tick < 0) {
+            return -1;
+        }
+        int index = (int) (tick % CAPACITY);
+        return ticks[index] == tick ? index : -1;
+    }
+}
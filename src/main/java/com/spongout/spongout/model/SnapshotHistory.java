@@ -0,0 +1,92 @@
+package com.spongout.spongout.model;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+/**
+ * Short ring of the last quantized snapshots of a game, indexed by broadcast tick.
+ * Delta frames are encoded against the entry of the tick a client acknowledged last.
+ * <p>
+ * Values are stored exactly as they go on the wire (16-bit fixed point), so a delta says "changed" only when the
+ * client would actually see a different number. Only the game's tick thread touches it.
+ */
+@Getter
+public class SnapshotHistory {
+
+    public static final int CAPACITY = 32;
+    private static final int CACHED_FRAMES = 4;
+
+    private final long[] ticks = new long[CAPACITY];
+    private final int[] counts = new int[CAPACITY];
+    private short[][] x = new short[CAPACITY][0];
+    private short[][] y = new short[CAPACITY][0];
+    private short[][] size = new short[CAPACITY][0];
+    private short[][] angle = new short[CAPACITY][0];
+    private boolean[][] eliminated = new boolean[CAPACITY][0];
+
+    // Delta frames already encoded for the latest tick, by baseline. Clients on the same baseline share the bytes.
+    private final long[] cachedBaselines = new long[CACHED_FRAMES];
+    private final byte[][] cachedFrames = new byte[CACHED_FRAMES][];
+    private int cachedCount;
+
+    public SnapshotHistory() {
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(ticks, -1);
+        Arrays.fill(cachedFrames, null);
+        cachedCount = 0;
+    }
+
+    /**
+     * Claims the ring entry for {@code tick} with room for {@code playersCount} players. The caller fills it in.
+     *
+     * @return index of the entry
+     */
+    public int record(long tick, int playersCount) {
+        int index = (int) (tick % CAPACITY);
+        if (x[index].length < playersCount) {
+            x[index] = new short[playersCount];
+            y[index] = new short[playersCount];
+            size[index] = new short[playersCount];
+            angle[index] = new short[playersCount];
+            eliminated[index] = new boolean[playersCount];
+        }
+        ticks[index] = tick;
+        counts[index] = playersCount;
+        Arrays.fill(cachedFrames, null);
+        cachedCount = 0;
+        return index;
+    }
+
+    /**
+     * @return delta frame of the latest tick against {@code baselineTick} if it was already encoded, else null
+     */
+    public byte[] cachedFrame(long baselineTick) {
+        for (int i = 0; i < cachedCount; i++) {
+            if (cachedBaselines[i] == baselineTick) {
+                return cachedFrames[i];
+            }
+        }
+        return null;
+    }
+
+    public void cacheFrame(long baselineTick, byte[] frame) {
+        int i = cachedCount < CACHED_FRAMES ? cachedCount++ : (int) (baselineTick % CACHED_FRAMES);
+        cachedBaselines[i] = baselineTick;
+        cachedFrames[i] = frame;
+    }
+
+    /**
+     * @return index of the entry for {@code tick}, or -1 if it was already overwritten (or never recorded)
+     */
+    public int indexOf(long tick) {
+        if (tick < 0) {
+            return -1;
+        }
+        int index = (int) (tick % CAPACITY);
+        return ticks[index] == tick ? index : -1;
+    }
+}
@@ -0,0 +1,149 @@
+package com.spongout.spongout.model;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid broadphase for the circle-vs-circle collision pass.
+ * <p>
+ * Bodies are binned once per pass with a counting sort into flat int arrays, so after the first
+ * few ticks rebuilding the grid doesn't allocate anything. The cell size is never smaller than the
+ * biggest possible contact distance (two times the biggest radius), which means every overlapping
+ * pair sits either in the same cell or in one of the 8 neighbouring cells.
+ * <p>
+ * Positions are copied in with {@link #put} and binned as they were at the start of the pass.
+ * Not thread safe - every game owns its own grid and only its tick thread touches it.
+ */
+public class SpatialGrid {
+
+    /** Caps memory for huge or very spread out arenas - cells just get bigger instead. */
+    private static final int MAX_CELLS_PER_AXIS = 64;
+
+    private int count;
+    private double[] xs = new double[0];
+    private double[] ys = new double[0];
+    private int[] bodyCell = new int[0];
+    private int[] cellBodies = new int[0];
+    private int[] cellStart = new int[0];
+
+    private double minX, minY;
+    private double cellSize;
+    private int columns, rows;
+
+    /**
+     * Starts a new pass for {@code bodyCount} bodies. Every index in {@code [0, bodyCount)} has to be
+     * filled with {@link #put} before calling {@link #build}.
+     */
+    public void reset(int bodyCount) {
+        if (xs.length < bodyCount) {
+            int capacity = Math.max(bodyCount, xs.length * 2);
+            xs = new double[capacity];
+            ys = new double[capacity];
+            bodyCell = new int[capacity];
+            cellBodies = new int[capacity];
+        }
+        this.count = bodyCount;
+    }
+
+    public void put(int index, double x, double y) {
+        xs[index] = x;
+        ys[index] = y;
+    }
+
+    /**
+     * Bins all bodies.
+     *
+     * @param contactDistance the biggest distance at which two bodies can touch (sum of the two biggest radii)
+     */
+    public void build(double contactDistance) {
+        if (count == 0) {
+            columns = rows = 0;
+            return;
+        }
+        double maxX, maxY;
+        minX = maxX = xs[0];
+        minY = maxY = ys[0];
+        for (int i = 1; i < count; i++) {
+            minX = Math.min(minX, xs[i]);
+            maxX = Math.max(maxX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+        double extent = Math.max(maxX - minX, maxY - minY);
+        cellSize = Math.max(Math.max(contactDistance, extent / (MAX_CELLS_PER_AXIS - 1)), 1e-6);
+        columns = (int) ((maxX - minX) / cellSize) + 1;
+        rows = (int) ((maxY - minY) / cellSize) + 1;
+
+        int cells = columns * rows;
+        if (cellStart.length < cells + 1) {
+            cellStart = new int[cells + 1];
+        } else {
+            Arrays.fill(cellStart, 0, cells + 1, 0);
+        }
+
+        // counting sort: count bodies per cell, prefix sum, then scatter
+        for (int i = 0; i < count; i++) {
+            int cell = cellOf(xs[i], ys[i]);
+            bodyCell[i] = cell;
+            cellStart[cell + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        // scatter from the back, so bodies inside one cell stay in ascending index order
+        int[] cursor = cellStart;
+        for (int i = count - 1; i >= 0; i--) {
+            int cell = bodyCell[i];
+            cellBodies[--cursor[cell + 1]] = i;
+        }
+        // after scattering cellStart[c + 1] points at the start of cell c, shift it back in place
+        System.arraycopy(cellStart, 1, cellStart, 0, cells);
+        cellStart[cells] = count;
+    }
+
+    /**
+     * Writes every body with an index greater than {@code index} that lies in the same or a neighbouring cell
+     * into {@code out}, sorted ascending. Visiting only higher indices means every pair is reported exactly once.
+     *
+     * @param out buffer with room for at least {@link #size()} entries
+     * @return the number of candidates written to {@code out}
+     */
+    public int candidatesAfter(int index, int[] out) {
+        int cell = bodyCell[index];
+        int cx = cell % columns;
+        int cy = cell / columns;
+        int found = 0;
+        for (int y = Math.max(cy - 1, 0); y <= Math.min(cy + 1, rows - 1); y++) {
+            for (int x = Math.max(cx - 1, 0); x <= Math.min(cx + 1, columns - 1); x++) {
+                int c = y * columns + x;
+                for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+                    int other = cellBodies[k];
+                    if (other > index) {
+                        found = insertSorted(out, found, other);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private int cellOf(double x, double y) {
+        int cx = Math.min((int) ((x - minX) / cellSize), columns - 1);
+        int cy = Math.min((int) ((y - minY) / cellSize), rows - 1);
+        return cy * columns + cx;
+    }
+
+    //candidate lists are tiny, plain insertion sort beats anything fancier here
+    private static int insertSorted(int[] out, int length, int value) {
+        int i = length;
+        while (i > 0 && out[i - 1] > value) {
+            out[i] = out[i - 1];
+            i--;
+        }
+        out[i] = value;
+        return length + 1;
+    }
+}
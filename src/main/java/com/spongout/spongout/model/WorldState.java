@@ -0,0 +1,115 @@
+package com.spongout.spongout.model;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Physics state of one game kept as struct-of-arrays.
+ * <p>
+ * Every player in a round gets a dense slot index and all of its physics lives in primitive arrays under that index,
+ * so the tick walks plain {@code double[]}s instead of chasing {@link Player} objects. Arrays only grow (when a
+ * bigger round comes in) and are reused between rounds, which keeps the tick path allocation free.
+ * <p>
+ * Only the game's tick thread should mutate it.
+ */
+@Getter
+public class WorldState {
+
+    private int count; // slots in use, [0, count)
+    private int aliveCount;
+
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] vx = new double[0];
+    private double[] vy = new double[0];
+    private double[] size = new double[0];
+    private double[] angle = new double[0];
+    private boolean[] alive = new boolean[0];
+    private Player[] players = new Player[0];
+
+    /** Scratch list of alive slots for the collision pass. */
+    private int[] bodies = new int[0];
+
+    private final Map<String, Integer> slotsBySession = new HashMap<>();
+
+    /**
+     * Drops all players and makes room for {@code capacity} of them. Called once per round before spawning.
+     */
+    public void clear(int capacity) {
+        if (x.length < capacity) {
+            x = new double[capacity];
+            y = new double[capacity];
+            vx = new double[capacity];
+            vy = new double[capacity];
+            size = new double[capacity];
+            angle = new double[capacity];
+            alive = new boolean[capacity];
+            players = new Player[capacity];
+            bodies = new int[capacity];
+        }
+        Arrays.fill(players, 0, count, null);
+        slotsBySession.clear();
+        count = 0;
+        aliveCount = 0;
+    }
+
+    /**
+     * Gives the player the next free slot with zeroed physics.
+     *
+     * @return the slot index of the player
+     */
+    public int add(Player player) {
+        if (count == x.length) {
+            throw new IllegalStateException("World is full, clear(capacity) it with room for all players first");
+        }
+        int slot = count++;
+        x[slot] = y[slot] = vx[slot] = vy[slot] = size[slot] = angle[slot] = 0;
+        alive[slot] = true;
+        players[slot] = player;
+        slotsBySession.put(player.getSessionId(), slot);
+        aliveCount++;
+        return slot;
+    }
+
+    /**
+     * @return the slot of the player with given session, or -1 if he isn't in this world
+     */
+    public int slotOf(String sessionId) {
+        Integer slot = slotsBySession.get(sessionId);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Puts another player object (same player, new session) into the slot.
+     */
+    public void replace(int slot, Player player) {
+        slotsBySession.remove(players[slot].getSessionId());
+        slotsBySession.put(player.getSessionId(), slot);
+        players[slot] = player;
+    }
+
+    /**
+     * Takes the player out of the simulation. He keeps his slot, so the last known state can still be reported.
+     */
+    public void kill(int slot) {
+        if (alive[slot]) {
+            alive[slot] = false;
+            aliveCount--;
+        }
+    }
+
+    /**
+     * @return first alive slot or -1 if nobody is alive
+     */
+    public int firstAlive() {
+        for (int slot = 0; slot < count; slot++) {
+            if (alive[slot]) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,53 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.model.GameInstance;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A whole state broadcast of one game, JSON and binary. Its phases are {@link TickPhaseEvent}s.
+ */
+@Name("spongout.Broadcast")
+@Label("State Broadcast")
+@Category({"SpongOut", "Network"})
+@Description("State of a game sent to its subscribers")
+@StackTrace(false)
+public class BroadcastEvent extends Event {
+
+    @Label("Game Id")
+    String gameId;
+
+    @Label("Players")
+    int players;
+
+    @Label("Tick")
+    long tick;
+
+    @Label("Binary Subscribers")
+    int binarySubscribers;
+
+    @Label("JSON")
+    boolean json;
+
+    @Label("Binary Bytes")
+    @DataAmount
+    long binaryBytes;
+
+    public void finish(GameInstance game, int binarySubscribers, boolean json, long binaryBytes) {
+        end();
+        if (shouldCommit()) {
+            this.gameId = String.valueOf(game.getGameId());
+            this.players = game.getWorld().getCount();
+            this.tick = game.getBroadcastTick();
+            this.binarySubscribers = binarySubscribers;
+            this.json = json;
+            this.binaryBytes = binaryBytes;
+            commit();
+        }
+    }
+}
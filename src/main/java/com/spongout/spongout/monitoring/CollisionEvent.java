@@ -0,0 +1,37 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.model.GameInstance;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Two players bounced off each other. Can be many per second in a crowded arena, off in the production profile.
+ */
+@Name("spongout.Collision")
+@Label("Player Collision")
+@Category({"SpongOut", "Gameplay"})
+@StackTrace(false)
+public class CollisionEvent extends Event {
+
+    @Label("Game Id")
+    String gameId;
+
+    @Label("First Player")
+    String first;
+
+    @Label("Second Player")
+    String second;
+
+    public static void record(GameInstance game, int firstSlot, int secondSlot) {
+        CollisionEvent event = new CollisionEvent();
+        if (event.shouldCommit()) {
+            event.gameId = String.valueOf(game.getGameId());
+            event.first = game.getWorld().getPlayers()[firstSlot].getNickname();
+            event.second = game.getWorld().getPlayers()[secondSlot].getNickname();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.config.JfrConstants;
+import jakarta.annotation.PostConstruct;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Flight Recorder running all the time: the JDK's default profile plus the bundled {@code jfr/spongout.jfc},
+ * as a rolling buffer of the last {@code max-age-minutes}. Same as starting the JVM with
+ * {@code -XX:StartFlightRecording:settings=default,settings=spongout.jfc}, but without touching the launch command.
+ * <p>
+ * Always a bean, {@code continuous} is checked when it starts - an AOT processed context (the "fast" Docker image)
+ * fixes bean conditions at build time, so a {@code @ConditionalOnProperty} would ignore the runtime setting.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ContinuousRecording {
+
+    public static final String RECORDING_NAME = "spongout";
+    private static final String PROFILE = "jfr/spongout.jfc";
+
+    private final JfrConstants jfrConstants;
+
+    @PostConstruct
+    void start() throws IOException, ParseException {
+        if (!jfrConstants.isContinuous()) {
+            return;
+        }
+        Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+        try (Reader profile = new InputStreamReader(new ClassPathResource(PROFILE).getInputStream(), StandardCharsets.UTF_8)) {
+            settings.putAll(Configuration.create(profile).getSettings());
+        }
+        Recording recording = new Recording(settings);
+        recording.setName(RECORDING_NAME);
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofMinutes(jfrConstants.getMaxAgeMinutes()));
+        recording.setMaxSize(jfrConstants.getMaxSizeMb() * 1024 * 1024);
+        String dumpPath = jfrConstants.getDumpPath();
+        if (dumpPath != null && !dumpPath.isBlank()) {
+            // JFR's own shutdown hook writes it, a @PreDestroy would race it and find the chunks already gone
+            recording.setDestination(Path.of(dumpPath));
+            recording.setDumpOnExit(true);
+        }
+        recording.start();
+        log.info("Continuous JFR recording started, dump it with: jcmd <pid> JFR.dump name={} filename=<file>.jfr", RECORDING_NAME);
+    }
+}
@@ -0,0 +1,34 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.model.GameInstance;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("spongout.Elimination")
+@Label("Player Eliminated")
+@Category({"SpongOut", "Gameplay"})
+@StackTrace(false)
+public class EliminationEvent extends Event {
+
+    @Label("Game Id")
+    String gameId;
+
+    @Label("Player")
+    String player;
+
+    @Label("Players Left")
+    int alive;
+
+    public static void record(GameInstance game, String player) {
+        EliminationEvent event = new EliminationEvent();
+        if (event.shouldCommit()) {
+            event.gameId = String.valueOf(game.getGameId());
+            event.player = player;
+            event.alive = game.getWorld().getAliveCount();
+            event.commit();
+        }
+    }
+}
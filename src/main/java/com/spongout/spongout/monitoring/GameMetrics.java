@@ -0,0 +1,145 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.config.WebSocketConstants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording side of the server metrics, scraped from {@code /actuator/prometheus}.
+ * <p>
+ * Every meter is created up front (per loop shard, per destination type), so recording on the tick path is a
+ * lookup in a small array and a primitive add - no tags built, no allocation.
+ * Gauges (games, players, lobbies) are in {@link ServerGauges}.
+ */
+@Component
+public class GameMetrics {
+
+    /** What a message sent by the server is, by its destination. */
+    public enum Destination {
+        STATE(WebSocketConstants.GAME_STATE_TOPIC), // JSON state
+        FRAMES(WebSocketConstants.GAME_FRAME_QUEUE), // binary state over STOMP
+        RAW_FRAMES(null), // binary state over the raw socket, not a broker destination
+        EVENTS(WebSocketConstants.GAME_EVENTS_TOPIC),
+        PRIVATE(WebSocketConstants.USER_PRIVATE_QUEUE),
+        CLOCK(WebSocketConstants.CLOCK_SYNC_QUEUE),
+        OTHER(null);
+
+        private static final Destination[] VALUES = values(); // values() clones the array on every call
+
+        private final String prefix;
+
+        Destination(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public static Destination of(String destination) {
+            if (destination != null) {
+                for (Destination type : VALUES) {
+                    if (type.prefix != null && destination.startsWith(type.prefix)) {
+                        return type;
+                    }
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    public enum StateFormat {
+        JSON, BINARY
+    }
+
+    private final MeterRegistry registry;
+    private final Counter[] messages = new Counter[Destination.values().length];
+    private final Counter[] messageBytes = new Counter[Destination.values().length];
+    private final DistributionSummary[] stateBytes = new DistributionSummary[StateFormat.values().length];
+    private final Timer matchmakingLatency;
+    private final ConcurrentHashMap<Integer, LoopMeters> loops = new ConcurrentHashMap<>();
+
+    public GameMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (Destination destination : Destination.values()) {
+            String tag = destination.name().toLowerCase();
+            messages[destination.ordinal()] = Counter.builder("spongout.messages.sent")
+                    .description("Messages sent by the server")
+                    .tag("destination", tag)
+                    .register(registry);
+            messageBytes[destination.ordinal()] = Counter.builder("spongout.messages.bytes")
+                    .description("Payload bytes sent by the server")
+                    .baseUnit("bytes")
+                    .tag("destination", tag)
+                    .register(registry);
+        }
+        for (StateFormat format : StateFormat.values()) {
+            stateBytes[format.ordinal()] = DistributionSummary.builder("spongout.state.bytes")
+                    .description("State one client gets per broadcast tick")
+                    .baseUnit("bytes")
+                    .tag("format", format.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .register(registry);
+        }
+        matchmakingLatency = Timer.builder("spongout.matchmaking.latency")
+                .description("Join to game start")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(registry);
+    }
+
+    /**
+     * Meters of one game loop shard. Grab them once, outside the loop.
+     */
+    public LoopMeters loop(int shard) {
+        return loops.computeIfAbsent(shard, index -> new LoopMeters(registry, index));
+    }
+
+    public void recordMessage(Destination destination, int bytes) {
+        messages[destination.ordinal()].increment();
+        messageBytes[destination.ordinal()].increment(bytes);
+    }
+
+    public void recordStateBytes(StateFormat format, long bytes) {
+        stateBytes[format.ordinal()].record(bytes);
+    }
+
+    public void recordMatchmakingLatency(long nanos) {
+        matchmakingLatency.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public static final class LoopMeters {
+        private final Timer tickDuration;
+        private final Timer tickJitter;
+
+        private LoopMeters(MeterRegistry registry, int shard) {
+            String tag = String.valueOf(shard);
+            tickDuration = Timer.builder("spongout.tick.duration")
+                    .description("One game tick on a loop shard")
+                    .tag("shard", tag)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(1))
+                    .register(registry);
+            tickJitter = Timer.builder("spongout.tick.jitter")
+                    .description("How late a loop shard started its frame")
+                    .tag("shard", tag)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(1))
+                    .register(registry);
+        }
+
+        public void recordTick(long nanos) {
+            tickDuration.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void recordJitter(long nanos) {
+            tickJitter.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.model.GameInstance;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("spongout.Launch")
+@Label("Player Launch")
+@Category({"SpongOut", "Gameplay"})
+@Description("A player expelled himself")
+@StackTrace(false)
+public class LaunchEvent extends Event {
+
+    @Label("Game Id")
+    String gameId;
+
+    @Label("Player")
+    String player;
+
+    @Label("Power")
+    double power;
+
+    @Label("Rewound Angle")
+    @Description("How far lag compensation turned the launch back, in radians")
+    double rewoundRadians;
+
+    public static void record(GameInstance game, String player, double power, double rewoundRadians) {
+        LaunchEvent event = new LaunchEvent();
+        if (event.shouldCommit()) {
+            event.gameId = String.valueOf(game.getGameId());
+            event.player = player;
+            event.power = power;
+            event.rewoundRadians = rewoundRadians;
+            event.commit();
+        }
+    }
+}
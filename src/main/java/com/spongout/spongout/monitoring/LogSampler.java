@@ -0,0 +1,52 @@
+package com.spongout.spongout.monitoring;
+
+/**
+ * Rate limit for a high-frequency log line of one game (launches - somebody mashing space is 10+ a second).
+ * Lets through {@code perSecond} lines per one second window and counts the rest, so the next line that gets
+ * through can say how many were skipped.
+ * <p>
+ * Not thread safe, lives next to the game and only the game's tick thread uses it.
+ */
+public class LogSampler {
+
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    private long windowStartNanos;
+    private int loggedInWindow;
+    private long skipped;
+
+    /**
+     * @param perSecond lines allowed per second, 0 or less = no limit
+     * @return true if this line should be logged
+     */
+    public boolean tryAcquire(long nowNanos, int perSecond) {
+        if (perSecond <= 0) {
+            return true;
+        }
+        if (nowNanos - windowStartNanos >= WINDOW_NANOS) {
+            windowStartNanos = nowNanos;
+            loggedInWindow = 0;
+        }
+        if (loggedInWindow < perSecond) {
+            loggedInWindow++;
+            return true;
+        }
+        skipped++;
+        return false;
+    }
+
+    /**
+     * @return lines skipped since the last call, to be mentioned in the line that got through
+     */
+    public long drainSkipped() {
+        long drained = skipped;
+        skipped = 0;
+        return drained;
+    }
+
+    public void clear() {
+        windowStartNanos = 0;
+        loggedInWindow = 0;
+        skipped = 0;
+    }
+}
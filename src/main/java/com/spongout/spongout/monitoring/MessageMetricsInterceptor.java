@@ -0,0 +1,28 @@
+package com.spongout.spongout.monitoring;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts what the server publishes to the broker, by destination type. Sits on the broker channel, so every
+ * {@code convertAndSend} counts once with its serialized payload - before the broker fans it out to subscribers.
+ * State doesn't go through the broker, {@link com.spongout.spongout.service.FrameSender} counts it per client.
+ */
+@Component
+@RequiredArgsConstructor
+public class MessageMetricsInterceptor implements ChannelInterceptor {
+
+    private final GameMetrics gameMetrics;
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        GameMetrics.Destination destination = GameMetrics.Destination.of(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        int bytes = message.getPayload() instanceof byte[] payload ? payload.length : 0;
+        gameMetrics.recordMessage(destination, bytes);
+        return message;
+    }
+}
@@ -0,0 +1,45 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.repository.GameRepository;
+import com.spongout.spongout.repository.PlayerRepository;
+import com.spongout.spongout.service.GameLifecycleManager;
+import com.spongout.spongout.service.Matchmaker;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+/**
+ * How busy the server is right now. Read at scrape time, nothing is recorded on the game path.
+ */
+@Component
+@RequiredArgsConstructor
+public class ServerGauges implements MeterBinder {
+
+    private final GameRepository gameRepository;
+    private final PlayerRepository playerRepository;
+    private final Matchmaker matchmaker;
+    private final GameLifecycleManager gameLifecycleManager;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("spongout.games.active", gameLifecycleManager, manager -> manager.getStats().liveGames())
+                .description("Games with a round running (or about to)")
+                .register(registry);
+        Gauge.builder("spongout.games.finished", gameLifecycleManager, manager -> manager.getStats().finishedGames())
+                .description("Finished games waiting to be reaped")
+                .register(registry);
+        Gauge.builder("spongout.games.stored", gameRepository, GameRepository::count)
+                .register(registry);
+        Gauge.builder("spongout.players.connected", playerRepository, PlayerRepository::count)
+                .description("Players that asked for a game and are still connected")
+                .register(registry);
+        Gauge.builder("spongout.lobby.waiting", matchmaker, Matchmaker::getWaitingPlayers)
+                .description("Players waiting for a game")
+                .register(registry);
+        Gauge.builder("spongout.lobby.open", matchmaker, Matchmaker::getOpenBuckets)
+                .description("Lobbies being filled")
+                .register(registry);
+    }
+}
@@ -0,0 +1,110 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.config.StartupConstants;
+import com.spongout.spongout.controller.dto.StartupStatsDto;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.AotDetector;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.NativeDetector;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * How fast a fresh instance gets useful: JVM start to ready, to the first game tick, and how tick times settle while
+ * the JIT warms up - the first {@code warmup-ticks} ticks (of any game) in buckets. Served at /status/startup for the
+ * autoscaler, scripts/startup-benchmark.sh uses it to compare the startup modes.
+ */
+@Slf4j
+@Component
+public class StartupProbe {
+
+    private final StartupConstants startupConstants;
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final String mode = detectMode();
+    private final AtomicLongArray tickNanos;
+    private final AtomicInteger ticks = new AtomicInteger();
+    private final CompletableFuture<StartupStatsDto> warmedUp = new CompletableFuture<>();
+    private volatile boolean recording = true; // off once the curve is complete, the tick path is one read then
+    private volatile long readyMillis = -1;
+    private volatile long firstTickMillis = -1;
+
+    public StartupProbe(StartupConstants startupConstants) {
+        this.startupConstants = startupConstants;
+        this.tickNanos = new AtomicLongArray(Math.max(1, startupConstants.getWarmupTicks()));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    void ready() {
+        readyMillis = System.currentTimeMillis() - jvmStartMillis;
+        log.info("Ready in {} ms ({} mode)", readyMillis, mode);
+    }
+
+    /**
+     * Called by the loop shards after every game tick, from any of them.
+     */
+    public void recordTick(long nanos) {
+        if (!recording) {
+            return;
+        }
+        int tick = ticks.getAndIncrement();
+        if (tick == 0) {
+            firstTickMillis = System.currentTimeMillis() - jvmStartMillis;
+        }
+        if (tick < tickNanos.length()) {
+            tickNanos.set(tick, nanos);
+        }
+        if (tick == tickNanos.length() - 1) {
+            recording = false;
+            StartupStatsDto stats = getStats();
+            log.info("Warmed up: {}", stats);
+            warmedUp.complete(stats);
+        }
+    }
+
+    /**
+     * @return completes (on a game loop thread) when the warm-up curve is recorded
+     */
+    public CompletableFuture<StartupStatsDto> warmedUp() {
+        return warmedUp;
+    }
+
+    public StartupStatsDto getStats() {
+        int recorded = Math.min(ticks.get(), tickNanos.length());
+        int bucketTicks = Math.max(1, startupConstants.getWarmupBucketTicks());
+        List<StartupStatsDto.WarmupBucket> buckets = new ArrayList<>();
+        for (int from = 0; from + bucketTicks <= recorded; from += bucketTicks) {
+            long[] bucket = new long[bucketTicks];
+            long sum = 0;
+            for (int i = 0; i < bucketTicks; i++) {
+                bucket[i] = tickNanos.get(from + i);
+                sum += bucket[i];
+            }
+            Arrays.sort(bucket);
+            buckets.add(new StartupStatsDto.WarmupBucket(from, micros((double) sum / bucketTicks),
+                    micros(bucket[(int) Math.ceil(0.99 * bucketTicks) - 1]), micros(bucket[bucketTicks - 1])));
+        }
+        return new StartupStatsDto(mode, readyMillis, firstTickMillis, recorded, buckets);
+    }
+
+    private static double micros(double nanos) {
+        return Math.round(nanos / 100) / 10.0;
+    }
+
+    private static String detectMode() {
+        if (NativeDetector.inNativeImage()) {
+            return "native";
+        }
+        boolean aot = AotDetector.useGeneratedArtifacts();
+        boolean cds = ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+                .anyMatch(arg -> arg.startsWith("-XX:SharedArchiveFile"));
+        return aot && cds ? "aot+cds" : aot ? "aot" : cds ? "cds" : "jit";
+    }
+}
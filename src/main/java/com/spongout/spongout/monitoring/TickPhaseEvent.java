@@ -0,0 +1,52 @@
+package com.spongout.spongout.monitoring;
+
+import com.spongout.spongout.model.GameInstance;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * One phase of a game tick, to see in a Flight Recorder dump which one got slow.
+ * <p>
+ * Usage: {@code new TickPhaseEvent()}, {@link #begin()}, the phase, then {@link #finish}. Fields are only filled
+ * when the event is actually recorded, so a disabled (or below threshold) event costs next to nothing.
+ */
+@Name("spongout.TickPhase")
+@Label("Tick Phase")
+@Category({"SpongOut", "Game Loop"})
+@Description("A phase of a game tick")
+@StackTrace(false)
+public class TickPhaseEvent extends Event {
+
+    public enum Phase {
+        APPLY_COMMANDS,
+        UPDATE_PLAYERS,
+        COLLIDE_PLAYERS,
+        UPDATE_GAME_STATE,
+        BUILD_SNAPSHOT, // JSON state DTOs
+        SEND_JSON, // convertAndSend of the JSON state
+        ENCODE_FRAMES // binary frames into the outboxes
+    }
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Game Id")
+    String gameId;
+
+    @Label("Players")
+    int players;
+
+    public void finish(Phase phase, GameInstance game) {
+        end();
+        if (shouldCommit()) {
+            this.phase = phase.name();
+            this.gameId = String.valueOf(game.getGameId());
+            this.players = game.getWorld().getCount();
+            commit();
+        }
+    }
+}
@@ -24,4 +24,12 @@ public class GameRepository {
     public void deleteById(UUID gameId) {
         activeGames.remove(gameId);
     }
+
+    public Collection<GameInstance> findAll() {
+        return activeGames.values();
+    }
+
+    public int count() {
+        return activeGames.size();
+    }
 }
@@ -26,4 +26,8 @@ public class PlayerRepository {
     public void deleteById(String sessionId) {
         activePlayers.remove(sessionId);
     }
+
+    public int count() {
+        return activePlayers.size();
+    }
 }
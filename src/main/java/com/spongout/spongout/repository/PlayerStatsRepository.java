@@ -0,0 +1,66 @@
+package com.spongout.spongout.repository;
+
+import com.spongout.spongout.model.PlayerStats;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Player stats in the embedded database. Only the leaderboard's flusher writes here, requests only read players
+ * the leaderboard doesn't keep in memory.
+ */
+@Repository
+@RequiredArgsConstructor
+public class PlayerStatsRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private static final String SELECT = "SELECT nickname, wins, rounds, eliminations, score FROM player_stats";
+
+    private static final RowMapper<PlayerStats> ROW_MAPPER = (rs, row) -> new PlayerStats(rs.getString("nickname"),
+            rs.getLong("wins"), rs.getLong("rounds"), rs.getLong("eliminations"), rs.getLong("score"));
+
+    /**
+     * @return the best {@code limit} players in {@link PlayerStats#RANKING} order
+     */
+    public List<PlayerStats> findTop(int limit) {
+        return jdbcTemplate.query(SELECT + " ORDER BY score DESC, wins DESC, nickname LIMIT ?", ROW_MAPPER, limit);
+    }
+
+    public Optional<PlayerStats> findByNickname(String nickname) {
+        return jdbcTemplate.query(SELECT + " WHERE nickname = ?", ROW_MAPPER, nickname).stream().findFirst();
+    }
+
+    public List<PlayerStats> findByNicknames(Collection<String> nicknames) {
+        if (nicknames.isEmpty()) {
+            return List.of();
+        }
+        // one array parameter instead of a statement per IN list length
+        return jdbcTemplate.query(SELECT + " WHERE ARRAY_CONTAINS(?, nickname)", ROW_MAPPER,
+                (Object) nicknames.toArray(String[]::new));
+    }
+
+    /**
+     * Writes the totals (not increments), so writing the same stats twice does no harm.
+     */
+    public void saveAll(Collection<PlayerStats> stats) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        jdbcTemplate.batchUpdate(
+                "MERGE INTO player_stats (nickname, wins, rounds, eliminations, score, updated_at) KEY (nickname) "
+                        + "VALUES (?, ?, ?, ?, ?, ?)",
+                stats, stats.size(), (ps, playerStats) -> {
+                    ps.setString(1, playerStats.nickname());
+                    ps.setLong(2, playerStats.wins());
+                    ps.setLong(3, playerStats.rounds());
+                    ps.setLong(4, playerStats.eliminations());
+                    ps.setLong(5, playerStats.score());
+                    ps.setTimestamp(6, now);
+                });
+    }
+}
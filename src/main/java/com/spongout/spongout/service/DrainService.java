@@ -0,0 +1,122 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.ClusterConstants;
+import com.spongout.spongout.config.DrainConstants;
+import com.spongout.spongout.model.GameInstance;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zero downtime deploys.
+ * <p>
+ * On shutdown (SIGTERM) the old process stops taking players, gives running rounds {@code finish-timeout-ms} to end
+ * on their own, then checkpoints the rest (see {@link GameCheckpoints}) and tells their players to reconnect with a
+ * resume token. The next process restores the games on start and each goes on once its players are back.
+ * Everything happens while the web server still runs - the context closed event comes before any bean stops.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DrainService {
+
+    private static final long POLL_MS = 50;
+    private static final long FLUSH_MS = 250; // reconnect messages still have to get out of the outbound channel
+
+    private final DrainConstants drainConstants;
+    private final ClusterConstants clusterConstants;
+    private final GameLobbyService lobbyService;
+    private final GameExecutionService executionService;
+    private final GameInstancePool gameInstancePool;
+
+    @EventListener(ContextClosedEvent.class)
+    public void drain() {
+        if (!drainConstants.isEnabled()) {
+            return;
+        }
+        long started = System.nanoTime();
+        log.info("Draining: no new games, waiting up to {} ms for {} running game/s",
+                drainConstants.getFinishTimeoutMs(), executionService.getRunningGames());
+        lobbyService.drain();
+
+        long finishDeadline = started + TimeUnit.MILLISECONDS.toNanos(drainConstants.getFinishTimeoutMs());
+        while (executionService.getRunningGames() > 0 && System.nanoTime() < finishDeadline) {
+            if (!sleep(POLL_MS)) {
+                break;
+            }
+        }
+        if (executionService.getRunningGames() == 0) {
+            log.info("Drained, all rounds finished");
+            return;
+        }
+
+        List<GameCheckpoints.Checkpoint> checkpoints = executionService.checkpointAll(drainConstants.getCheckpointTimeoutMs());
+        try {
+            GameCheckpoints.writeFile(checkpointFile(), checkpoints, System.currentTimeMillis());
+        } catch (IOException e) {
+            log.error("Writing checkpoint of {} game/s failed, they are lost", checkpoints.size(), e);
+            return;
+        }
+        for (GameCheckpoints.Checkpoint checkpoint : checkpoints) {
+            lobbyService.sendResumeTokens(checkpoint.seats());
+        }
+        log.info("Drained, {} game/s checkpointed to {} in {} ms", checkpoints.size(), checkpointFile(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        sleep(FLUSH_MS);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void restore() {
+        Path file = checkpointFile();
+        if (!drainConstants.isEnabled() || !Files.exists(file)) {
+            return;
+        }
+        try {
+            GameCheckpoints.CheckpointFile checkpoint = GameCheckpoints.readFile(file);
+            long age = System.currentTimeMillis() - checkpoint.writtenAtMillis();
+            if (age > drainConstants.getMaxCheckpointAgeMs()) {
+                log.warn("Checkpoint {} is {} s old, not resuming its {} game/s", file, age / 1000, checkpoint.games().size());
+                return;
+            }
+            for (byte[] data : checkpoint.games()) {
+                GameInstance game = gameInstancePool.acquire();
+                List<GameCheckpoints.ResumeSeat> seats = GameCheckpoints.decode(data, game, System.currentTimeMillis());
+                log.info("Game {} restored from checkpoint, waiting for {} player/s", game.getGameId(), seats.size());
+                lobbyService.awaitResume(game, seats);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Restoring games from {} failed", file, e);
+        } finally {
+            // resumed or not, it must not be picked up by yet another start
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Can't delete checkpoint {}", file, e);
+            }
+        }
+    }
+
+    private Path checkpointFile() {
+        // one per node, several instances can share the directory
+        return Path.of(drainConstants.getDirectory(), "checkpoint-" + clusterConstants.getNodeId() + ".bin");
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.spongout.spongout.service;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Outbound frames of one binary client, between the tick thread (fills it) and a {@link FrameSender} thread
+ * (writes it to the client).
+ * <ul>
+ *     <li>State frames conflate: if the sender didn't get to the previous one yet, the newer one replaces it.
+ *     Deltas are against ticks the client acked, so whichever one gets out decodes fine.</li>
+ *     <li>Frames the client must see (roster, frames carrying events) queue up in order and are never replaced.</li>
+ * </ul>
+ * Only one frame is out at a time: the sender hands the next one to the client's sink when the previous one has been
+ * written to the socket. So while a slow client's write is pending, newer state frames replace each other here
+ * instead of queueing up in the transport, and a client that can't keep up holds at most one state frame, no matter
+ * how slow it is. It also gets fewer state frames: the rate adapts to how often frames got replaced and how many
+ * bytes are waiting for the client.
+ */
+public class FrameOutbox {
+
+    private static final int MAX_ORDERED_FRAMES = 256; // more and the client is given up on
+    private static final int MAX_SEND_EVERY = 8;
+    private static final int BACKLOG_HIGH_BYTES = 16 * 1024;
+    private static final int CLEAN_DRAINS_TO_SPEED_UP = 120;
+
+    private final AtomicReference<byte[]> latestState = new AtomicReference<>();
+    private final ConcurrentLinkedQueue<byte[]> ordered = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger orderedCount = new AtomicInteger();
+    private final AtomicInteger orderedBytes = new AtomicInteger();
+    private final AtomicInteger conflated = new AtomicInteger(); // replaced since the sender last looked
+    final AtomicBoolean draining = new AtomicBoolean(); // one sender at a time, see FrameSender
+
+    /** The client gets a plain state frame every n-th broadcast. */
+    private volatile int sendEvery = 1;
+    /** Size of the frame the sink is writing right now, 0 if none. */
+    private volatile int inFlightBytes;
+    private int cleanDrains; // sender only, drains in a row without conflation or backlog
+    private volatile boolean closed;
+
+    /**
+     * @return true if a plain state frame (no events) of {@code tick} should go to this client at all
+     */
+    public boolean wantsState(long tick) {
+        return tick % sendEvery == 0;
+    }
+
+    /**
+     * Puts a state frame in, replacing the one the sender didn't get to yet.
+     */
+    public void offerState(byte[] frame) {
+        if (!closed && latestState.getAndSet(frame) != null) {
+            conflated.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queues a frame that must reach the client, in order. An older state frame still waiting is dropped,
+     * it would arrive after this newer one.
+     *
+     * @return false if the client is so far behind it should be given up on
+     */
+    public boolean offerOrdered(byte[] frame) {
+        if (closed) {
+            return true;
+        }
+        latestState.set(null);
+        ordered.add(frame);
+        orderedBytes.addAndGet(frame.length);
+        return orderedCount.incrementAndGet() <= MAX_ORDERED_FRAMES;
+    }
+
+    public int getSendEvery() {
+        return sendEvery;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    byte[] pollOrdered() {
+        byte[] frame = ordered.poll();
+        if (frame != null) {
+            orderedCount.decrementAndGet();
+            orderedBytes.addAndGet(-frame.length);
+        }
+        return frame;
+    }
+
+    byte[] takeState() {
+        return latestState.getAndSet(null);
+    }
+
+    /**
+     * @return bytes waiting for the client: the frame being written plus the ordered ones queued behind it
+     */
+    public int backlogBytes() {
+        return inFlightBytes + orderedBytes.get();
+    }
+
+    boolean isInFlight() {
+        return inFlightBytes > 0;
+    }
+
+    void startSend(byte[] frame) {
+        inFlightBytes = frame.length;
+    }
+
+    void finishSend() {
+        inFlightBytes = 0;
+    }
+
+    boolean hasPending() {
+        return !closed && (!ordered.isEmpty() || latestState.get() != null);
+    }
+
+    /**
+     * Halves the client's state rate when frames got replaced or too many bytes wait for the client, doubles it
+     * back after a good while without either.
+     *
+     * @param transportBufferedBytes bytes the transport still buffers for the client, frames it already took
+     *                               but couldn't write out yet
+     * @return state frames replaced since the last call
+     */
+    int adaptSendRate(int transportBufferedBytes) {
+        int replaced = conflated.getAndSet(0);
+        if (replaced > 0 || backlogBytes() + transportBufferedBytes > BACKLOG_HIGH_BYTES) {
+            cleanDrains = 0;
+            sendEvery = Math.min(sendEvery * 2, MAX_SEND_EVERY);
+        } else if (sendEvery > 1 && ++cleanDrains >= CLEAN_DRAINS_TO_SPEED_UP) {
+            cleanDrains = 0;
+            sendEvery = sendEvery / 2;
+        }
+        return replaced;
+    }
+
+    void close() {
+        closed = true;
+        latestState.set(null);
+        ordered.clear();
+        orderedBytes.set(0);
+    }
+}
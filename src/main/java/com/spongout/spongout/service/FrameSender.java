@@ -0,0 +1,132 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.monitoring.GameMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes state frames to the clients, off the game loop.
+ * <p>
+ * The tick only fills the clients' {@link FrameOutbox}es and calls {@link #schedule}. Each outbox is drained by
+ * one sender thread at a time, one frame at a time: the next frame goes to the client's sink only once the sink
+ * reports the previous one written. So frames of a client go out in order, a slow connection never holds a sender
+ * thread (or the tick), and what it can't take right now conflates in its outbox.
+ */
+@Slf4j
+@Component
+public class FrameSender {
+
+    private final FrameTransportStats transportStats;
+    private final GameMetrics gameMetrics;
+    private final ExecutorService executor;
+
+    public FrameSender(FrameTransportStats transportStats, GameMetrics gameMetrics, GameConstants gameConstants) {
+        this.transportStats = transportStats;
+        this.gameMetrics = gameMetrics;
+        int threads = gameConstants.getSenderThreads() > 0
+                ? gameConstants.getSenderThreads()
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "frame-sender-" + threadIndex.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Makes sure the subscriber's outbox gets drained. Cheap if a drain is already on its way.
+     */
+    public void schedule(StateStreamRegistry.FrameSubscriber subscriber) {
+        if (subscriber.getOutbox().draining.compareAndSet(false, true)) {
+            executor.execute(() -> drain(subscriber));
+        }
+    }
+
+    /**
+     * Stops sending to a client for good.
+     */
+    public void giveUp(StateStreamRegistry.FrameSubscriber subscriber, String reason) {
+        log.warn("Giving up on the state of session {} over {}: {}", subscriber.getSessionId(),
+                subscriber.getTransport(), reason);
+        subscriber.getOutbox().close();
+        subscriber.getSink().close();
+    }
+
+    private void drain(StateStreamRegistry.FrameSubscriber subscriber) {
+        FrameOutbox outbox = subscriber.getOutbox();
+        try {
+            if (!outbox.isInFlight()) {
+                byte[] frame = outbox.pollOrdered(); // events and roster first, in order
+                if (frame == null) {
+                    frame = outbox.takeState();
+                }
+                int buffered = subscriber.getSink().bufferedBytes();
+                transportStats.recordConflated(subscriber.getTransport(), outbox.adaptSendRate(buffered));
+                if (frame != null) {
+                    send(subscriber, frame);
+                }
+            }
+        } finally {
+            outbox.draining.set(false);
+        }
+        if (!outbox.isInFlight() && outbox.hasPending()) {
+            schedule(subscriber); // more to send, or the write finished while we were here
+        }
+    }
+
+    private void send(StateStreamRegistry.FrameSubscriber subscriber, byte[] frame) {
+        FrameOutbox outbox = subscriber.getOutbox();
+        if (outbox.isClosed()) {
+            return;
+        }
+        long start = System.nanoTime();
+        outbox.startSend(frame);
+        try {
+            subscriber.getSink().send(frame, () -> written(subscriber, frame.length, start));
+        } catch (IOException e) {
+            outbox.finishSend();
+            transportStats.recordFailure(subscriber.getTransport());
+            giveUp(subscriber, e.getMessage());
+        } catch (RuntimeException e) {
+            // a broken client must not break the others, it gets dropped when its session closes
+            outbox.finishSend();
+            transportStats.recordFailure(subscriber.getTransport());
+            log.debug("Sending frame to session {} over {} failed: {}", subscriber.getSessionId(),
+                    subscriber.getTransport(), e.getMessage());
+        }
+    }
+
+    /**
+     * The sink is done with a frame: the next one can go.
+     */
+    private void written(StateStreamRegistry.FrameSubscriber subscriber, int bytes, long start) {
+        transportStats.recordSent(subscriber.getTransport(), bytes, System.nanoTime() - start);
+        gameMetrics.recordMessage(destinationOf(subscriber), bytes);
+        subscriber.getOutbox().finishSend();
+        if (subscriber.getOutbox().hasPending()) {
+            schedule(subscriber);
+        }
+    }
+
+    private static GameMetrics.Destination destinationOf(StateStreamRegistry.FrameSubscriber subscriber) {
+        if (subscriber.getFormat() == StateStreamRegistry.Format.JSON) {
+            return GameMetrics.Destination.STATE;
+        }
+        return subscriber.getTransport() == StateStreamRegistry.Transport.RAW_SOCKET
+                ? GameMetrics.Destination.RAW_FRAMES
+                : GameMetrics.Destination.FRAMES;
+    }
+}
@@ -0,0 +1,62 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.controller.dto.TransportStatsDto;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts binary frames per transport and how long they take from the sender to the client's socket, so STOMP and
+ * the raw state socket can be compared on a live server. Also how many state frames were replaced (see {@link FrameOutbox})
+ * before a slow client got them.
+ */
+@Component
+public class FrameTransportStats {
+
+    private final Counters[] counters = new Counters[StateStreamRegistry.Transport.values().length];
+
+    public FrameTransportStats() {
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new Counters();
+        }
+    }
+
+    public void recordSent(StateStreamRegistry.Transport transport, int bytes, long sendNanos) {
+        Counters c = counters[transport.ordinal()];
+        c.frames.increment();
+        c.bytes.add(bytes);
+        c.sendNanos.add(sendNanos);
+    }
+
+    public void recordConflated(StateStreamRegistry.Transport transport, int frames) {
+        if (frames > 0) {
+            counters[transport.ordinal()].conflated.add(frames);
+        }
+    }
+
+    public void recordFailure(StateStreamRegistry.Transport transport) {
+        counters[transport.ordinal()].failures.increment();
+    }
+
+    public List<TransportStatsDto> getStats() {
+        List<TransportStatsDto> stats = new ArrayList<>(counters.length);
+        for (StateStreamRegistry.Transport transport : StateStreamRegistry.Transport.values()) {
+            Counters c = counters[transport.ordinal()];
+            long frames = c.frames.sum();
+            double avgSendMicros = frames == 0 ? 0 : c.sendNanos.sum() / 1000.0 / frames;
+            stats.add(new TransportStatsDto(transport.name(), frames, c.bytes.sum(), avgSendMicros,
+                    c.conflated.sum(), c.failures.sum()));
+        }
+        return stats;
+    }
+
+    private static final class Counters {
+        private final LongAdder frames = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder sendNanos = new LongAdder();
+        private final LongAdder conflated = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+    }
+}
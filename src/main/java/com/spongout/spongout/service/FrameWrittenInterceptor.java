@@ -0,0 +1,31 @@
+package com.spongout.spongout.service;
+
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tells the {@link FrameSender} when a state frame sent over STOMP has been written. Sits on the client outbound
+ * channel, where {@code afterMessageHandled} runs once the session handler returns - after the write to the socket,
+ * or after the frame was dropped because the session is gone.
+ * <p>
+ * If another outbound thread is writing to the same session right then (a lobby message, an event), Spring buffers
+ * the frame behind it and the handler returns early, so that frame counts as written too soon. The client's state
+ * rate doesn't rely on this: {@link FrameOutbox#adaptSendRate} also counts what {@link SessionSendBuffers} reports
+ * still buffered for the session.
+ */
+@Component
+public class FrameWrittenInterceptor implements ExecutorChannelInterceptor {
+
+    /** Message header with the {@code Runnable} to run once the frame is written. */
+    public static final String WRITTEN_HEADER = "spongout.frameWritten";
+
+    @Override
+    public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+        if (message.getHeaders().get(WRITTEN_HEADER) instanceof Runnable written) {
+            written.run();
+        }
+    }
+}
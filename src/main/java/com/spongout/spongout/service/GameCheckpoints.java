@@ -0,0 +1,221 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.WorldState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Snapshot of running games, so a redeploy doesn't kill their rounds - see {@link DrainService}.
+ * <pre>
+ * file: MAGIC, VERSION, written at (epoch ms), game count, then games as [int length][game]
+ * game: id, state, arena radius, step and broadcast counters, round time, then every world slot
+ *       (session, nickname, score, flags, physics, resume token) and the players waiting for the next round
+ * </pre>
+ * Only what the simulation needs to go on is kept - histories, snapshots and queued inputs start empty. Every player
+ * gets a resume token: he brings it to the next process on his new session and takes his slot back.
+ */
+public final class GameCheckpoints {
+
+    private static final int MAGIC = 0x53504B31; // "SPK1"
+    private static final int VERSION = 1;
+
+    private static final int ALIVE = 1;
+    private static final int ELIMINATED = 2;
+    private static final int GOING_TO_EXPEL = 4;
+    private static final int IN_GAME = 8; // still in the players map, didn't leave
+
+    /**
+     * A player of a checkpointed game.
+     *
+     * @param previousSessionId his session in the process that wrote the checkpoint
+     */
+    public record ResumeSeat(String token, String nickname, String previousSessionId) {
+    }
+
+    public record Checkpoint(UUID gameId, byte[] data, List<ResumeSeat> seats) {
+    }
+
+    /**
+     * @param writtenAtMillis when the file was written, too old ones shouldn't be resumed
+     */
+    public record CheckpointFile(long writtenAtMillis, List<byte[]> games) {
+    }
+
+    private GameCheckpoints() {
+    }
+
+    /**
+     * Snapshots the game. Tick thread of the game only, with its loop stopped right after.
+     */
+    public static Checkpoint encode(GameInstance game, long nowMillis) {
+        List<ResumeSeat> seats = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(game.getGameId().getMostSignificantBits());
+            out.writeLong(game.getGameId().getLeastSignificantBits());
+            out.writeByte(game.getCurrentState().ordinal());
+            out.writeDouble(game.getCurrentArenaRadius());
+            out.writeLong(game.getSimulationTick());
+            out.writeLong(game.getSimulatedNanos());
+            out.writeLong(game.getAccumulatorNanos());
+            out.writeLong(nowMillis - game.getRoundStartTime());
+            out.writeLong(game.getBroadcastTick());
+
+            WorldState world = game.getWorld();
+            out.writeInt(world.getCount());
+            for (int slot = 0; slot < world.getCount(); slot++) {
+                Player player = world.getPlayers()[slot];
+                boolean inGame = game.getPlayers().get(player.getSessionId()) == player;
+                writePlayer(out, player, seats, inGame);
+                out.writeByte((world.getAlive()[slot] ? ALIVE : 0) | (player.isEliminated() ? ELIMINATED : 0)
+                        | (player.isGoingToExpel() ? GOING_TO_EXPEL : 0) | (inGame ? IN_GAME : 0));
+                out.writeDouble(world.getX()[slot]);
+                out.writeDouble(world.getY()[slot]);
+                out.writeDouble(world.getVx()[slot]);
+                out.writeDouble(world.getVy()[slot]);
+                out.writeDouble(world.getSize()[slot]);
+                out.writeDouble(world.getAngle()[slot]);
+                out.writeDouble(player.getExpelAngle());
+            }
+
+            // joined during the round, they play from the next one
+            List<Player> bench = new ArrayList<>();
+            for (Player player : game.getPlayers().values()) {
+                if (world.slotOf(player.getSessionId()) < 0) {
+                    bench.add(player);
+                }
+            }
+            out.writeInt(bench.size());
+            for (Player player : bench) {
+                writePlayer(out, player, seats, true);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // it's all in memory
+        }
+        return new Checkpoint(game.getGameId(), bytes.toByteArray(), seats);
+    }
+
+    /**
+     * Puts a checkpointed game into {@code game} (fresh or from the pool). Nothing ticks it until it's resumed.
+     *
+     * @return seats of the players that can come back to it
+     */
+    public static List<ResumeSeat> decode(byte[] data, GameInstance game, long nowMillis) throws IOException {
+        List<ResumeSeat> seats = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            game.setGameId(new UUID(in.readLong(), in.readLong()));
+            game.setCurrentState(GameInstance.GameState.values()[in.readUnsignedByte()]);
+            game.setCurrentArenaRadius(in.readDouble());
+            game.setSimulationTick(in.readLong());
+            game.setSimulatedNanos(in.readLong());
+            game.setAccumulatorNanos(in.readLong());
+            game.setRoundStartTime(nowMillis - in.readLong());
+            game.setLastTickTime(nowMillis);
+            game.setBroadcastTick(in.readLong());
+
+            WorldState world = game.getWorld();
+            int count = in.readInt();
+            world.clear(count);
+            for (int slot = 0; slot < count; slot++) {
+                Player player = readPlayer(in, seats);
+                int flags = in.readUnsignedByte();
+                world.add(player);
+                world.getX()[slot] = in.readDouble();
+                world.getY()[slot] = in.readDouble();
+                world.getVx()[slot] = in.readDouble();
+                world.getVy()[slot] = in.readDouble();
+                world.getSize()[slot] = in.readDouble();
+                world.getAngle()[slot] = in.readDouble();
+                player.setExpelAngle(in.readDouble());
+                player.setEliminated((flags & ELIMINATED) != 0);
+                player.setGoingToExpel((flags & GOING_TO_EXPEL) != 0);
+                if ((flags & ALIVE) == 0) {
+                    world.kill(slot);
+                }
+                if ((flags & IN_GAME) != 0) {
+                    game.getPlayers().put(player.getSessionId(), player);
+                } else {
+                    seats.removeLast(); // he left before the checkpoint, nobody comes back for him
+                }
+            }
+            game.getStateSnapshot().resize(count);
+
+            int bench = in.readInt();
+            for (int i = 0; i < bench; i++) {
+                Player player = readPlayer(in, seats);
+                game.getPlayers().put(player.getSessionId(), player);
+            }
+        }
+        return seats;
+    }
+
+    /**
+     * Writes the checkpoints to a temporary file first and moves it over, so a crash mid-write leaves no half file.
+     */
+    public static void writeFile(Path file, List<Checkpoint> checkpoints, long nowMillis) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(nowMillis);
+            out.writeInt(checkpoints.size());
+            for (Checkpoint checkpoint : checkpoints) {
+                out.writeInt(checkpoint.data().length);
+                out.write(checkpoint.data());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static CheckpointFile readFile(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a game checkpoint this version can read");
+            }
+            long writtenAt = in.readLong();
+            int count = in.readInt();
+            List<byte[]> games = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                games.add(data);
+            }
+            return new CheckpointFile(writtenAt, games);
+        }
+    }
+
+    private static void writePlayer(DataOutputStream out, Player player, List<ResumeSeat> seats, boolean resumable)
+            throws IOException {
+        String token = resumable ? UUID.randomUUID().toString() : "";
+        out.writeUTF(player.getSessionId());
+        out.writeUTF(player.getNickname());
+        out.writeInt(player.getScore());
+        out.writeUTF(token);
+        if (resumable) {
+            seats.add(new ResumeSeat(token, player.getNickname(), player.getSessionId()));
+        }
+    }
+
+    private static Player readPlayer(DataInputStream in, List<ResumeSeat> seats) throws IOException {
+        String sessionId = in.readUTF();
+        Player player = new Player(in.readUTF(), sessionId);
+        player.setScore(in.readInt());
+        String token = in.readUTF();
+        seats.add(new ResumeSeat(token, player.getNickname(), player.getSessionId()));
+        return player;
+    }
+}
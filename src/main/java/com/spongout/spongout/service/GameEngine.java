@@ -1,18 +1,23 @@
 package com.spongout.spongout.service;
 
 import com.spongout.spongout.config.GameConstants;
-import com.spongout.spongout.config.WebSocketConstants;
-import com.spongout.spongout.controller.dto.GameEventDto;
+import com.spongout.spongout.config.LoggingConstants;
+import com.spongout.spongout.model.GameCommand;
 import com.spongout.spongout.model.GameEventType;
 import com.spongout.spongout.model.GameInstance;
 import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.RewindHistory;
+import com.spongout.spongout.model.SpatialGrid;
+import com.spongout.spongout.model.WorldState;
+import com.spongout.spongout.monitoring.CollisionEvent;
+import com.spongout.spongout.monitoring.EliminationEvent;
+import com.spongout.spongout.monitoring.LaunchEvent;
+import com.spongout.spongout.monitoring.TickPhaseEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.slf4j.MDC;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
@@ -20,164 +25,398 @@ import java.util.List;
 public class GameEngine {
 
     private final GameConstants gameConstants;
-    private final SimpMessagingTemplate simpMessagingTemplate;
+    private final LoggingConstants loggingConstants;
+
+    /**
+     * Puts the game at the start of a round: full arena, clocks at zero, players spawned from {@code seed}.
+     * Replays start their rounds here too, see RoundReplayer.
+     */
+    public void startRound(GameInstance game, long seed) {
+        game.setCurrentArenaRadius(gameConstants.getArenaInitialRadius());
+        game.setCurrentState(GameInstance.GameState.RUNNING);
+        game.setRoundStartTime(System.currentTimeMillis());
+        game.setLastTickTime(System.currentTimeMillis());
+        game.setLastLoopNanos(System.nanoTime());
+        game.setNextBroadcastNanos(game.getLastLoopNanos());
+        game.setAccumulatorNanos(0);
+        game.setSimulationTick(0);
+        game.setSimulatedNanos(0);
+        game.setDegradationLevel(0);
+        game.setBroadcastTick(0);
+        game.getSnapshotHistory().clear();
+        game.getPendingEvents().clear();
+        game.getRewindHistory().clear();
+        game.spawnPlayers(gameConstants.getPlayerStartingSize(), seed);
+    }
 
     /**
      * Advances the game state by one frame. This is the core game loop logic.
+     * In fixed-timestep mode one call can run several (or zero) physics steps, see {@link #advanceFixed}.
+     * In variable-timestep mode an overloaded shard ({@link TickSupervisor#DEGRADED_SIMULATION}) steps on every
+     * other call with twice the delta.
      */
     public void update(GameInstance game) {
-        MDC.put("GAME", String.valueOf(game.getGameId().hashCode()));
+        if (gameConstants.isFixedTimestep()) {
+            advanceFixed(game);
+            return;
+        }
 
         // Calculate Delta Time
         long now = System.currentTimeMillis();
+        if (game.getDegradationLevel() >= TickSupervisor.DEGRADED_SIMULATION
+                && now - game.getLastTickTime() < 2 * gameConstants.getTickRateMs()) {
+            // overloaded shard - step every other tick, the next step covers the skipped time
+            return;
+        }
         double deltaTime = (now - game.getLastTickTime()) / 1000.0;
         game.setLastTickTime(now);
 
         long currentGameTime = now - game.getRoundStartTime();
 
-        List<Player> players = game.getAlivePlayers();
+        game.getJournal().step(deltaTime, currentGameTime);
+        stepVariable(game, deltaTime, currentGameTime);
+    }
+
+    /**
+     * One physics step of the variable-timestep mode.
+     */
+    public void stepVariable(GameInstance game, double deltaSeconds, long currentGameTime) {
+        step(game, deltaSeconds, currentGameTime);
+    }
+
+    /**
+     * One physics step of the fixed-timestep mode, round time is counted in steps.
+     */
+    public void stepFixed(GameInstance game, long stepNanos) {
+        game.setSimulationTick(game.getSimulationTick() + 1);
+        game.setSimulatedNanos(game.getSimulatedNanos() + stepNanos);
+        step(game, stepNanos / 1_000_000_000.0, game.getSimulatedNanos() / 1_000_000);
+    }
+
+    /**
+     * Marks the player's launch for the next step.
+     *
+     * @param angle angle to launch at, NaN = the player's angle at that step
+     */
+    public void expel(GameInstance game, int slot, double angle) {
+        Player player = game.getWorld().getPlayers()[slot];
+        player.setExpelAngle(angle);
+        player.setGoingToExpel(true);
+    }
+
+    /**
+     * Applies what the network threads sent since the last frame (joins, leaves, expels). Runs on the tick thread
+     * right before {@link #update}, which makes it the only writer of the game state.
+     */
+    public void applyCommands(GameInstance game) {
+        TickPhaseEvent phase = new TickPhaseEvent();
+        phase.begin();
+        WorldState world = game.getWorld();
+        GameCommand command;
+        while ((command = game.getCommands().poll()) != null) {
+            int slot = world.slotOf(command.sessionId());
+            switch (command.type()) {
+                case JOIN -> game.getPlayers().put(command.sessionId(), command.player()); // spawns next round
+                case LEAVE -> {
+                    game.getPlayers().remove(command.sessionId());
+                    if (slot >= 0) {
+                        world.kill(slot);
+                        game.getJournal().leave(slot);
+                    }
+                }
+                case REBIND -> {
+                    Player previous = game.getPlayers().remove(command.sessionId());
+                    Player player = command.player();
+                    if (previous != null) {
+                        player.takeOver(previous);
+                    }
+                    game.getPlayers().put(player.getSessionId(), player);
+                    if (slot >= 0) {
+                        world.replace(slot, player);
+                    }
+                }
+                case EXPEL -> {
+                    // players of other games can't push anybody here
+                    if (slot < 0) {
+                        continue;
+                    }
+                    // ones already out can't either, but the journal keeps their press - "nothing happened" reports
+                    boolean accepted = world.getAlive()[slot];
+                    double angle = accepted ? rewoundAngle(game, slot, command.clientTick()) : Double.NaN;
+                    game.getJournal().expel(slot, command.clientTick(), accepted, angle);
+                    if (accepted) {
+                        expel(game, slot, angle);
+                    }
+                }
+            }
+        }
+        phase.finish(TickPhaseEvent.Phase.APPLY_COMMANDS, game);
+    }
+
+    /**
+     * Accumulator loop: real time since the last call is banked and paid out in constant steps, so the physics
+     * doesn't depend on when the scheduler happened to fire. Round time is counted in steps too.
+     * When the loop falls more than {@code maxCatchUpSteps} behind, the rest of the debt is dropped -
+     * the game slows down a bit instead of spiralling. An overloaded shard steps at half rate.
+     */
+    private void advanceFixed(GameInstance game) {
+        long stepNanos = gameConstants.getSimulationStepNanos();
+        if (game.getDegradationLevel() >= TickSupervisor.DEGRADED_SIMULATION) {
+            stepNanos *= 2;
+        }
+
+        long now = System.nanoTime();
+        long accumulator = game.getAccumulatorNanos() + (now - game.getLastLoopNanos());
+        game.setLastLoopNanos(now);
+
+        int steps = 0;
+        while (accumulator >= stepNanos && steps < gameConstants.getMaxCatchUpSteps()
+                && game.getCurrentState() != GameInstance.GameState.ROUND_OVER) {
+            stepFixed(game, stepNanos);
+            accumulator -= stepNanos;
+            steps++;
+        }
+        game.getJournal().steps(steps, stepNanos);
+        if (accumulator >= stepNanos) {
+            log.debug("Game loop is {} steps behind, dropping them", accumulator / stepNanos);
+            accumulator %= stepNanos;
+        }
+        game.setAccumulatorNanos(accumulator);
+    }
 
-        updatePlayers(players, deltaTime);
+    private void step(GameInstance game, double deltaTime, long currentGameTime) {
+        WorldState world = game.getWorld();
+
+        // every phase is a JFR event, see TickPhaseEvent - free unless a recording has them on
+        TickPhaseEvent phase = new TickPhaseEvent();
+        phase.begin();
+        updatePlayers(game, world, deltaTime);
+        phase.finish(TickPhaseEvent.Phase.UPDATE_PLAYERS, game);
 
         //collision logic
-        collidePlayers(game, players);
+        phase = new TickPhaseEvent();
+        phase.begin();
+        collidePlayers(game, world);
+        phase.finish(TickPhaseEvent.Phase.COLLIDE_PLAYERS, game);
 
         //Game State Updates
+        phase = new TickPhaseEvent();
+        phase.begin();
         updateGameState(game, deltaTime, currentGameTime);
+        phase.finish(TickPhaseEvent.Phase.UPDATE_GAME_STATE, game);
     }
 
-    private void updatePlayers(List<Player> players, double deltaTime) {
+    private void updatePlayers(GameInstance game, WorldState world, double deltaTime) {
         //single player updates logic
         //changing size (growing)
         //changing angle for expel
         //expelling players if action key pressed
-        for (Player player : players) {
-            player.changeSize(gameConstants.getPlayerGrowthRate() * deltaTime);
-            player.changeAngle(gameConstants.getPlayerSpinRateRad() * deltaTime);
+        double growth = gameConstants.getPlayerGrowthRate() * deltaTime;
+        double spin = gameConstants.getPlayerSpinRateRad() * deltaTime;
+        // Friction is applied as a multiplier per frame, converted to per-second basis - same for everybody, so once per tick
+        double frictionMultiplier = Math.pow(gameConstants.getFrictionFactor(), deltaTime);
+
+        boolean[] alive = world.getAlive();
+        Player[] players = world.getPlayers();
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            if (!alive[slot]) {
+                continue;
+            }
+            world.getSize()[slot] += growth;
+            world.getAngle()[slot] += spin;
 
             // Move players based on their velocity
-            movePlayer(player, deltaTime);
+            movePlayer(world, slot, deltaTime, frictionMultiplier);
 
-            if (player.isGoingToExpel()) {
-                launchPlayer(player);
+            if (players[slot].isGoingToExpel()) {
+                launchPlayer(game, world, slot);
             }
         }
     }
 
-    private void movePlayer(Player player, double deltaTime) {
+    private void movePlayer(WorldState world, int slot, double deltaTime, double frictionMultiplier) {
+        double[] vx = world.getVx();
+        double[] vy = world.getVy();
+
         // Update position based on velocity
-        player.setX(player.getX() + player.getVelocityX() * deltaTime);
-        player.setY(player.getY() + player.getVelocityY() * deltaTime);
+        world.getX()[slot] += vx[slot] * deltaTime;
+        world.getY()[slot] += vy[slot] * deltaTime;
 
         // Apply friction to gradually slow down the player
-        // Friction is applied as a multiplier per frame, converted to per-second basis
-        double frictionMultiplier = Math.pow(gameConstants.getFrictionFactor(), deltaTime);
-        player.setVelocityX(player.getVelocityX() * frictionMultiplier);
-        player.setVelocityY(player.getVelocityY() * frictionMultiplier);
+        vx[slot] *= frictionMultiplier;
+        vy[slot] *= frictionMultiplier;
 
         // Optional: Stop very small velocities to prevent floating point precision issues
-        if (Math.abs(player.getVelocityX()) < 0.01) {
-            player.setVelocityX(0);
+        if (Math.abs(vx[slot]) < 0.01) {
+            vx[slot] = 0;
         }
-        if (Math.abs(player.getVelocityY()) < 0.01) {
-            player.setVelocityY(0);
+        if (Math.abs(vy[slot]) < 0.01) {
+            vy[slot] = 0;
         }
     }
 
-    private void launchPlayer(Player player) {
+    private void launchPlayer(GameInstance game, WorldState world, int slot) {
+        Player player = world.getPlayers()[slot];
+
         // 1. Calculate the magnitude (speed) of the launch
-        double launchSpeed = player.getSize() * gameConstants.getLaunchPowerMultiplier();
+        double launchSpeed = world.getSize()[slot] * gameConstants.getLaunchPowerMultiplier();
 
-        // 2. Get the player's angle in radians
-        double angle = player.getAngle();
+        // 2. Get the player's angle in radians - the one he saw when he pressed the key, if we still know it
+        double angle = Double.isNaN(player.getExpelAngle()) ? world.getAngle()[slot] : player.getExpelAngle();
 
         // 3. Calculate the X and Y components of the launch velocity
         double launchVelocityX = Math.cos(angle) * launchSpeed;
         double launchVelocityY = Math.sin(angle) * launchSpeed;
 
-        // 4. Add the launch velocity to the player's current velocity (as an impulse)
-//        player.setVelocityX(player.getVelocityX() + launchVelocityX);
-//        player.setVelocityY(player.getVelocityY() + launchVelocityY);
-        // lets try different approach
-        player.setVelocityX(launchVelocityX);
-        player.setVelocityY(launchVelocityY);
+        // 4. Set the launch velocity (we tried adding it as an impulse before, replacing it feels better)
+        world.getVx()[slot] = launchVelocityX;
+        world.getVy()[slot] = launchVelocityY;
 
-        // 5. Reset the player's size to the initial value
-//        player.setSize(gameConstants.getPlayerStartingSize());
-
-        // 6. Reset the flag so they don't launch again on the next frame
+        // 5. Reset the flag so they don't launch again on the next frame
         player.setGoingToExpel(false);
 
-        log.info("Player {} expelled with power {}!", player.getNickname(), launchSpeed);
+        logLaunch(game, player, launchSpeed, world.getAngle()[slot] - angle);
+        LaunchEvent.record(game, player.getNickname(), launchSpeed, world.getAngle()[slot] - angle);
+    }
+
+    /**
+     * Lag compensation. By the time an EXPEL arrives the arrow spun on for about half the RTT (0.16 rad at 80 ms
+     * and 4 rad/s), so we launch at the angle of the frame the client was showing. Only within {@code max-rewind-ms}
+     * though, and once the player's RTT is measured within RTT + {@code rewind-slack-ms} - the frame can't really be
+     * older than that. An older (or unknown, or made up) tick gets the current angle.
+     * Resolved when the EXPEL is applied, so the journal can store the angle and replays don't need the history.
+     *
+     * @return the angle the player saw, NaN = use his angle at the launch
+     */
+    private double rewoundAngle(GameInstance game, int slot, long clientTick) {
+        RewindHistory history = game.getRewindHistory();
+        int index = history.indexOf(clientTick);
+        if (index < 0 || slot >= history.getAngles()[index].length) {
+            return Double.NaN;
+        }
+        long windowMs = gameConstants.getMaxRewindMs();
+        long rttMs = game.getWorld().getPlayers()[slot].getRttMs();
+        if (rttMs >= 0) {
+            windowMs = Math.min(windowMs, rttMs + gameConstants.getRewindSlackMs());
+        }
+        long age = System.nanoTime() - history.getRecordedNanos()[index];
+        if (age > TimeUnit.MILLISECONDS.toNanos(windowMs)) {
+            return Double.NaN;
+        }
+        return history.getAngles()[index][slot];
+    }
+
+    /**
+     * Remembers what went out with the broadcast that just happened, see {@link #rewoundAngle}.
+     */
+    public void recordRewindFrame(GameInstance game) {
+        game.getRewindHistory().record(game.getBroadcastTick(), System.nanoTime(), game.getWorld());
     }
 
-    private void collidePlayers(GameInstance game, List<Player> players) {
+    // package-private for EngineBenchmark
+    void collidePlayers(GameInstance game, WorldState world) {
+        double[] x = world.getX();
+        double[] y = world.getY();
+        double[] size = world.getSize();
+
+        // eliminations flip alive[] while we go, so work on the alive slots taken at the start of the pass
+        int[] bodies = world.getBodies();
+        int count = 0;
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            if (world.getAlive()[slot]) {
+                bodies[count++] = slot;
+            }
+        }
 
-        for (Player player : players) {
+        // Broadphase - bin everybody into the grid, so we only test pairs that can actually touch
+        SpatialGrid grid = game.getCollisionGrid();
+        grid.reset(count);
+        double biggestSize = 0;
+        for (int i = 0; i < count; i++) {
+            grid.put(i, x[bodies[i]], y[bodies[i]]);
+            biggestSize = Math.max(biggestSize, size[bodies[i]]);
+        }
+        grid.build(biggestSize * 2);
+
+        if (game.getCollisionCandidates().length < count) {
+            game.setCollisionCandidates(new int[bodies.length]);
+        }
+        int[] candidates = game.getCollisionCandidates();
+
+        for (int i = 0; i < count; i++) {
+            int a = bodies[i];
 
             // Wall collision check (circular arena) - using squared distance
-            double distanceSquaredFromCenter = player.getX() * player.getX() + player.getY() * player.getY();
-            double arenaRadiusMinusPlayerSize = game.getCurrentArenaRadius() - player.getSize();
+            double distanceSquaredFromCenter = x[a] * x[a] + y[a] * y[a];
+            double arenaRadiusMinusPlayerSize = game.getCurrentArenaRadius() - size[a];
             if (distanceSquaredFromCenter > arenaRadiusMinusPlayerSize * arenaRadiusMinusPlayerSize) {
-                eliminatePlayer(game, player);
+                eliminatePlayer(game, a);
             }
 
-            // Player-vs-Player collision
-            for (Player player2 : players) {
-                if (player.getSessionId().equals(player2.getSessionId())) {
-                    continue; // Skip same player
-                }
+            // Player-vs-Player collision, every nearby pair once and in the same order as the old all-vs-all loop
+            int candidateCount = grid.candidatesAfter(i, candidates);
+            for (int c = 0; c < candidateCount; c++) {
+                int b = bodies[candidates[c]];
 
                 // Calculate squared distance between player centers
-                double dx = player2.getX() - player.getX();
-                double dy = player2.getY() - player.getY();
+                double dx = x[b] - x[a];
+                double dy = y[b] - y[a];
                 double distanceSquared = dx * dx + dy * dy;
 
                 // Check if collision occurs (squared sum of radii)
-                double minDistance = player.getSize() + player2.getSize();
+                double minDistance = size[a] + size[b];
                 double minDistanceSquared = minDistance * minDistance;
 
                 if (distanceSquared < minDistanceSquared && distanceSquared > 0) {
                     // Collision detected
                     double distance = Math.sqrt(distanceSquared);
-                    handlePlayerCollision(player, player2, dx, dy, distance);
+                    if (handlePlayerCollision(world, a, b, dx, dy, distance)) {
+                        CollisionEvent.record(game, a, b);
+                    }
                 }
             }
         }
     }
 
-    private void handlePlayerCollision(Player p1, Player p2, double dx, double dy, double distance) {
+    /**
+     * @return false if the players were already moving apart and nothing changed
+     */
+    private boolean handlePlayerCollision(WorldState world, int p1, int p2, double dx, double dy, double distance) {
+        double[] vx = world.getVx();
+        double[] vy = world.getVy();
+
         // Normalize collision vector (distance already calculated in caller)
         double nx = dx / distance;
         double ny = dy / distance;
 
         // Relative velocity
-        double dvx = p2.getVelocityX() - p1.getVelocityX();
-        double dvy = p2.getVelocityY() - p1.getVelocityY();
+        double dvx = vx[p2] - vx[p1];
+        double dvy = vy[p2] - vy[p1];
 
         // Relative velocity along collision normal
         double dvn = dvx * nx + dvy * ny;
 
         // Do not resolve if velocities are separating
-        if (dvn > 0) return;
+        if (dvn > 0) return false;
 
         // Collision impulse (assuming equal mass for simplicity)
         double impulse = 2 * dvn / 2; // (mass1 + mass2) = 2 for equal masses
 
         // Update velocities
-        p1.setVelocityX(p1.getVelocityX() + impulse * nx);
-        p1.setVelocityY(p1.getVelocityY() + impulse * ny);
-        p2.setVelocityX(p2.getVelocityX() - impulse * nx);
-        p2.setVelocityY(p2.getVelocityY() - impulse * ny);
+        vx[p1] += impulse * nx;
+        vy[p1] += impulse * ny;
+        vx[p2] -= impulse * nx;
+        vy[p2] -= impulse * ny;
 
         // Separate overlapping players
-        double overlap = (p1.getSize() + p2.getSize()) - distance;
+        double overlap = (world.getSize()[p1] + world.getSize()[p2]) - distance;
         double separationDistance = overlap / 2;
 
-        p1.setX(p1.getX() - separationDistance * nx);
-        p1.setY(p1.getY() - separationDistance * ny);
-        p2.setX(p2.getX() + separationDistance * nx);
-        p2.setY(p2.getY() + separationDistance * ny);
+        world.getX()[p1] -= separationDistance * nx;
+        world.getY()[p1] -= separationDistance * ny;
+        world.getX()[p2] += separationDistance * nx;
+        world.getY()[p2] += separationDistance * ny;
+        return true;
     }
 
     //this should go to GameExecutionService probably
@@ -190,20 +429,39 @@ public class GameEngine {
             //CHECK IF SUDDEN_DEATH SHOULD BE ON :}
         } else if (game.getCurrentState().equals(GameInstance.GameState.RUNNING) && currentGameTime > gameConstants.getSuddenDeathMs()) {
             game.setCurrentState(GameInstance.GameState.SUDDEN_DEATH);
-            var payload = new GameEventDto(GameEventType.SUDDEN_DEATH);
-            simpMessagingTemplate.convertAndSend(WebSocketConstants.GAME_EVENTS_TOPIC + game.getGameId(), payload);
+            game.getPendingEvents().add(GameEventType.SUDDEN_DEATH);
         }
         //CHECK IF ROUND_OVER
-        if (game.getAlivePlayers().size() <= 1) {
+        if (game.getWorld().getAliveCount() <= 1) {
             game.setCurrentState(GameInstance.GameState.ROUND_OVER);
         }
     }
 
-    private void eliminatePlayer(GameInstance game, Player player) {
-        log.debug("PLAYER: {} ELIMINATED", player.getNickname());
-        var payload = new GameEventDto(GameEventType.PLAYER_ELIMINATED, player.getNickname());
-        simpMessagingTemplate.convertAndSend(WebSocketConstants.GAME_EVENTS_TOPIC + game.getGameId(), payload);
+    /**
+     * Launches come at the rate players mash space, so they're logged only for sampled games and rate limited
+     * within those (see app.config.logging). The message is built only when it really goes out.
+     */
+    private void logLaunch(GameInstance game, Player player, double launchSpeed, double rewoundRadians) {
+        if (!log.isInfoEnabled() || !isLogSampled(game)
+                || !game.getLaunchLogs().tryAcquire(System.nanoTime(), loggingConstants.getLaunchLogsPerSecond())) {
+            return;
+        }
+        long skipped = game.getLaunchLogs().drainSkipped();
+        log.info("Player {} expelled with power {}! (angle rewound by {} rad){}", player.getNickname(), launchSpeed,
+                String.format("%.3f", rewoundRadians), skipped > 0 ? " (" + skipped + " launches not logged)" : "");
+    }
+
+    private boolean isLogSampled(GameInstance game) {
+        int rate = loggingConstants.getGameSampleRate();
+        return rate <= 1 || Math.floorMod(game.getGameId().hashCode(), rate) == 0;
+    }
+
+    private void eliminatePlayer(GameInstance game, int slot) {
+        Player player = game.getWorld().getPlayers()[slot];
+        log.info("PLAYER: {} ELIMINATED", player.getNickname());
+        game.getPendingEvents().add(GameEventType.PLAYER_ELIMINATED, slot);
         player.setEliminated(true);
-        game.getAlivePlayers().remove(player);
+        game.getWorld().kill(slot);
+        EliminationEvent.record(game, player.getNickname());
     }
 }
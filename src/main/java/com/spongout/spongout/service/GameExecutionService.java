@@ -2,63 +2,79 @@ package com.spongout.spongout.service;
 
 import com.spongout.spongout.config.GameConstants;
 import com.spongout.spongout.config.WebSocketConstants;
-import com.spongout.spongout.controller.dto.GameStateDto;
-import com.spongout.spongout.controller.dto.PlayerStateDto;
 import com.spongout.spongout.controller.dto.GameEventDto;
+import com.spongout.spongout.journal.JournalFormat;
+import com.spongout.spongout.journal.RoundJournal;
+import com.spongout.spongout.model.GameCommand;
+import com.spongout.spongout.model.GameCommandQueue;
 import com.spongout.spongout.model.GameEventType;
 import com.spongout.spongout.model.GameInstance;
 import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.WorldState;
 import com.spongout.spongout.repository.GameRepository;
-import com.spongout.spongout.repository.PlayerRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.MDC;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class GameExecutionService {
 
+    static final String GAME_MDC_KEY = "GAME";
+
     private final SimpMessagingTemplate messagingTemplate;
-    private final TaskScheduler taskScheduler;
+    private final GameLoopRuntime gameLoopRuntime;
     private final GameRepository gameRepository;
-    private final PlayerRepository playerRepository;
     private final GameEngine gameEngine;
+    private final StateBroadcaster stateBroadcaster;
+    private final StateStreamRegistry stateStreamRegistry;
+    private final GameLifecycleManager gameLifecycleManager;
+    private final RoundJournal roundJournal;
+    private final Leaderboard leaderboard;
 
     /**
-     * Stores the running tasks for each game, so they can be stopped later.
-     * Key: gameId, Value: The scheduled task future.
+     * Stores the running loops for each game, so they can be stopped later.
+     * Key: gameId, Value: The loop registration on its shard.
      */
-    private final Map<UUID, ScheduledFuture<?>> activeGameLoops = new ConcurrentHashMap<>();
+    private final Map<UUID, GameLoopRuntime.LoopRegistration> activeGameLoops = new ConcurrentHashMap<>();
     private final GameConstants gameConstants;
 
+    /** Checkpoints asked for by the drain, taken by the game's own tick so nothing moves under the encoder. */
+    private final Map<UUID, CompletableFuture<GameCheckpoints.Checkpoint>> pendingCheckpoints = new ConcurrentHashMap<>();
+
     /**
      * A public method that the GameController will call to register a player's action.
+     * It only goes into the game's mailbox, the tick applies it at the start of the next frame.
+     * @param gameId Game the player is in (the controller checked that) - the tick ignores him if he isn't anymore.
      * @param sessionId The ID of the player who wants to perform the action.
+     * @param clientTick tick of the state the player was looking at, -1 if unknown. See {@link GameEngine}.
      */
-    public void requestExpelAction(String sessionId) {
-        Optional<Player> playerOpt = playerRepository.findById(sessionId);
+    public void requestExpelAction(UUID gameId, String sessionId, long clientTick) {
+        Optional<GameInstance> gameOpt = gameRepository.findById(gameId);
 
-        if (playerOpt.isEmpty()) {
-            log.warn("Player {} isn't visible in playerRepository");
+        if (gameOpt.isEmpty()) {
+            log.debug("EXPEL of {} for unknown game {}", sessionId, gameId);
             return;
         }
 
-        Player player = playerOpt.get();
-
-        if (!player.isEliminated()) {
-            // This flag will be picked up by the `update()` method on the next tick.
-            player.setGoingToExpel(true);
+        GameCommandQueue commands = gameOpt.get().getCommands();
+        if (!commands.offer(GameCommand.expel(sessionId, clientTick)) && commands.getDropped() % 100 == 1) {
+            log.warn("Command queue of game {} is full, {} expels dropped so far", gameId, commands.getDropped());
         }
     }
 
@@ -73,29 +89,85 @@ public class GameExecutionService {
 
         GameInstance game = currentGameOpt.get();
 
-        game.setCurrentArenaRadius(gameConstants.getArenaInitialRadius());
-        game.setCurrentState(GameInstance.GameState.RUNNING);
-        game.setRoundStartTime(System.currentTimeMillis());
-        game.setLastTickTime(System.currentTimeMillis());
-        game.spawnPlayers(gameConstants.getPlayerStartingSize());
+        long seed = ThreadLocalRandom.current().nextLong();
+        gameEngine.startRound(game, seed);
+        roundJournal.begin(game, seed);
         log.debug("InitialArenaRadius: {}", gameConstants.getArenaInitialRadius());
         log.debug("GAME SET-UP!, ID: {}", gameId);
-        var gameLoop = taskScheduler.scheduleAtFixedRate(
-                () -> tick(gameId),
-                gameConstants.getTickRateMs()
-        );
-        activeGameLoops.put(gameId, gameLoop);
+        runLoop(gameId);
         log.debug("GAME STARTED! ID: {}", gameId);
     }
 
+    /**
+     * Goes on with a game restored from a checkpoint (see DrainService), from where the previous process stopped it.
+     * The pause isn't counted as round time. Resumed rounds aren't journaled, the start of them is in the old process.
+     */
+    public void resumeRound(UUID gameId) {
+        Optional<GameInstance> gameOpt = gameRepository.findById(gameId);
+        if (gameOpt.isEmpty()) {
+            log.warn("Game {} is gone, nothing to resume", gameId);
+            return;
+        }
+        GameInstance game = gameOpt.get();
+        long now = System.currentTimeMillis();
+        game.setRoundStartTime(game.getRoundStartTime() + (now - game.getLastTickTime()));
+        game.setLastTickTime(now);
+        game.setLastLoopNanos(System.nanoTime());
+        game.setNextBroadcastNanos(game.getLastLoopNanos());
+        log.info("GAME {} RESUMES! {} players, step {}", gameId, game.getPlayers().size(), game.getSimulationTick());
+        runLoop(gameId);
+    }
+
+    /**
+     * @return games with a loop running right now
+     */
+    public int getRunningGames() {
+        return activeGameLoops.size();
+    }
+
+    /**
+     * Stops every running game at its next tick and snapshots it. Games that don't make it in time (stuck shard)
+     * or end before their next tick are left out.
+     */
+    public List<GameCheckpoints.Checkpoint> checkpointAll(long timeoutMs) {
+        List<CompletableFuture<GameCheckpoints.Checkpoint>> futures = new ArrayList<>();
+        for (UUID gameId : activeGameLoops.keySet()) {
+            var future = new CompletableFuture<GameCheckpoints.Checkpoint>();
+            pendingCheckpoints.put(gameId, future);
+            futures.add(future);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        List<GameCheckpoints.Checkpoint> checkpoints = new ArrayList<>();
+        for (var future : futures) {
+            try {
+                var checkpoint = future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (checkpoint != null) {
+                    checkpoints.add(checkpoint);
+                }
+            } catch (TimeoutException | ExecutionException e) {
+                log.warn("Game didn't checkpoint: {}", e.toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        pendingCheckpoints.clear();
+        return checkpoints;
+    }
+
+    private void runLoop(UUID gameId) {
+        var gameLoop = gameLoopRuntime.register(gameId, () -> tick(gameId), () -> abortRound(gameId));
+        activeGameLoops.put(gameId, gameLoop);
+        stateStreamRegistry.requestRoster(gameId);
+    }
+
     /**
      * Performs a single tick of the game loop for a given game.
-     * This method is called repeatedly by the TaskScheduler.
+     * This method is called repeatedly by the game's GameLoopRuntime shard.
      *
      * @param gameId The ID of the game to update.
      */
     private void tick(UUID gameId) {
-        MDC.put("GAME", String.valueOf(gameId.hashCode()));
         log.trace("tick() start for game: {}", gameId);
         // 1. Find the game instance. This is the most critical step.
         var optionalGame = gameRepository.findById(gameId);
@@ -104,62 +176,61 @@ public class GameExecutionService {
         if (optionalGame.isEmpty()) {
             log.warn("Tick called for non-existent or already terminated game: {}. Stopping its loop.", gameId);
             // Clean up the zombie task from the map to prevent memory leaks.
-            ScheduledFuture<?> gameLoopTask = activeGameLoops.remove(gameId);
+            GameLoopRuntime.LoopRegistration gameLoopTask = activeGameLoops.remove(gameId);
             if (gameLoopTask != null) {
-                gameLoopTask.cancel(false);
+                gameLoopTask.cancel();
             }
             return;
         }
 
         GameInstance game = optionalGame.get();
+        MDC.put(GAME_MDC_KEY, game.getLogContext()); // precomputed, the shard switches games every tick
         log.trace("Game instance found: {}, state: {}", gameId, game.getCurrentState());
 
-        // 2. Delegate all physics and game logic calculations to the game instance.
+        if (!pendingCheckpoints.isEmpty()) {
+            var checkpoint = pendingCheckpoints.remove(gameId);
+            if (checkpoint != null) {
+                // shutting down - this was the last tick of the game in this process
+                stopLoop(gameId);
+                checkpoint.complete(GameCheckpoints.encode(game, System.currentTimeMillis()));
+                log.info("Game {} checkpointed at step {}", gameId, game.getSimulationTick());
+                return;
+            }
+        }
+
+        var gameLoop = activeGameLoops.get(gameId);
+        game.setDegradationLevel(gameLoop != null ? gameLoop.getDegradationLevel() : 0);
+
+        // 2. Apply the inputs since the last frame, then delegate all physics and game logic calculations to the engine.
+        gameEngine.applyCommands(game);
         gameEngine.update(game);
 
-        // Create a list of DTOs for each player
-        List<PlayerStateDto> playerDTOs = game.getPlayers().values().stream()
-                .map(player -> new PlayerStateDto(
-                        player.isEliminated(),
-                        player.getNickname(),
-                        player.getX(),
-                        player.getY(),
-                        player.getSize(),
-                        player.getAngle()))
-                .toList();
-
-        // 3. Create the Data Transfer Object (DTO) from the updated game state.
-        GameStateDto gameStateDto = new GameStateDto(
-                playerDTOs,
-                game.getCurrentArenaRadius()
-        );
-
-        // 4. Broadcast the complete world state to all players in this game.
-        String stateDestination = WebSocketConstants.GAME_STATE_TOPIC + gameId;
-        log.trace("Broadcasting game state to: {}", stateDestination);
-        messagingTemplate.convertAndSend(stateDestination, gameStateDto);
-
-        // 5. Check for the win condition and handle the end of the round.
+        // 3. Check for the win condition and handle the end of the round.
         if (game.getCurrentState() == GameInstance.GameState.ROUND_OVER) {
             log.info("Game {} has ended. Stopping loop and broadcasting winner.", gameId);
 
             // Stop the game loop for this game.
-            ScheduledFuture<?> gameLoopTask = activeGameLoops.remove(gameId);
-            if (gameLoopTask != null) {
-                gameLoopTask.cancel(false);
-            }
+            stopLoop(gameId);
+            gameLifecycleManager.markFinished(gameId);
 
             // Find the winner (should be the only player left).
-            if (game.getAlivePlayers().size() > 1) {
+            WorldState world = game.getWorld();
+            if (world.getAliveCount() > 1) {
                 log.error("Error! Game finished with more that 1 player alive!");
             }
-            Player winner = game.getAlivePlayers().getFirst();
-            winner.addWin(game.getPlayers().size());
-
-            // Broadcast a final "ROUND_WINNER" event to a different topic.
-            String eventDestination = WebSocketConstants.GAME_EVENTS_TOPIC + gameId;
-            messagingTemplate.convertAndSend(eventDestination, new GameEventDto(GameEventType.ROUND_WINNER, winner.getNickname()));
-            log.info("{} WON!", winner.getNickname());
+            int winnerSlot = world.firstAlive();
+            roundJournal.finish(game, winnerSlot < 0 ? JournalFormat.Outcome.NO_SURVIVORS : JournalFormat.Outcome.WINNER,
+                    winnerSlot);
+            leaderboard.recordRound(game, winnerSlot);
+            if (winnerSlot < 0) {
+                log.info("Game {} ended without survivors.", gameId);
+            } else {
+                Player winner = world.getPlayers()[winnerSlot];
+                winner.addWin(game.getPlayers().size());
+                // goes out with the last state frame below
+                game.getPendingEvents().add(GameEventType.ROUND_WINNER, winnerSlot);
+                log.info("{} WON!", winner.getNickname());
+            }
 
             //Move players to lobby
 //            for (Player player : game.getPlayers().values()) {
@@ -168,6 +239,75 @@ public class GameExecutionService {
 //               lobbyService.handlePlayerReJoin(player);
 //            }
         }
+
+        // 4. Broadcast the world state, with the events of this tick, to all players in this game.
+        if (isBroadcastDue(game)) {
+            stateBroadcaster.broadcast(game);
+            gameEngine.recordRewindFrame(game);
+        }
         log.trace("tick() end for game: {}", gameId);
     }
-}
\ No newline at end of file
+
+    /**
+     * Called by the loop runtime when the game's tick keeps throwing. Ends the round without a winner,
+     * so players aren't left looking at a frozen arena. There won't be another state frame, so this event
+     * goes to the events topic.
+     */
+    private void abortRound(UUID gameId) {
+        log.error("Aborting game {}", gameId);
+        stopLoop(gameId);
+        gameRepository.findById(gameId).ifPresent(game -> {
+            game.setCurrentState(GameInstance.GameState.ROUND_OVER);
+            roundJournal.finish(game, JournalFormat.Outcome.ABORTED, -1);
+        });
+        gameLifecycleManager.markFinished(gameId);
+        messagingTemplate.convertAndSend(WebSocketConstants.GAME_EVENTS_TOPIC + gameId, new GameEventDto(GameEventType.ROUND_ABORTED));
+    }
+
+    /**
+     * Cancels the loop of the game. A checkpoint still waiting for it won't come, the game is over.
+     */
+    private void stopLoop(UUID gameId) {
+        GameLoopRuntime.LoopRegistration gameLoopTask = activeGameLoops.remove(gameId);
+        if (gameLoopTask != null) {
+            gameLoopTask.cancel();
+        }
+        var checkpoint = pendingCheckpoints.remove(gameId);
+        if (checkpoint != null) {
+            checkpoint.complete(null);
+        }
+    }
+
+    /**
+     * Every tick broadcasts in variable-timestep mode. In fixed-timestep mode snapshots go out on their own
+     * broadcastRateHz grid. On an overloaded shard both modes broadcast at half the rate.
+     * The last frame of a round always goes out.
+     */
+    private boolean isBroadcastDue(GameInstance game) {
+        if (game.getCurrentState() == GameInstance.GameState.ROUND_OVER) {
+            return true;
+        }
+        boolean degraded = game.getDegradationLevel() >= TickSupervisor.DEGRADED_BROADCAST;
+        if (!gameConstants.isFixedTimestep() && !degraded) {
+            return true;
+        }
+        long interval = gameConstants.isFixedTimestep()
+                ? gameConstants.getBroadcastIntervalNanos()
+                : TimeUnit.MILLISECONDS.toNanos(gameConstants.getTickRateMs());
+        if (degraded) {
+            interval *= 2;
+        }
+        long now = System.nanoTime();
+        if (now < game.getNextBroadcastNanos()) {
+            return false;
+        }
+        // stay on the grid, but don't try to make up for broadcasts we already missed -
+        // skip to the first grid point after now
+        long next = game.getNextBroadcastNanos() + interval;
+        if (next <= now) {
+            next += ((now - next) / interval + 1) * interval;
+        }
+        game.setNextBroadcastNanos(next);
+        return true;
+    }
+}
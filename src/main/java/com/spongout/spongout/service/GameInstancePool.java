@@ -0,0 +1,69 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.model.GameInstance;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reaped games go here and come back as new ones, with the arrays and buffers they already grew.
+ * Bounded by {@code game-pool-size}, whatever doesn't fit is left to the GC.
+ */
+@Component
+@RequiredArgsConstructor
+public class GameInstancePool {
+
+    private final GameConstants gameConstants;
+
+    private final ConcurrentLinkedDeque<GameInstance> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @return a fresh game with a new id, recycled if there is one
+     */
+    public GameInstance acquire() {
+        GameInstance game = idle.pollFirst();
+        if (game == null) {
+            misses.incrementAndGet();
+            return new GameInstance();
+        }
+        idleCount.decrementAndGet();
+        hits.incrementAndGet();
+        game.reset(UUID.randomUUID());
+        return game;
+    }
+
+    /**
+     * Takes a game nobody references anymore.
+     *
+     * @return true if it was kept for reuse
+     */
+    public boolean release(GameInstance game) {
+        if (idleCount.incrementAndGet() > gameConstants.getGamePoolSize()) {
+            idleCount.decrementAndGet();
+            return false;
+        }
+        game.reset(null); // drop players and ids right away, don't wait for the next acquire
+        idle.addFirst(game); // most recently used first, its arrays are the likeliest to be big enough
+        return true;
+    }
+
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,128 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.controller.dto.GameLifecycleStatsDto;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.WorldState;
+import com.spongout.spongout.repository.GameRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Gets rid of finished games.
+ * <p>
+ * A game whose round is over is reaped {@code reap-grace-ms} later (so its last frames, events and acks settle):
+ * it leaves the repository, its streams and every index that points at it (owners register with
+ * {@link #onReap}), and the instance goes back to the {@link GameInstancePool}. Runs every {@code reap-interval-ms}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GameLifecycleManager {
+
+    private final GameRepository gameRepository;
+    private final StateStreamRegistry stateStreamRegistry;
+    private final GameInstancePool gameInstancePool;
+    private final GameConstants gameConstants;
+    private final TaskScheduler taskScheduler;
+
+    /** gameId -> System.nanoTime() of the end of its round */
+    private final Map<UUID, Long> finishedGames = new ConcurrentHashMap<>();
+    private final List<Consumer<ReapedGame>> reapListeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong reapedGames = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    /**
+     * @param sessionIds everybody who was in the game, players who left it included - taken before the instance
+     *                   goes back to the pool
+     */
+    public record ReapedGame(UUID gameId, Set<String> sessionIds) {
+    }
+
+    @PostConstruct
+    void start() {
+        taskScheduler.scheduleAtFixedRate(this::reap, Duration.ofMillis(gameConstants.getReapIntervalMs()));
+    }
+
+    /**
+     * Called for every reaped game, so whoever keeps an index by game id or session can drop its entries.
+     */
+    public void onReap(Consumer<ReapedGame> listener) {
+        reapListeners.add(listener);
+    }
+
+    /**
+     * The round of the game is over (or aborted), nothing will run it again.
+     */
+    public void markFinished(UUID gameId) {
+        finishedGames.putIfAbsent(gameId, System.nanoTime());
+    }
+
+    void reap() {
+        long now = System.nanoTime();
+        long graceNanos = TimeUnit.MILLISECONDS.toNanos(gameConstants.getReapGraceMs());
+        // games that ended without telling us, e.g. aborted before the round even started
+        for (GameInstance game : gameRepository.findAll()) {
+            if (game.getCurrentState() == GameInstance.GameState.ROUND_OVER) {
+                markFinished(game.getGameId());
+            }
+        }
+        for (Map.Entry<UUID, Long> finished : finishedGames.entrySet()) {
+            if (now - finished.getValue() >= graceNanos) {
+                finishedGames.remove(finished.getKey());
+                reapGame(finished.getKey());
+            }
+        }
+    }
+
+    private void reapGame(UUID gameId) {
+        try {
+            GameInstance game = gameRepository.findById(gameId).orElse(null);
+            gameRepository.deleteById(gameId);
+            stateStreamRegistry.releaseGame(gameId);
+            ReapedGame reaped = new ReapedGame(gameId, game != null ? sessionsOf(game) : Set.of());
+            reapListeners.forEach(listener -> listener.accept(reaped));
+            if (game == null) {
+                return;
+            }
+            long bytes = game.estimateRetainedBytes();
+            reapedGames.incrementAndGet();
+            reclaimedBytes.addAndGet(bytes);
+            boolean pooled = gameInstancePool.release(game);
+            log.debug("Game {} reaped, ~{} bytes {}", gameId, bytes, pooled ? "back in the pool" : "left to the GC");
+        } catch (Exception e) {
+            log.error("Reaping game {} failed", gameId, e);
+        }
+    }
+
+    private static Set<String> sessionsOf(GameInstance game) {
+        Set<String> sessionIds = new HashSet<>(game.getPlayers().keySet());
+        WorldState world = game.getWorld();
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            sessionIds.add(world.getPlayers()[slot].getSessionId()); // left during the round, still in his slot
+        }
+        return sessionIds;
+    }
+
+    public GameLifecycleStatsDto getStats() {
+        int finished = finishedGames.size();
+        return new GameLifecycleStatsDto(Math.max(0, gameRepository.count() - finished), finished, reapedGames.get(),
+                reclaimedBytes.get(), gameInstancePool.getIdleCount(), gameInstancePool.getHits(), gameInstancePool.getMisses());
+    }
+}
@@ -1,12 +1,18 @@
 package com.spongout.spongout.service;
 
-import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.cluster.ClusterCoordinator;
+import com.spongout.spongout.cluster.ClusterMessage;
+import com.spongout.spongout.config.ClusterConstants;
+import com.spongout.spongout.config.DrainConstants;
 import com.spongout.spongout.config.WebSocketConstants;
 import com.spongout.spongout.controller.dto.GameStartDto;
+import com.spongout.spongout.controller.dto.ReconnectDto;
+import com.spongout.spongout.model.GameCommand;
 import com.spongout.spongout.model.GameInstance;
 import com.spongout.spongout.model.Player;
 import com.spongout.spongout.repository.GameRepository;
 import com.spongout.spongout.repository.PlayerRepository;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
@@ -16,19 +22,27 @@ import org.springframework.stereotype.Service;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ScheduledFuture;
 
 //TODO add events for queue too. Like player
+// Waiting players are the Matchmaker's business, this takes care of what happens before and after.
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class GameLobbyService {
 
+    private static final long MAX_RTT_MS = 10_000; // slower than this isn't an echo of our ping
+
     // --- DEPENDENCY INJECTIONS XD (I know You love it) ---
     private final PlayerRepository playerRepository;
     private final GameRepository gameRepository;
     private final GameExecutionService executionService;
+    private final StateStreamRegistry stateStreamRegistry;
+    private final Matchmaker matchmaker;
+    private final GameInstancePool gameInstancePool;
+    private final GameLifecycleManager gameLifecycleManager;
+    private final ClusterCoordinator clusterCoordinator;
+    private final ClusterConstants clusterConstants;
+    private final DrainConstants drainConstants;
 
     private final SimpMessagingTemplate messagingTemplate;
     private final TaskScheduler taskScheduler;
@@ -37,14 +51,25 @@ public class GameLobbyService {
     private final Map<String, UUID> playerSessionToGameIdMap = new ConcurrentHashMap<>();
 
 
-    //waiting room for new players
-    private final List<Player> waitingRoom = new CopyOnWriteArrayList<>();
+    // cluster mode, games owned by this node: seats of players still being handed over from other nodes
+    private final Map<String, HandoffSeat> pendingHandoffs = new ConcurrentHashMap<>();
+    private final Map<UUID, Integer> awaitingHandoffs = new ConcurrentHashMap<>();
 
-    private final Object waitingRoomLock = new Object();
-    private final GameConstants gameConstants;
+    // shutting down, see DrainService. Nobody gets into a game here anymore, they are sent to the next process.
+    private volatile boolean draining;
 
-    /** Holds the reference to the scheduled countdown task, so it can be cancelled. */
-    private volatile ScheduledFuture<?> countdownTask;
+    /**
+     * @param previousSessionId set when the game was resumed from a checkpoint - his session in the old process
+     */
+    private record HandoffSeat(UUID gameId, String nickname, String previousSessionId) {
+    }
+
+    @PostConstruct
+    void start() {
+        matchmaker.start(this::createNewGame);
+        gameLifecycleManager.onReap(this::forgetGame);
+        clusterCoordinator.start(this::onClusterMessage);
+    }
 
     public void handlePlayerDisconnect(String sessionId) {
         log.info("Handling player disconnect for sessionId: {}", sessionId);
@@ -52,132 +77,293 @@ public class GameLobbyService {
         //delete from PlayerRepo
         playerRepository.deleteById(sessionId);
 
-        //delete from the game
-        boolean removedFromWaitingRoom = waitingRoom.removeIf(p -> p.getSessionId().equals(sessionId));
-
-        if (removedFromWaitingRoom) {
-            log.info("Player {} removed from waiting room. Current waiting room size: {}", sessionId, waitingRoom.size());
-            if (waitingRoom.size() < gameConstants.getMinPlayersToStart()) {
-                log.info("Players count {} is below minimum {} required to start", waitingRoom.size(), gameConstants.getMinPlayersToStart());
-                if (countdownTask != null) {
-                    cancelCountdown();
-                }
-            }
+        if (!clusterCoordinator.isLeader()) {
+            // he might still be waiting in the leader's lobby
+            clusterCoordinator.send(clusterCoordinator.leader(),
+                    new ClusterMessage.LeaveLobby(clusterCoordinator.localNodeId(), sessionId));
         } else {
-            var gameId = playerSessionToGameIdMap.get(sessionId);
-            //if null, then player vidmo (is there this word in english?)
-            if (gameId == null) {
-                log.warn("Player {} is ghost! Therefore can't be removed from any game or waiting room...", sessionId);
-                return;
-            }
+            matchmaker.leave(sessionId);
+        }
+
+        //delete from the game
+        var gameId = playerSessionToGameIdMap.remove(sessionId);
+        //if null, then he was still waiting (the matchmaker takes care of that) or player vidmo
+        if (gameId != null) {
             log.info("Player {} disconnecting from game {}", sessionId, gameId);
             gameRepository.findById(gameId).ifPresent(game -> {
-                Player removedPlayer = game.getPlayers().remove(sessionId);
-                game.getAlivePlayers().remove(removedPlayer);
-                log.info("Player {} successfully removed from Game {}", sessionId, gameId);
+                // the tick takes him out at the start of the next frame
+                game.getCommands().offer(GameCommand.leave(sessionId));
+                log.info("Player {} leaves Game {}", sessionId, gameId);
                 // Here you could add logic to end the game if they were the last player
             });
             //TODO add PLAYER_LEFT_GAME
         }
     }
 
-    public void handlePlayerReJoin(Player player) {
-        synchronized (waitingRoomLock) {
-            waitingRoom.add(player);
-            checkWaitingRoom();
+    /**
+     * @return true if the session was seated in the game (actions for other games are rejected with this)
+     */
+    public boolean isSeatedIn(String sessionId, UUID gameId) {
+        return gameId.equals(playerSessionToGameIdMap.get(sessionId));
+    }
+
+    /**
+     * One RTT measurement of the session's connection, see GameController.handlePong.
+     */
+    public void recordRtt(String sessionId, long rttMs) {
+        if (rttMs < 0 || rttMs > MAX_RTT_MS) {
+            return; // not an echo of our clock
         }
+        playerRepository.findById(sessionId).ifPresent(player -> player.recordRtt(rttMs));
     }
-    public void handlePlayerJoin(String nickname, String sessionId) {
-        synchronized (waitingRoomLock) {
-            log.info("Player joining: nickname={}, sessionId={}", nickname, sessionId);
-            Player newPlayer = new Player(nickname, sessionId);
 
-            waitingRoom.add(newPlayer);
-            playerRepository.save(newPlayer);
-            checkWaitingRoom();
+    public void handlePlayerReJoin(Player player) {
+        matchmaker.join(player);
+    }
+    public void handlePlayerJoin(String nickname, String sessionId) {
+        if (draining) {
+            sendReconnect(sessionId, null);
+            return;
         }
+        if (!clusterCoordinator.isLeader()) {
+            // matchmaking runs on the leader, this node only keeps the connection until the game forms
+            log.info("Player joining: nickname={}, sessionId={}, forwarding to leader {}", nickname, sessionId, clusterCoordinator.leader());
+            playerRepository.save(new Player(nickname, sessionId));
+            clusterCoordinator.send(clusterCoordinator.leader(),
+                    new ClusterMessage.JoinLobby(clusterCoordinator.localNodeId(), sessionId, nickname));
+            return;
+        }
+        log.info("Player joining: nickname={}, sessionId={}", nickname, sessionId);
+        Player newPlayer = new Player(nickname, sessionId);
+        playerRepository.save(newPlayer);
+        matchmaker.join(newPlayer);
     }
 
-    private void checkWaitingRoom() {
-        int waitingRoomSize = waitingRoom.size();
-        log.debug("Current waiting room size: {}", waitingRoomSize);
+    /**
+     * A player handed over from another node (cluster mode) or from the previous process (resumed game)
+     * reconnected here and takes his seat.
+     */
+    public void handleHandoffBind(String handoffToken, String sessionId) {
+        if (draining) {
+            sendReconnect(sessionId, handoffToken); // the token is good for the next process too
+            return;
+        }
+        HandoffSeat seat = handoffToken != null ? pendingHandoffs.remove(handoffToken) : null;
+        if (seat == null) {
+            log.warn("Session {} tried to bind with unknown handoff token", sessionId);
+            return;
+        }
+        var game = gameRepository.findById(seat.gameId()).orElse(null);
+        if (game == null) {
+            log.warn("Game {} is gone, can't bind handed off player {}", seat.gameId(), seat.nickname());
+            return;
+        }
+        log.info("Handed off player {} (sessionId: {}) bound to game {}", seat.nickname(), sessionId, seat.gameId());
+        Player player = new Player(seat.nickname(), sessionId);
+        playerRepository.save(player);
+        playerSessionToGameIdMap.put(sessionId, seat.gameId());
+
+        if (seat.previousSessionId() != null) {
+            // his old player is still in the world, the new session takes it over on the first tick
+            game.getCommands().offer(GameCommand.rebind(seat.previousSessionId(), player));
+            Integer stillAwaited = awaitingHandoffs.computeIfPresent(seat.gameId(), (id, awaited) -> awaited - 1);
+            sendGameStart(seat.gameId(), List.of(player));
+            if (stillAwaited != null && stillAwaited == 0 && awaitingHandoffs.remove(seat.gameId(), 0)) {
+                executionService.resumeRound(seat.gameId());
+            }
+            return;
+        }
 
-        if (waitingRoomSize >= gameConstants.getMaxPlayersInLobby()) {
-            log.info("LOBBY FULL. LET'S START A GAME!");
+        // the handoff timeout can start the round any moment, deciding under the map entry keeps the two apart
+        int[] stillAwaited = {-1};
+        awaitingHandoffs.computeIfPresent(seat.gameId(), (id, awaited) -> {
+            game.getPlayers().put(sessionId, player); // nothing ticks the game yet
+            stillAwaited[0] = awaited - 1;
+            return stillAwaited[0] == 0 ? null : stillAwaited[0];
+        });
+        if (stillAwaited[0] < 0) {
+            // the round started without him, he watches until the next one
+            game.getCommands().offer(GameCommand.join(player));
+        }
+        sendGameStart(seat.gameId(), List.of(player));
+        if (stillAwaited[0] == 0) {
+            executionService.startRound(seat.gameId());
+        }
+    }
 
-            if (countdownTask != null) {
-                cancelCountdown();
+    private void onClusterMessage(ClusterMessage message) {
+        switch (message) {
+            case ClusterMessage.JoinLobby join -> {
+                log.info("Player joining from node {}: nickname={}, sessionId={}", join.homeNode(), join.nickname(), join.sessionId());
+                matchmaker.join(new Player(join.nickname(), clusterCoordinator.qualify(join.homeNode(), join.sessionId())));
             }
+            case ClusterMessage.LeaveLobby leave -> matchmaker.leave(clusterCoordinator.qualify(leave.homeNode(), leave.sessionId()));
+            case ClusterMessage.StartGame start -> createOwnedGame(start.gameId(), start.seats());
+            case ClusterMessage.Redirect redirect -> {
+                log.info("Sending player {} to {} for game {}", redirect.sessionId(), redirect.ownerUrl(), redirect.gameId());
+                messagingTemplate.convertAndSend(WebSocketConstants.USER_PRIVATE_QUEUE + redirect.sessionId(),
+                        new GameStartDto(redirect.gameId(), null, redirect.ownerUrl(), redirect.handoffToken()));
+            }
+        }
+    }
 
-            formGameFromWaitingRoom();
-        } else if (waitingRoomSize >= gameConstants.getMinPlayersToStart() && countdownTask == null) {
-            log.info("{} PLAYERS WAITING. LET'S START A COUNTDOWN!", waitingRoomSize);
-            startLobbyCountdown();
-        } else {
-            log.info("{} PLAYER/S WAITING...", waitingRoomSize);
+    private void createNewGame(List<Player> players) {
+        if (draining) {
+            // formed right before the drain, it wouldn't get far
+            players.forEach(player -> sendReconnect(player.getSessionId(), null));
+            return;
+        }
+        if (clusterCoordinator.isEnabled()) {
+            // the owner creates it and pulls the players over
+            UUID gameId = UUID.randomUUID();
+            String owner = clusterCoordinator.ownerOf(gameId);
+            log.info("Game {} with {} players goes to node {}", gameId, players.size(), owner);
+            List<ClusterMessage.Seat> seats = players.stream()
+                    .map(p -> clusterCoordinator.seatOf(p.getSessionId(), p.getNickname()))
+                    .toList();
+            clusterCoordinator.send(owner, new ClusterMessage.StartGame(gameId, seats));
+            return;
         }
+        log.info("Creating new game with {} players", players.size());
+        GameInstance newGame = gameInstancePool.acquire();
+        UUID gameId = newGame.getGameId();
+        log.info("Game {} created", gameId);
+
+        log.info("Saving game {} to repository", gameId);
+        gameRepository.save(newGame);
+        seatPlayers(newGame, players);
+        executionService.startRound(gameId);
     }
 
+    /**
+     * Cluster mode: the leader formed a game and this node runs it. Players connected here are seated right away,
+     * the others are told to come over, the round starts when they all did (or the handoff times out).
+     */
+    private void createOwnedGame(UUID gameId, List<ClusterMessage.Seat> seats) {
+        log.info("Creating owned game {} with {} seats", gameId, seats.size());
+        GameInstance newGame = gameInstancePool.acquire();
+        newGame.setGameId(gameId);
+        gameRepository.save(newGame);
 
+        List<Player> localPlayers = new ArrayList<>();
+        List<ClusterMessage.Seat> remoteSeats = new ArrayList<>();
+        for (ClusterMessage.Seat seat : seats) {
+            if (clusterCoordinator.isLocal(seat.homeNode())) {
+                playerRepository.findById(seat.sessionId()).ifPresentOrElse(localPlayers::add,
+                        () -> log.warn("Player {} left before game {} formed", seat.sessionId(), gameId));
+            } else {
+                remoteSeats.add(seat);
+            }
+        }
+        seatPlayers(newGame, localPlayers);
 
-    private void startLobbyCountdown() {
-        // TODO: Implement this method based on the specification above.
-        log.info("Starting lobby countdown for {} seconds", gameConstants.getCountdownSeconds());
-        countdownTask = taskScheduler.schedule(
-                this::formGameFromWaitingRoom,
-                Instant.now().plusSeconds(gameConstants.getCountdownSeconds())
-        );
-        log.debug("Countdown task scheduled: {}", countdownTask);
+        if (remoteSeats.isEmpty()) {
+            executionService.startRound(gameId);
+            return;
+        }
+        awaitingHandoffs.put(gameId, remoteSeats.size());
+        for (ClusterMessage.Seat seat : remoteSeats) {
+            String handoffToken = UUID.randomUUID().toString();
+            pendingHandoffs.put(handoffToken, new HandoffSeat(gameId, seat.nickname(), null));
+            clusterCoordinator.send(seat.homeNode(),
+                    new ClusterMessage.Redirect(seat.sessionId(), gameId, clusterConstants.getPublicUrl(), handoffToken));
+        }
+        taskScheduler.schedule(() -> {
+            if (awaitingHandoffs.remove(gameId) != null) {
+                log.warn("Not all players of game {} got handed over in time, starting without them", gameId);
+                pendingHandoffs.values().removeIf(seat -> seat.gameId().equals(gameId));
+                executionService.startRound(gameId);
+            }
+        }, Instant.now().plusMillis(clusterConstants.getHandoffTimeoutMs()));
     }
 
-    private void cancelCountdown() {
-        countdownTask.cancel(true);
-        countdownTask = null;
-        log.info("Countdown task cancelled");
+    /**
+     * Stops letting players into games, see DrainService. Players waiting in the lobby, and everyone who tries
+     * to join from now on, are told to come back to the next process.
+     */
+    public void drain() {
+        draining = true;
+        matchmaker.drain(player -> sendReconnect(player.getSessionId(), null));
     }
 
-    private void formGameFromWaitingRoom() {
-        log.info("Attempting to form a game from waiting room with {} players", waitingRoom.size());
-        List<Player> playersForNewGame;
+    /**
+     * Tells the players of a checkpointed game how to get back into it, see DrainService.
+     */
+    public void sendResumeTokens(List<GameCheckpoints.ResumeSeat> seats) {
+        for (GameCheckpoints.ResumeSeat seat : seats) {
+            sendReconnect(seat.previousSessionId(), seat.token());
+        }
+    }
 
-        synchronized (waitingRoomLock) {
-            if(waitingRoom.size() < gameConstants.getMinPlayersToStart()) {
-                //it means someone left in the middle of matchmaking and handlePlayerDisconnection didnt work somehow, safety.
-                log.warn("Cannot form game - not enough players: {} (min required: {})", waitingRoom.size(), gameConstants.getMinPlayersToStart());
-                countdownTask = null;
-                return;
+    /**
+     * A game restored from a checkpoint, not ticking yet. It goes on when all its players bound again
+     * (or the resume times out, then without the missing ones).
+     */
+    public void awaitResume(GameInstance game, List<GameCheckpoints.ResumeSeat> seats) {
+        UUID gameId = game.getGameId();
+        gameRepository.save(game);
+        if (seats.isEmpty()) {
+            executionService.resumeRound(gameId);
+            return;
+        }
+        awaitingHandoffs.put(gameId, seats.size());
+        for (GameCheckpoints.ResumeSeat seat : seats) {
+            pendingHandoffs.put(seat.token(), new HandoffSeat(gameId, seat.nickname(), seat.previousSessionId()));
+        }
+        taskScheduler.schedule(() -> {
+            if (awaitingHandoffs.remove(gameId) != null) {
+                log.warn("Not all players of game {} came back in time, resuming without them", gameId);
+                pendingHandoffs.values().removeIf(seat -> {
+                    if (!seat.gameId().equals(gameId)) {
+                        return false;
+                    }
+                    game.getCommands().offer(GameCommand.leave(seat.previousSessionId()));
+                    return true;
+                });
+                executionService.resumeRound(gameId);
             }
-            log.info("WE ARE FORMING THE GAME! YOOHOO!");
-            playersForNewGame = new ArrayList<>(waitingRoom);
-            waitingRoom.clear();
-            countdownTask = null;
+        }, Instant.now().plusMillis(drainConstants.getResumeTimeoutMs()));
+    }
+
+    private void sendReconnect(String sessionId, String handoffToken) {
+        messagingTemplate.convertAndSend(WebSocketConstants.USER_PRIVATE_QUEUE + sessionId,
+                new ReconnectDto(null, handoffToken, drainConstants.getRetryAfterMs()));
+    }
+
+    private void forgetGame(GameLifecycleManager.ReapedGame reaped) {
+        UUID gameId = reaped.gameId();
+        for (String sessionId : reaped.sessionIds()) {
+            playerSessionToGameIdMap.remove(sessionId, gameId); // unless he's in a newer game already
+        }
+        if (awaitingHandoffs.remove(gameId) != null) {
+            // only games still waiting for players have seats pending
+            pendingHandoffs.values().removeIf(seat -> seat.gameId().equals(gameId));
         }
-        createNewGame(playersForNewGame);
     }
 
-    private void createNewGame(List<Player> players) {
-        log.info("Creating new game with {} players", players.size());
-        GameInstance newGame = new GameInstance();
-        UUID gameId = newGame.getGameId();
-        log.info("Game {} created", gameId);
+    /**
+     * @return sessions seated in a game on this node
+     */
+    int getSeatedSessions() {
+        return playerSessionToGameIdMap.size();
+    }
 
+    private void seatPlayers(GameInstance game, List<Player> players) {
+        UUID gameId = game.getGameId();
         for (Player player : players) {
             log.info("Adding player {} (sessionId: {}) to game {}", player.getNickname(), player.getSessionId(), gameId);
-            newGame.getPlayers().put(player.getSessionId(), player);
+            game.getPlayers().put(player.getSessionId(), player);
             playerSessionToGameIdMap.put(player.getSessionId(), gameId);
         }
-        newGame.getAlivePlayers().addAll(players);
-
-        log.info("Saving game {} to repository", gameId);
-        gameRepository.save(newGame);
-
-        var gameStartPayload = new GameStartDto(gameId);
-        log.info("Created GameStartDto payload with gameId: {}", gameId);
+        sendGameStart(gameId, players);
+    }
 
+    private void sendGameStart(UUID gameId, List<Player> players) {
         for (Player player : players) {
+            // every player gets his own token for the raw state socket
+            var gameStartPayload = new GameStartDto(gameId, stateStreamRegistry.issueStreamToken(gameId, player.getSessionId()));
             log.info("Sending game start notification to player {} (sessionId: {})", player.getNickname(), player.getSessionId());
             messagingTemplate.convertAndSend(WebSocketConstants.USER_PRIVATE_QUEUE + player.getSessionId(), gameStartPayload);
         }
-        executionService.startRound(gameId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,325 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.controller.dto.ShardLoadDto;
+import com.spongout.spongout.monitoring.GameMetrics;
+import com.spongout.spongout.monitoring.StartupProbe;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the game loops.
+ * <p>
+ * Instead of one scheduled task per game (which all fight for the single TaskScheduler thread), there are N loop
+ * threads - shards. Every shard owns a set of games and ticks all of them in one pass per frame, then sleeps until
+ * the next frame. New games go to the least loaded shard.
+ */
+@Slf4j
+@Component
+public class GameLoopRuntime {
+
+    private final GameConstants gameConstants;
+    private final StartupProbe startupProbe;
+    private final Shard[] shards;
+
+    public GameLoopRuntime(GameConstants gameConstants, GameMetrics gameMetrics, StartupProbe startupProbe) {
+        this.gameConstants = gameConstants;
+        this.startupProbe = startupProbe;
+        int threads = gameConstants.getLoopThreads() > 0
+                ? gameConstants.getLoopThreads()
+                : Runtime.getRuntime().availableProcessors();
+        this.shards = new Shard[threads];
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard(i, gameMetrics.loop(i));
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        log.info("Starting {} game loop shard(s), frame every {} ms", shards.length, gameConstants.getTickRateMs());
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        for (Shard shard : shards) {
+            shard.running = false;
+            LockSupport.unpark(shard.thread);
+        }
+    }
+
+    /**
+     * Adds a game loop to the least loaded shard. It gets ticked from the next frame on, until it's cancelled.
+     *
+     * @param onAbort called (once) when the tick keeps failing and the loop gets cancelled because of that
+     */
+    public LoopRegistration register(UUID gameId, Runnable tick, Runnable onAbort) {
+        var registration = new LoopRegistration(gameId, tick, onAbort);
+        Shard target = leastLoaded(null);
+        assign(registration, target);
+        log.debug("Game {} assigned to loop shard {}", gameId, target.index);
+        return registration;
+    }
+
+    /**
+     * Moves all loops, except the one it is stuck in, from a stalled shard to the healthy ones.
+     * The stalled shard drops the moved loops when (if ever) it wakes up, see {@link LoopRegistration#shard}.
+     */
+    void evacuate(Shard stalled) {
+        LoopRegistration stuck = stalled.current;
+        for (LoopRegistration loop : stalled.owned()) {
+            if (loop == stuck || loop.cancelled) {
+                continue;
+            }
+            Shard target = leastLoaded(stalled);
+            if (target == stalled) {
+                return; // nowhere to go
+            }
+            // the stalled shard may wake up and drop a cancelled loop right now, only one of us accounts for it
+            if (loop.shard.compareAndSet(stalled, target)) {
+                stalled.games.decrementAndGet();
+                stalled.registered.remove(loop);
+                take(loop, target);
+                log.warn("Game {} moved from stalled loop shard {} to shard {}", loop.gameId, stalled.index, target.index);
+            }
+        }
+    }
+
+    Shard[] shards() {
+        return shards;
+    }
+
+    long getFrameNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(gameConstants.getTickRateMs());
+    }
+
+    private Shard leastLoaded(Shard excluded) {
+        Shard target = null;
+        for (Shard shard : shards) {
+            if (shard == excluded || shard.isStalled()) {
+                continue;
+            }
+            if (target == null || shard.games.get() < target.games.get()
+                    || (shard.games.get() == target.games.get() && shard.utilization < target.utilization)) {
+                target = shard;
+            }
+        }
+        return target != null ? target : shards[0];
+    }
+
+    private void assign(LoopRegistration loop, Shard shard) {
+        loop.shard.set(shard);
+        take(loop, shard);
+    }
+
+    private static void take(LoopRegistration loop, Shard shard) {
+        loop.lastShard = shard;
+        shard.games.incrementAndGet();
+        shard.registered.add(loop);
+        shard.incoming.add(loop);
+    }
+
+    /**
+     * @return current load of every shard, to see when the box is saturated
+     */
+    public List<ShardLoadDto> getShardLoads() {
+        List<ShardLoadDto> loads = new ArrayList<>(shards.length);
+        for (Shard shard : shards) {
+            loads.add(new ShardLoadDto(shard.index, shard.games.get(), shard.utilization, shard.overruns,
+                    shard.degradationLevel, shard.isStalled()));
+        }
+        return loads;
+    }
+
+    /**
+     * Handle of a game loop running on one of the shards.
+     */
+    public static final class LoopRegistration {
+        @Getter
+        private final UUID gameId;
+        private final Runnable tick;
+        private final Runnable onAbort;
+        private volatile boolean cancelled;
+
+        /**
+         * Owning shard. Changes only by compare-and-set: to another shard when the loop is moved away from a stalled
+         * one, to null when the owner drops the cancelled loop. Whoever wins it updates the shards' game counts.
+         */
+        private final AtomicReference<Shard> shard = new AtomicReference<>();
+        /** Latest owner, still there once the cancelled loop is dropped. */
+        private volatile Shard lastShard;
+        /** Guards against two shards ticking the same game while it's being moved. */
+        private final AtomicBoolean ticking = new AtomicBoolean();
+
+        @Getter
+        private volatile long lastTickEndNanos = System.nanoTime();
+        @Getter
+        private volatile long overBudgetTicks;
+        private int consecutiveFailures; // ticking thread only
+
+        private LoopRegistration(UUID gameId, Runnable tick, Runnable onAbort) {
+            this.gameId = gameId;
+            this.tick = tick;
+            this.onAbort = onAbort;
+        }
+
+        /**
+         * Stops ticking the game. Safe to call from the tick itself, the shard drops it before the next frame.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return how much the owning shard is degraded right now, see {@link TickSupervisor}
+         */
+        public int getDegradationLevel() {
+            return lastShard.degradationLevel;
+        }
+    }
+
+    final class Shard implements Runnable {
+        /** Smoothing of the utilization moving average, roughly the last 20 frames. */
+        private static final double UTILIZATION_SMOOTHING = 0.05;
+
+        final int index;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<LoopRegistration> incoming = new ConcurrentLinkedQueue<>();
+        private final List<LoopRegistration> loops = new ArrayList<>(); // shard thread only
+        /** Same loops as {@link #loops}, but readable from the supervisor. */
+        private final Set<LoopRegistration> registered = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger games = new AtomicInteger();
+        private final GameMetrics.LoopMeters meters;
+
+        private volatile boolean running = true;
+        volatile double utilization; // busy time / frame time
+        private volatile long overruns; // frames that took longer than the frame time
+        volatile long heartbeatNanos = System.nanoTime(); // start of the last frame
+        private volatile LoopRegistration current; // loop being ticked right now, if any
+        volatile int degradationLevel;
+
+        // supervisor bookkeeping
+        long overloadedSinceNanos;
+        long calmSinceNanos;
+        volatile boolean stalled;
+
+        private Shard(int index, GameMetrics.LoopMeters meters) {
+            this.index = index;
+            this.meters = meters;
+            this.thread = new Thread(this, "game-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        Set<LoopRegistration> owned() {
+            return registered;
+        }
+
+        boolean isStalled() {
+            return stalled;
+        }
+
+        @Override
+        public void run() {
+            long frameNanos = getFrameNanos();
+            long nextFrame = System.nanoTime();
+            while (running) {
+                LoopRegistration added;
+                while ((added = incoming.poll()) != null) {
+                    loops.add(added);
+                }
+
+                long frameStart = System.nanoTime();
+                heartbeatNanos = frameStart;
+                meters.recordJitter(Math.max(0, frameStart - nextFrame));
+                for (int i = 0; i < loops.size(); i++) {
+                    LoopRegistration loop = loops.get(i);
+                    if (loop.shard.get() != this) {
+                        loops.remove(i--); // moved to another shard while we were stuck
+                        continue;
+                    }
+                    if (loop.cancelled) {
+                        loops.remove(i--);
+                        if (loop.shard.compareAndSet(this, null)) {
+                            registered.remove(loop);
+                            games.decrementAndGet();
+                        }
+                        continue;
+                    }
+                    if (loop.ticking.compareAndSet(false, true)) {
+                        current = loop;
+                        try {
+                            tick(loop, frameNanos);
+                        } finally {
+                            current = null;
+                            loop.ticking.set(false);
+                        }
+                    }
+                }
+                long busy = System.nanoTime() - frameStart;
+                utilization += UTILIZATION_SMOOTHING * ((double) busy / frameNanos - utilization);
+
+                nextFrame += frameNanos;
+                long sleep = nextFrame - System.nanoTime();
+                if (sleep > 0) {
+                    LockSupport.parkNanos(sleep);
+                } else {
+                    overruns++;
+                    nextFrame = System.nanoTime(); // don't burst to catch up, the engine handles lost time
+                }
+            }
+        }
+
+        private void tick(LoopRegistration loop, long budgetNanos) {
+            long start = System.nanoTime();
+            try {
+                loop.tick.run();
+                loop.consecutiveFailures = 0;
+            } catch (Throwable e) {
+                // one broken game must not stop the others on this shard, nor kill the shard thread
+                loop.consecutiveFailures++;
+                log.error("Tick of game {} failed ({} in a row)", loop.gameId, loop.consecutiveFailures, e);
+                if (loop.consecutiveFailures >= gameConstants.getTickMaxFailures()) {
+                    log.error("Game {} keeps failing, aborting it", loop.gameId);
+                    loop.cancel();
+                    abort(loop);
+                }
+            }
+            long end = System.nanoTime();
+            loop.lastTickEndNanos = end;
+            meters.recordTick(end - start);
+            startupProbe.recordTick(end - start);
+            if (end - start > budgetNanos) {
+                long overBudget = ++loop.overBudgetTicks;
+                if (overBudget == 1 || overBudget % 100 == 0) {
+                    log.warn("Tick of game {} took {} us, budget is {} us ({} ticks over budget so far)",
+                            loop.gameId, (end - start) / 1000, budgetNanos / 1000, overBudget);
+                }
+            }
+        }
+
+        private void abort(LoopRegistration loop) {
+            try {
+                loop.onAbort.run();
+            } catch (Throwable e) {
+                log.error("Aborting game {} failed too", loop.gameId, e);
+            }
+        }
+    }
+}
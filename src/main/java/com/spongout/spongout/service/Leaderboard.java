@@ -0,0 +1,224 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.LeaderboardConstants;
+import com.spongout.spongout.controller.dto.LeaderboardEntryDto;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.PlayerStats;
+import com.spongout.spongout.model.WorldState;
+import com.spongout.spongout.repository.PlayerStatsRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Persistent player stats with an in-memory ranking.
+ * <ul>
+ *     <li>Round results only go into a lock-free queue - a finishing round never waits for the database.</li>
+ *     <li>Every {@code flush-interval-ms} the queue is drained on the scheduler, the results are added up per
+ *     player and the changed totals go to the database in one batch (write-behind).</li>
+ *     <li>The same pass updates the top {@code top-size} players and publishes them as an immutable list,
+ *     so reading the leaderboard is one volatile read - no locks, no database.</li>
+ *     <li>Only the top and the last {@code recent-players} players who played are kept in memory, the flusher
+ *     loads anybody else from the database in one query before adding up his results.</li>
+ * </ul>
+ * Scores only ever grow, so a player that fell out of the top can't be missing from it while he deserves a place.
+ * Results still queued when the process dies are lost, at most one flush interval of them.
+ * <p>
+ * There are no accounts, a player is his nickname: whoever joins with a name continues its stats.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class Leaderboard {
+
+    private static final int MAX_NICKNAME_LENGTH = 64; // see schema.sql
+
+    private final PlayerStatsRepository playerStatsRepository;
+    private final LeaderboardConstants leaderboardConstants;
+    private final TaskScheduler taskScheduler;
+
+    private final ConcurrentLinkedQueue<PlayerStats> results = new ConcurrentLinkedQueue<>();
+    private final Map<String, PlayerStats> totals = new ConcurrentHashMap<>(); // the top and recent players only
+
+    // flusher only (flush is synchronized, the scheduler and the shutdown can both call it)
+    private final TreeSet<PlayerStats> top = new TreeSet<>(PlayerStats.RANKING);
+    private final Map<String, PlayerStats> unsaved = new HashMap<>();
+    private final LinkedHashSet<String> recent = new LinkedHashSet<>(); // least recently played first
+
+    private volatile List<LeaderboardEntryDto> ranking = List.of();
+
+    @PostConstruct
+    void start() {
+        for (PlayerStats stats : playerStatsRepository.findTop(leaderboardConstants.getTopSize())) {
+            totals.put(stats.nickname(), stats);
+            rank(null, stats);
+        }
+        publish();
+        log.info("Leaderboard loaded, top {} players", totals.size());
+        taskScheduler.scheduleWithFixedDelay(this::flush, Duration.ofMillis(leaderboardConstants.getFlushIntervalMs()));
+    }
+
+    @PreDestroy
+    void stop() {
+        flush();
+    }
+
+    /**
+     * Queues the results of everybody who played the round. Tick thread, doesn't block.
+     *
+     * @param winnerSlot -1 if nobody won
+     */
+    public void recordRound(GameInstance game, int winnerSlot) {
+        WorldState world = game.getWorld();
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            Player player = world.getPlayers()[slot];
+            boolean won = slot == winnerSlot;
+            // same score as Player.addWin
+            results.add(new PlayerStats(nicknameOf(player), won ? 1 : 0, 1, player.isEliminated() ? 1 : 0,
+                    won ? game.getPlayers().size() * 100L : 0));
+        }
+    }
+
+    /**
+     * @return the best {@code limit} players (at most {@code top-size}), best first
+     */
+    public List<LeaderboardEntryDto> getTop(int limit) {
+        List<LeaderboardEntryDto> current = ranking;
+        return limit >= current.size() ? current : current.subList(0, Math.max(0, limit));
+    }
+
+    /**
+     * Players who haven't played lately are read from the database.
+     */
+    public Optional<PlayerStats> find(String nickname) {
+        PlayerStats stats = totals.get(nickname);
+        return stats != null ? Optional.of(stats) : playerStatsRepository.findByNickname(nickname);
+    }
+
+    synchronized void flush() {
+        List<PlayerStats> drained = new ArrayList<>();
+        PlayerStats result;
+        while ((result = results.poll()) != null) {
+            drained.add(result);
+        }
+        if (!load(drained)) {
+            return;
+        }
+        boolean changed = false;
+        for (PlayerStats played : drained) {
+            PlayerStats before = totals.get(played.nickname());
+            PlayerStats after = (before != null ? before : PlayerStats.empty(played.nickname())).plus(played);
+            totals.put(after.nickname(), after);
+            unsaved.put(after.nickname(), after);
+            recent.addLast(after.nickname());
+            changed |= rank(before, after);
+        }
+        if (changed) {
+            publish();
+        }
+        if (unsaved.isEmpty()) {
+            return;
+        }
+        try {
+            playerStatsRepository.saveAll(new ArrayList<>(unsaved.values()));
+            log.debug("Saved stats of {} players", unsaved.size());
+            unsaved.clear();
+        } catch (Exception e) {
+            // keep them, the next flush tries again with whatever is newest by then
+            log.error("Saving stats of {} players failed", unsaved.size(), e);
+        }
+        evict();
+    }
+
+    /**
+     * Reads the totals of players who aren't in memory, so their results add to what they already have.
+     *
+     * @return false if that failed, the results are queued again for the next flush
+     */
+    private boolean load(List<PlayerStats> drained) {
+        Set<String> missing = new HashSet<>();
+        for (PlayerStats played : drained) {
+            if (!totals.containsKey(played.nickname())) {
+                missing.add(played.nickname());
+            }
+        }
+        try {
+            for (PlayerStats stats : playerStatsRepository.findByNicknames(missing)) {
+                totals.put(stats.nickname(), stats);
+            }
+            return true;
+        } catch (Exception e) {
+            log.error("Loading stats of {} players failed", missing.size(), e);
+            results.addAll(drained);
+            return false;
+        }
+    }
+
+    /**
+     * Forgets the least recently played players beyond {@code recent-players}, unless they are in the top
+     * or not saved yet.
+     */
+    private void evict() {
+        int excess = totals.size() - top.size() - leaderboardConstants.getRecentPlayers();
+        for (Iterator<String> it = recent.iterator(); excess > 0 && it.hasNext(); ) {
+            String nickname = it.next();
+            PlayerStats stats = totals.get(nickname);
+            if (unsaved.containsKey(nickname) || top.contains(stats)) {
+                continue;
+            }
+            totals.remove(nickname);
+            it.remove();
+            excess--;
+        }
+    }
+
+    /**
+     * @return true if the top changed
+     */
+    private boolean rank(PlayerStats before, PlayerStats after) {
+        boolean wasInTop = before != null && top.remove(before);
+        if (top.size() < leaderboardConstants.getTopSize()) {
+            top.add(after);
+            return true;
+        }
+        if (PlayerStats.RANKING.compare(after, top.last()) < 0) {
+            recent.addLast(top.pollLast().nickname()); // evicted like any other player from now on
+            top.add(after);
+            return true;
+        }
+        return wasInTop; // can't really happen, a score never drops
+    }
+
+    private void publish() {
+        List<LeaderboardEntryDto> entries = new ArrayList<>(top.size());
+        int rank = 1;
+        for (PlayerStats stats : top) {
+            entries.add(new LeaderboardEntryDto(rank++, stats.nickname(), stats.wins(), stats.rounds(),
+                    stats.eliminations(), stats.score()));
+        }
+        ranking = List.copyOf(entries);
+    }
+
+    private static String nicknameOf(Player player) {
+        String nickname = player.getNickname();
+        return nickname.length() > MAX_NICKNAME_LENGTH ? nickname.substring(0, MAX_NICKNAME_LENGTH) : nickname;
+    }
+}
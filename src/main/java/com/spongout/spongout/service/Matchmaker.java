@@ -0,0 +1,322 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.controller.dto.MatchmakingStatsDto;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.monitoring.GameMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Puts waiting players into games.
+ * <p>
+ * Joins and leaves only go into a lock-free queue - no caller ever waits for another one. A single matchmaker
+ * thread drains the queue in batches and is the only one touching the lobby buckets, so the buckets need no locks
+ * either. Every bucket is a lobby of its own with its own countdown. A join goes to the fullest bucket that still
+ * takes players, so games fill up quickly: a bucket takes joins until it's full or half of its countdown has run.
+ * Later joins open the next bucket, which starts its own countdown while the first one is still running - so under
+ * load there are many lobbies counting down at once. Formed games are created on a small pool, so a burst of joins
+ * drained in one pass forms many games in parallel, and the matchmaker thread never waits for game setup.
+ */
+@Slf4j
+@Component
+public class Matchmaker {
+
+    /** Join to game start times kept for the percentiles. */
+    private static final int LATENCY_SAMPLES = 4096;
+
+    private final GameConstants gameConstants;
+    private final GameMetrics gameMetrics;
+    private final ConcurrentLinkedQueue<Command> commands = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private final ExecutorService formingPool;
+    private volatile boolean running = true;
+    private volatile Consumer<List<Player>> gameFactory;
+    private volatile Consumer<Player> bounce; // set when draining, gets every player instead of a lobby
+
+    // matchmaker thread only
+    private final List<Bucket> buckets = new ArrayList<>();
+    private final Map<String, Bucket> bucketsByPlayer = new HashMap<>();
+
+    // stats
+    private volatile int waitingPlayers;
+    private volatile int openBuckets;
+    private volatile int runningCountdowns;
+    private final AtomicLong gamesFormed = new AtomicLong();
+    private final long[] latencySamples = new long[LATENCY_SAMPLES];
+    private long latencyCount; // guarded by latencySamples
+
+    public Matchmaker(GameConstants gameConstants, GameMetrics gameMetrics) {
+        this.gameConstants = gameConstants;
+        this.gameMetrics = gameMetrics;
+        int threads = gameConstants.getMatchmakerThreads() > 0
+                ? gameConstants.getMatchmakerThreads()
+                : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.formingPool = Executors.newFixedThreadPool(threads, task -> {
+            Thread formingThread = new Thread(task, "game-former-" + threadIndex.getAndIncrement());
+            formingThread.setDaemon(true);
+            return formingThread;
+        });
+        this.thread = new Thread(this::run, "matchmaker");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts matchmaking. {@code gameFactory} gets the players of every formed game, on one of the forming threads.
+     */
+    public void start(Consumer<List<Player>> gameFactory) {
+        this.gameFactory = gameFactory;
+        thread.start();
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        formingPool.shutdownNow();
+    }
+
+    /**
+     * Stops forming games (shutdown). Waiting players, and everyone who joins from now on, go to {@code bounce},
+     * on the matchmaker thread.
+     */
+    public void drain(Consumer<Player> bounce) {
+        this.bounce = bounce;
+        LockSupport.unpark(thread);
+    }
+
+    public void join(Player player) {
+        commands.add(new Command(player, null, System.nanoTime()));
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Takes the player out of his lobby, if he's still waiting. Players already in a game aren't affected.
+     */
+    public void leave(String playerId) {
+        commands.add(new Command(null, playerId, 0));
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                Command command;
+                while ((command = commands.poll()) != null) {
+                    if (command.player() != null) {
+                        place(command.player(), command.enqueuedNanos());
+                    } else {
+                        remove(command.leavingId());
+                    }
+                }
+                if (bounce != null && !buckets.isEmpty()) {
+                    evictAll();
+                }
+                long nextDeadline = checkCountdowns(System.nanoTime());
+                waitingPlayers = bucketsByPlayer.size();
+                openBuckets = buckets.size();
+                runningCountdowns = countRunningCountdowns();
+                if (commands.isEmpty()) {
+                    LockSupport.parkNanos(nextDeadline == Long.MAX_VALUE
+                            ? TimeUnit.SECONDS.toNanos(1)
+                            : Math.max(0, nextDeadline - System.nanoTime()));
+                }
+            } catch (Exception e) {
+                // matchmaking must survive anything a single join throws at it
+                log.error("Matchmaker pass failed", e);
+            }
+        }
+    }
+
+    private void place(Player player, long enqueuedNanos) {
+        if (bounce != null) {
+            bounce.accept(player);
+            return;
+        }
+        if (bucketsByPlayer.containsKey(player.getSessionId())) {
+            log.warn("Player {} is already waiting, ignoring second join", player.getSessionId());
+            return;
+        }
+        long now = System.nanoTime();
+        long joinWindow = TimeUnit.SECONDS.toNanos(gameConstants.getCountdownSeconds()) / 2;
+        Bucket bucket = null;
+        for (Bucket candidate : buckets) {
+            boolean takesJoins = candidate.countdownDeadline == 0 || candidate.countdownDeadline - now > joinWindow;
+            if (takesJoins && (bucket == null || candidate.players.size() > bucket.players.size())) {
+                bucket = candidate;
+            }
+        }
+        if (bucket == null) {
+            bucket = new Bucket();
+            buckets.add(bucket);
+        }
+        bucket.players.add(player);
+        bucket.enqueuedNanos.add(enqueuedNanos);
+        bucketsByPlayer.put(player.getSessionId(), bucket);
+
+        int size = bucket.players.size();
+        log.debug("Lobby {} has {} player/s waiting", bucket.id, size);
+        if (size >= gameConstants.getMaxPlayersInLobby()) {
+            log.info("LOBBY {} FULL. LET'S START A GAME!", bucket.id);
+            form(bucket);
+        } else if (size >= gameConstants.getMinPlayersToStart() && bucket.countdownDeadline == 0) {
+            log.info("{} PLAYERS WAITING IN LOBBY {}. LET'S START A COUNTDOWN!", size, bucket.id);
+            bucket.countdownDeadline = now + TimeUnit.SECONDS.toNanos(gameConstants.getCountdownSeconds());
+        }
+    }
+
+    private void remove(String playerId) {
+        Bucket bucket = bucketsByPlayer.remove(playerId);
+        if (bucket == null) {
+            return;
+        }
+        int index = indexOf(bucket, playerId);
+        bucket.players.remove(index);
+        bucket.enqueuedNanos.remove(index);
+        log.info("Player {} removed from lobby {}. Players left in it: {}", playerId, bucket.id, bucket.players.size());
+        if (bucket.players.isEmpty()) {
+            buckets.remove(bucket);
+        } else if (bucket.players.size() < gameConstants.getMinPlayersToStart() && bucket.countdownDeadline != 0) {
+            log.info("Lobby {} is below minimum {} required to start, countdown cancelled", bucket.id,
+                    gameConstants.getMinPlayersToStart());
+            bucket.countdownDeadline = 0;
+        }
+    }
+
+    private void evictAll() {
+        for (Bucket bucket : buckets) {
+            bucket.players.forEach(bounce);
+        }
+        log.info("Draining, {} waiting player/s sent away", bucketsByPlayer.size());
+        buckets.clear();
+        bucketsByPlayer.clear();
+    }
+
+    /**
+     * Forms the games whose countdown ran out.
+     *
+     * @return the nearest countdown deadline still running, or Long.MAX_VALUE if there is none
+     */
+    private long checkCountdowns(long now) {
+        long nextDeadline = Long.MAX_VALUE;
+        for (int i = buckets.size() - 1; i >= 0; i--) {
+            Bucket bucket = buckets.get(i);
+            if (bucket.countdownDeadline == 0) {
+                continue;
+            }
+            if (now - bucket.countdownDeadline >= 0) {
+                form(bucket);
+            } else {
+                nextDeadline = Math.min(nextDeadline, bucket.countdownDeadline);
+            }
+        }
+        return nextDeadline;
+    }
+
+    private void form(Bucket bucket) {
+        buckets.remove(bucket);
+        for (Player player : bucket.players) {
+            bucketsByPlayer.remove(player.getSessionId());
+        }
+        log.info("WE ARE FORMING THE GAME FROM LOBBY {} WITH {} PLAYERS! YOOHOO!", bucket.id, bucket.players.size());
+        formingPool.execute(() -> {
+            try {
+                gameFactory.accept(bucket.players);
+                gamesFormed.incrementAndGet();
+                recordLatencies(bucket.enqueuedNanos, System.nanoTime());
+            } catch (Exception e) {
+                log.error("Creating game from lobby {} failed", bucket.id, e);
+            }
+        });
+    }
+
+    private void recordLatencies(List<Long> enqueuedNanos, long startedNanos) {
+        synchronized (latencySamples) {
+            for (long enqueued : enqueuedNanos) {
+                gameMetrics.recordMatchmakingLatency(startedNanos - enqueued);
+                latencySamples[(int) (latencyCount++ % LATENCY_SAMPLES)] = startedNanos - enqueued;
+            }
+        }
+    }
+
+    public int getWaitingPlayers() {
+        return waitingPlayers;
+    }
+
+    public int getOpenBuckets() {
+        return openBuckets;
+    }
+
+    public int getRunningCountdowns() {
+        return runningCountdowns;
+    }
+
+    private int countRunningCountdowns() {
+        int running = 0;
+        for (Bucket bucket : buckets) {
+            if (bucket.countdownDeadline != 0) {
+                running++;
+            }
+        }
+        return running;
+    }
+
+    private static int indexOf(Bucket bucket, String playerId) {
+        for (int i = 0; i < bucket.players.size(); i++) {
+            if (bucket.players.get(i).getSessionId().equals(playerId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return waiting players, lobbies, countdowns and join to game start latency percentiles over the last games
+     */
+    public MatchmakingStatsDto getStats() {
+        long[] sorted;
+        synchronized (latencySamples) {
+            sorted = Arrays.copyOf(latencySamples, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+        Arrays.sort(sorted);
+        return new MatchmakingStatsDto(waitingPlayers, openBuckets, runningCountdowns, gamesFormed.get(),
+                percentileMs(sorted, 0.5), percentileMs(sorted, 0.9), percentileMs(sorted, 0.99),
+                percentileMs(sorted, 1));
+    }
+
+    private static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    private record Command(Player player, String leavingId, long enqueuedNanos) {
+    }
+
+    private static final class Bucket {
+        private static final AtomicInteger IDS = new AtomicInteger();
+
+        final int id = IDS.incrementAndGet();
+        final List<Player> players = new ArrayList<>();
+        final List<Long> enqueuedNanos = new ArrayList<>();
+        long countdownDeadline; // System.nanoTime(), 0 = no countdown running
+    }
+}
@@ -0,0 +1,35 @@
+package com.spongout.spongout.service;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * What Spring still buffers per STOMP session. The outbound channel hands a message to the session's
+ * {@link ConcurrentWebSocketSessionDecorator} and returns, even when the decorator only queued it behind a write
+ * that is still going on - so a frame reported written may still be waiting here, see
+ * {@link FrameWrittenInterceptor}.
+ */
+@Component
+public class SessionSendBuffers {
+
+    private final Map<String, ConcurrentWebSocketSessionDecorator> sessions = new ConcurrentHashMap<>();
+
+    public void register(ConcurrentWebSocketSessionDecorator session) {
+        sessions.put(session.getId(), session);
+    }
+
+    public void unregister(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    /**
+     * @return bytes queued in the session but not written to its socket yet, 0 for an unknown session
+     */
+    public int bufferedBytes(String sessionId) {
+        ConcurrentWebSocketSessionDecorator session = sessions.get(sessionId);
+        return session == null ? 0 : session.getBufferSize();
+    }
+}
@@ -0,0 +1,88 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.StartupConstants;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.monitoring.StartupProbe;
+import com.spongout.spongout.repository.GameRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Startup benchmark mode ({@code app.config.startup.benchmark}): as soon as the app is ready it starts synthetic games
+ * (bots pressing EXPEL at random, nobody connected), waits until {@link StartupProbe} has the warm-up curve, prints it
+ * as one {@code STARTUP} line and exits. scripts/startup-benchmark.sh runs it once per startup mode.
+ * <p>
+ * Checked at runtime and not with a condition on the bean, because AOT builds decide conditions at build time.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StartupBenchmark {
+
+    private static final Duration BOTS_EVERY = Duration.ofMillis(100);
+
+    private final StartupConstants startupConstants;
+    private final StartupProbe startupProbe;
+    private final GameInstancePool gameInstancePool;
+    private final GameRepository gameRepository;
+    private final GameExecutionService executionService;
+    private final TaskScheduler taskScheduler;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void run(ApplicationReadyEvent event) {
+        if (!startupConstants.isBenchmark()) {
+            return;
+        }
+        UUID[] games = new UUID[startupConstants.getBenchmarkGames()];
+        playRounds(games);
+        // bots knock each other out quickly, finished games get replaced until the curve is complete
+        ScheduledFuture<?> bots = taskScheduler.scheduleAtFixedRate(() -> playRounds(games), BOTS_EVERY);
+
+        startupProbe.warmedUp().thenAcceptAsync(stats -> {
+            bots.cancel(false);
+            StringBuilder curve = new StringBuilder();
+            stats.warmup().forEach(bucket -> curve.append(' ').append(bucket.meanUs()).append('/').append(bucket.p99Us()));
+            log.info("STARTUP mode={} ready_ms={} first_tick_ms={} warmup_mean/p99_us={}",
+                    stats.mode(), stats.readyMs(), stats.firstTickMs(), curve.toString().trim());
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }, task -> new Thread(task, "startup-benchmark").start()); // not on the loop thread that completed it
+    }
+
+    private void playRounds(UUID[] games) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int g = 0; g < games.length; g++) {
+            GameInstance game = games[g] != null ? gameRepository.findById(games[g]).orElse(null) : null;
+            if (game == null || game.getCurrentState() == GameInstance.GameState.ROUND_OVER) {
+                games[g] = startGame(g);
+            } else {
+                String bot = botId(g, random.nextInt(startupConstants.getBenchmarkPlayers()));
+                executionService.requestExpelAction(games[g], bot, -1);
+            }
+        }
+    }
+
+    private UUID startGame(int index) {
+        GameInstance game = gameInstancePool.acquire();
+        for (int p = 0; p < startupConstants.getBenchmarkPlayers(); p++) {
+            game.getPlayers().put(botId(index, p), new Player("bot" + p, botId(index, p)));
+        }
+        gameRepository.save(game);
+        executionService.startRound(game.getGameId());
+        return game.getGameId();
+    }
+
+    private static String botId(int game, int bot) {
+        return "benchmark-" + game + "-" + bot;
+    }
+}
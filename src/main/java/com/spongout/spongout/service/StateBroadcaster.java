@@ -0,0 +1,219 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.controller.dto.GameEventDto;
+import com.spongout.spongout.controller.dto.GameStateDto;
+import com.spongout.spongout.controller.dto.PlayerStateDto;
+import com.spongout.spongout.model.GameEventBuffer;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.SnapshotHistory;
+import com.spongout.spongout.model.WorldState;
+import com.spongout.spongout.monitoring.BroadcastEvent;
+import com.spongout.spongout.monitoring.GameMetrics;
+import com.spongout.spongout.monitoring.TickPhaseEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+/**
+ * Sends the world state of a game to its players, in every format somebody subscribed to. Either format only goes
+ * into the clients' {@link FrameOutbox}es here, {@link FrameSender} writes them out.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StateBroadcaster {
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final StateStreamRegistry streamRegistry;
+    private final StateFrameEncoder frameEncoder;
+    private final FrameSender frameSender;
+    private final GameConstants gameConstants;
+    private final GameMetrics gameMetrics;
+
+    /**
+     * Sends the next state frame together with the game's pending events, which are then cleared.
+     */
+    public void broadcast(GameInstance game) {
+        game.setBroadcastTick(game.getBroadcastTick() + 1);
+        BroadcastEvent broadcastEvent = new BroadcastEvent();
+        broadcastEvent.begin();
+        try {
+            StateStreamRegistry.GameStreams streams = streamRegistry.find(game.getGameId());
+            if (streams == null) {
+                log.trace("Nobody listens to game {} yet", game.getGameId());
+                return;
+            }
+
+            List<StateStreamRegistry.FrameSubscriber> jsonSubscribers = streams.getJsonSubscribers();
+            boolean json = !jsonSubscribers.isEmpty();
+            if (json) {
+                TickPhaseEvent phase = new TickPhaseEvent();
+                phase.begin();
+                GameStateDto snapshot = buildSnapshot(game);
+                phase.finish(TickPhaseEvent.Phase.BUILD_SNAPSHOT, game);
+
+                phase = new TickPhaseEvent();
+                phase.begin();
+                sendJson(game, snapshot, jsonSubscribers);
+                phase.finish(TickPhaseEvent.Phase.SEND_JSON, game);
+            }
+
+            List<StateStreamRegistry.FrameSubscriber> frameSubscribers = streams.getFrameSubscribers();
+            long binaryBytes = 0;
+            if (!frameSubscribers.isEmpty()) {
+                TickPhaseEvent phase = new TickPhaseEvent();
+                phase.begin();
+                binaryBytes = sendFrames(game, frameSubscribers);
+                phase.finish(TickPhaseEvent.Phase.ENCODE_FRAMES, game);
+            }
+            broadcastEvent.finish(game, frameSubscribers.size(), json, binaryBytes);
+        } finally {
+            game.getPendingEvents().clear();
+        }
+    }
+
+    /**
+     * The snapshot is serialized once, with the converter the broker would use, and the same bytes go into every
+     * JSON client's outbox. Like binary frames, plain state conflates for a client that doesn't keep up, state
+     * carrying events always goes out.
+     */
+    private void sendJson(GameInstance game, GameStateDto snapshot,
+                          List<StateStreamRegistry.FrameSubscriber> subscribers) {
+        Message<?> message = messagingTemplate.getMessageConverter().toMessage(snapshot, null);
+        if (message == null || !(message.getPayload() instanceof byte[] json)) {
+            log.warn("Can't serialize the state of game {}", game.getGameId());
+            return;
+        }
+        gameMetrics.recordStateBytes(GameMetrics.StateFormat.JSON, json.length); // what each client gets
+        long tick = game.getBroadcastTick();
+        boolean carriesEvents = !game.getPendingEvents().isEmpty();
+        for (StateStreamRegistry.FrameSubscriber subscriber : subscribers) {
+            FrameOutbox outbox = subscriber.getOutbox();
+            if (outbox.isClosed()) {
+                continue;
+            }
+            boolean keepsUp = true;
+            if (carriesEvents) {
+                keepsUp = outbox.offerOrdered(json);
+            } else if (outbox.wantsState(tick)) {
+                outbox.offerState(json);
+            }
+            if (keepsUp) {
+                frameSender.schedule(subscriber);
+            } else {
+                frameSender.giveUp(subscriber, "too many undelivered event frames");
+            }
+        }
+    }
+
+    /**
+     * Every binary client gets a delta against the last tick it acknowledged, or a full frame when it didn't
+     * acknowledge anything yet or its baseline already fell out of the history.
+     * <p>
+     * In rounds of {@code interest-min-players} or more every client gets its own delta, filtered by its area of
+     * interest - otherwise every client gets every player in every frame, which is O(players^2) bytes per tick.
+     * <p>
+     * Frames only go into the clients' outboxes here, {@link FrameSender} writes them out. A client that doesn't
+     * keep up gets plain state frames less often, frames carrying events always.
+     *
+     * @return bytes handed to the clients' outboxes
+     */
+    private long sendFrames(GameInstance game, List<StateStreamRegistry.FrameSubscriber> subscribers) {
+        frameEncoder.snapshot(game);
+        SnapshotHistory history = game.getSnapshotHistory();
+        WorldState world = game.getWorld();
+        long tick = game.getBroadcastTick();
+        boolean interestFiltering = world.getCount() >= gameConstants.getInterestMinPlayers();
+        boolean carriesEvents = !game.getPendingEvents().isEmpty();
+        byte[] fullFrame = null;
+        byte[] roster = null;
+        long sentBytes = 0;
+        for (StateStreamRegistry.FrameSubscriber subscriber : subscribers) {
+            FrameOutbox outbox = subscriber.getOutbox();
+            if (outbox.isClosed()) {
+                continue;
+            }
+            subscriber.beginFrame(tick);
+            boolean keepsUp = true;
+            if (subscriber.takeRosterResend()) {
+                roster = roster != null ? roster : frameEncoder.encodeRoster(game);
+                keepsUp = outbox.offerOrdered(roster);
+                sentBytes += roster.length;
+            }
+
+            if (carriesEvents || outbox.wantsState(tick)) {
+                long baseline = subscriber.getAckedTick();
+                byte[] frame;
+                if (interestFiltering) {
+                    frame = frameEncoder.encodeInterestDelta(game, baseline, subscriber.getInterestHistory(),
+                            world.slotOf(subscriber.getSessionId()));
+                } else {
+                    frame = history.cachedFrame(baseline);
+                    if (frame == null && baseline >= 0) {
+                        frame = frameEncoder.encodeDelta(game, baseline);
+                        if (frame != null) {
+                            history.cacheFrame(baseline, frame);
+                        }
+                    }
+                }
+                if (frame == null) {
+                    fullFrame = fullFrame != null ? fullFrame : frameEncoder.encodeState(game);
+                    frame = fullFrame;
+                    if (interestFiltering) {
+                        subscriber.getInterestHistory().recordAll(tick, world.getCount());
+                    }
+                }
+                sentBytes += frame.length;
+                gameMetrics.recordStateBytes(GameMetrics.StateFormat.BINARY, frame.length);
+                if (carriesEvents) {
+                    keepsUp &= outbox.offerOrdered(frame);
+                } else {
+                    outbox.offerState(frame);
+                }
+            }
+
+            if (keepsUp) {
+                frameSender.schedule(subscriber);
+            } else {
+                frameSender.giveUp(subscriber, "too many undelivered event frames");
+            }
+        }
+        return sentBytes;
+    }
+
+    /**
+     * Copies the world into the game's snapshot DTOs in place - no per-tick allocation.
+     * Package-private for SnapshotBenchmark.
+     */
+    static GameStateDto buildSnapshot(GameInstance game) {
+        WorldState world = game.getWorld();
+        GameStateDto snapshot = game.getStateSnapshot();
+        List<PlayerStateDto> playerDTOs = snapshot.getPlayers();
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            PlayerStateDto dto = playerDTOs.get(slot);
+            dto.setEliminated(!world.getAlive()[slot]);
+            dto.setNickname(world.getPlayers()[slot].getNickname());
+            dto.setX(world.getX()[slot]);
+            dto.setY(world.getY()[slot]);
+            dto.setSize(world.getSize()[slot]);
+            dto.setAngle(world.getAngle()[slot]);
+        }
+        snapshot.setArenaRadius(game.getCurrentArenaRadius());
+        snapshot.setTick(game.getBroadcastTick());
+
+        // events are rare, allocating their DTOs is fine
+        GameEventBuffer events = game.getPendingEvents();
+        snapshot.getEvents().clear();
+        for (int i = 0; i < events.size(); i++) {
+            int slot = events.slotAt(i);
+            String nickname = slot == GameEventBuffer.NO_SLOT ? null : world.getPlayers()[slot].getNickname();
+            snapshot.getEvents().add(new GameEventDto(events.typeAt(i), nickname));
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,348 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.model.GameEventBuffer;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.InterestHistory;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.SnapshotHistory;
+import com.spongout.spongout.model.WorldState;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes the compact binary frames sent to each binary client - as STOMP messages on the client's own
+ * {@code /user/queue/game.frame/{gameId}} subscription (sent straight to its session, see
+ * {@link StateStreamRegistry}), or as plain binary messages on the raw state socket.
+ * All numbers are big-endian (what a JS {@code DataView} reads by default), the decoder lives in {@code sketch.js}.
+ * <pre>
+ * STATE  u8 type=1 | u8 version | u32 tick | f32 arenaRadius | u16 count | count * player | events
+ *        player = u16 slot | u8 flags | (only if alive) i16 x | i16 y | u16 size | u16 angle
+ * ROSTER u8 type=2 | u8 version | u16 count | count * (u16 slot | u8 length | length bytes of UTF-8 nickname)
+ * DELTA  u8 type=3 | u8 version | u32 tick | u32 baselineTick | f32 arenaRadius | u16 count | u16 changed
+ *        | changed * (u16 slot | u8 mask | the fields set in mask, in x, y, size, angle order) | events
+ * events = u16 eventCount | eventCount * (u8 GameEventType ordinal | u16 slot, 0xFFFF = no player)
+ * </pre>
+ * The events are the ones that happened since the previous frame (see {@link GameEventBuffer}), every client gets
+ * them in whatever frame it gets for the tick.
+ * Positions and size are fixed point with {@link #POSITION_SCALE} steps per unit, angle is a full turn mapped
+ * onto 16 bits. Eliminated players only send their slot and flags - the client keeps their last position.
+ * Nicknames aren't in the state frame at all, they come once per round in the roster.
+ * <p>
+ * A DELTA frame only carries the players and fields whose quantized value differs from the baseline tick, which
+ * the client acknowledged. Slots not listed are the same as in the baseline.
+ * <p>
+ * In big rounds the delta is filtered per client by area of interest, see {@link #encodeInterestDelta}. Then a slot
+ * not listed means "nothing new for you", the client just keeps its last copy of that player.
+ */
+@Component
+@RequiredArgsConstructor
+public class StateFrameEncoder {
+
+    public static final byte FRAME_STATE = 1;
+    public static final byte FRAME_ROSTER = 2;
+    public static final byte FRAME_DELTA = 3;
+    public static final byte VERSION = 2;
+
+    public static final byte FLAG_ELIMINATED = 1;
+
+    public static final int DELTA_X = 0x01;
+    public static final int DELTA_Y = 0x02;
+    public static final int DELTA_SIZE = 0x04;
+    public static final int DELTA_ANGLE = 0x08;
+    public static final int DELTA_ELIMINATED = 0x80;
+
+    public static final double POSITION_SCALE = 16.0;
+    public static final double ANGLE_SCALE = 65536 / (2 * Math.PI);
+
+    private static final int STATE_HEADER_BYTES = 1 + 1 + 4 + 4 + 2;
+    private static final int DELTA_HEADER_BYTES = STATE_HEADER_BYTES + 4 + 2;
+    private static final int PLAYER_BYTES = 2 + 1 + 2 + 2 + 2 + 2;
+    private static final int EVENT_BYTES = 1 + 2;
+    private static final int MAX_NICKNAME_BYTES = 255;
+
+    private final GameConstants gameConstants;
+
+    /**
+     * Quantizes the current world into the game's {@link SnapshotHistory} under the current broadcast tick.
+     * Has to run once per broadcast, before {@link #encodeState} or {@link #encodeDelta}.
+     */
+    public void snapshot(GameInstance game) {
+        WorldState world = game.getWorld();
+        SnapshotHistory history = game.getSnapshotHistory();
+        int entry = history.record(game.getBroadcastTick(), world.getCount());
+        short[] x = history.getX()[entry];
+        short[] y = history.getY()[entry];
+        short[] size = history.getSize()[entry];
+        short[] angle = history.getAngle()[entry];
+        boolean[] eliminated = history.getEliminated()[entry];
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            eliminated[slot] = !world.getAlive()[slot];
+            if (eliminated[slot]) {
+                continue; // keeps whatever it was, eliminated players don't send positions
+            }
+            x[slot] = quantizePosition(world.getX()[slot]);
+            y[slot] = quantizePosition(world.getY()[slot]);
+            size[slot] = quantizeSize(world.getSize()[slot]);
+            angle[slot] = quantizeAngle(world.getAngle()[slot]);
+        }
+    }
+
+    /**
+     * @return the full state frame of the current tick, ready to send
+     */
+    public byte[] encodeState(GameInstance game) {
+        SnapshotHistory history = game.getSnapshotHistory();
+        int entry = history.indexOf(game.getBroadcastTick());
+        int count = history.getCounts()[entry];
+        ByteBuffer buffer = frameBuffer(game, STATE_HEADER_BYTES + count * PLAYER_BYTES + eventsBytes(game));
+        buffer.put(FRAME_STATE)
+                .put(VERSION)
+                .putInt((int) game.getBroadcastTick())
+                .putFloat((float) game.getCurrentArenaRadius())
+                .putShort((short) count);
+        for (int slot = 0; slot < count; slot++) {
+            buffer.putShort((short) slot);
+            if (history.getEliminated()[entry][slot]) {
+                buffer.put(FLAG_ELIMINATED);
+                continue;
+            }
+            buffer.put((byte) 0)
+                    .putShort(history.getX()[entry][slot])
+                    .putShort(history.getY()[entry][slot])
+                    .putShort(history.getSize()[entry][slot])
+                    .putShort(history.getAngle()[entry][slot]);
+        }
+        putEvents(buffer, game.getPendingEvents());
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * @return delta frame of the current tick against {@code baselineTick}, or null if that tick isn't in the history
+     * anymore and the client needs a full frame
+     */
+    public byte[] encodeDelta(GameInstance game, long baselineTick) {
+        SnapshotHistory history = game.getSnapshotHistory();
+        int entry = history.indexOf(game.getBroadcastTick());
+        int base = history.indexOf(baselineTick);
+        if (base < 0 || baselineTick >= game.getBroadcastTick()) {
+            return null;
+        }
+        int count = history.getCounts()[entry];
+        ByteBuffer buffer = frameBuffer(game, DELTA_HEADER_BYTES + count * PLAYER_BYTES + eventsBytes(game));
+        buffer.put(FRAME_DELTA)
+                .put(VERSION)
+                .putInt((int) game.getBroadcastTick())
+                .putInt((int) baselineTick)
+                .putFloat((float) game.getCurrentArenaRadius())
+                .putShort((short) count);
+        int changedPosition = buffer.position();
+        buffer.putShort((short) 0);
+
+        int changed = 0;
+        for (int slot = 0; slot < count; slot++) {
+            boolean eliminated = history.getEliminated()[entry][slot];
+            if (eliminated) {
+                if (!history.getEliminated()[base][slot]) {
+                    buffer.putShort((short) slot).put((byte) DELTA_ELIMINATED);
+                    changed++;
+                }
+                continue;
+            }
+            short x = history.getX()[entry][slot];
+            short y = history.getY()[entry][slot];
+            short size = history.getSize()[entry][slot];
+            short angle = history.getAngle()[entry][slot];
+            int mask = (x != history.getX()[base][slot] ? DELTA_X : 0)
+                    | (y != history.getY()[base][slot] ? DELTA_Y : 0)
+                    | (size != history.getSize()[base][slot] ? DELTA_SIZE : 0)
+                    | (angle != history.getAngle()[base][slot] ? DELTA_ANGLE : 0);
+            if (mask == 0) {
+                continue;
+            }
+            buffer.putShort((short) slot).put((byte) mask);
+            if ((mask & DELTA_X) != 0) {
+                buffer.putShort(x);
+            }
+            if ((mask & DELTA_Y) != 0) {
+                buffer.putShort(y);
+            }
+            if ((mask & DELTA_SIZE) != 0) {
+                buffer.putShort(size);
+            }
+            if ((mask & DELTA_ANGLE) != 0) {
+                buffer.putShort(angle);
+            }
+            changed++;
+        }
+        buffer.putShort(changedPosition, (short) changed);
+        putEvents(buffer, game.getPendingEvents());
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Delta frame of the current tick for one client, filtered by its area of interest. Players within
+     * {@code interest-radius-fraction} of the arena radius around the viewer go out every tick, the rest only when
+     * the client's copy is {@code far-update-every} ticks old or on their (by slot staggered) refresh tick.
+     * Eliminations always go out. Every slot is encoded against the snapshot the client's copy comes from,
+     * or with all its fields when that snapshot isn't in the history anymore. What the client holds after this
+     * frame is recorded into {@code interest}.
+     *
+     * @param viewerSlot slot of the client's own player, -1 if it has none (then everything is near)
+     * @return the frame, or null if the baseline isn't in the history anymore and the client needs a full frame
+     */
+    public byte[] encodeInterestDelta(GameInstance game, long baselineTick, InterestHistory interest, int viewerSlot) {
+        SnapshotHistory history = game.getSnapshotHistory();
+        long tick = game.getBroadcastTick();
+        int entry = history.indexOf(tick);
+        int[] sourcesAtBase = interest.find(baselineTick);
+        if (history.indexOf(baselineTick) < 0 || sourcesAtBase == null || baselineTick >= tick) {
+            return null;
+        }
+        int count = history.getCounts()[entry];
+        int[] sources = interest.record(tick, count); // can't be sourcesAtBase, the baseline is less than CAPACITY old
+
+        WorldState world = game.getWorld();
+        double radius = gameConstants.getInterestRadiusFraction() * game.getCurrentArenaRadius();
+        double radiusSquared = viewerSlot < 0 ? Double.POSITIVE_INFINITY : radius * radius;
+        double viewerX = viewerSlot < 0 ? 0 : world.getX()[viewerSlot];
+        double viewerY = viewerSlot < 0 ? 0 : world.getY()[viewerSlot];
+        int farUpdateEvery = Math.max(gameConstants.getFarUpdateEvery(), 1);
+
+        ByteBuffer buffer = frameBuffer(game, DELTA_HEADER_BYTES + count * PLAYER_BYTES + eventsBytes(game));
+        buffer.put(FRAME_DELTA)
+                .put(VERSION)
+                .putInt((int) tick)
+                .putInt((int) baselineTick)
+                .putFloat((float) game.getCurrentArenaRadius())
+                .putShort((short) count);
+        int changedPosition = buffer.position();
+        buffer.putShort((short) 0);
+
+        int changed = 0;
+        for (int slot = 0; slot < count; slot++) {
+            int source = slot < sourcesAtBase.length ? sourcesAtBase[slot] : InterestHistory.NOTHING;
+            int base = source == InterestHistory.NOTHING ? -1 : history.indexOf(source);
+            if (history.getEliminated()[entry][slot]) {
+                if (base >= 0 && history.getEliminated()[base][slot]) {
+                    sources[slot] = source; // already knows
+                    continue;
+                }
+                buffer.putShort((short) slot).put((byte) DELTA_ELIMINATED);
+                sources[slot] = (int) tick;
+                changed++;
+                continue;
+            }
+
+            double dx = world.getX()[slot] - viewerX;
+            double dy = world.getY()[slot] - viewerY;
+            boolean due = dx * dx + dy * dy <= radiusSquared
+                    || source == InterestHistory.NOTHING
+                    || tick - source >= farUpdateEvery
+                    || (tick + slot) % farUpdateEvery == 0;
+            if (!due) {
+                sources[slot] = source; // client keeps its older copy
+                continue;
+            }
+            sources[slot] = (int) tick;
+
+            short x = history.getX()[entry][slot];
+            short y = history.getY()[entry][slot];
+            short size = history.getSize()[entry][slot];
+            short angle = history.getAngle()[entry][slot];
+            int mask = base < 0 ? DELTA_X | DELTA_Y | DELTA_SIZE | DELTA_ANGLE
+                    : (x != history.getX()[base][slot] ? DELTA_X : 0)
+                    | (y != history.getY()[base][slot] ? DELTA_Y : 0)
+                    | (size != history.getSize()[base][slot] ? DELTA_SIZE : 0)
+                    | (angle != history.getAngle()[base][slot] ? DELTA_ANGLE : 0);
+            if (mask == 0) {
+                continue;
+            }
+            buffer.putShort((short) slot).put((byte) mask);
+            if ((mask & DELTA_X) != 0) {
+                buffer.putShort(x);
+            }
+            if ((mask & DELTA_Y) != 0) {
+                buffer.putShort(y);
+            }
+            if ((mask & DELTA_SIZE) != 0) {
+                buffer.putShort(size);
+            }
+            if ((mask & DELTA_ANGLE) != 0) {
+                buffer.putShort(angle);
+            }
+            changed++;
+        }
+        buffer.putShort(changedPosition, (short) changed);
+        putEvents(buffer, game.getPendingEvents());
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * @return the roster frame mapping slots to nicknames, sent once per round
+     */
+    public byte[] encodeRoster(GameInstance game) {
+        WorldState world = game.getWorld();
+        ByteBuffer buffer = ByteBuffer.allocate(4 + world.getCount() * (3 + MAX_NICKNAME_BYTES));
+        buffer.put(FRAME_ROSTER)
+                .put(VERSION)
+                .putShort((short) world.getCount());
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            Player player = world.getPlayers()[slot];
+            byte[] nickname = player.getNickname().getBytes(StandardCharsets.UTF_8);
+            int length = Math.min(nickname.length, MAX_NICKNAME_BYTES);
+            buffer.putShort((short) slot)
+                    .put((byte) length)
+                    .put(nickname, 0, length);
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static int eventsBytes(GameInstance game) {
+        return 2 + game.getPendingEvents().size() * EVENT_BYTES;
+    }
+
+    private static void putEvents(ByteBuffer buffer, GameEventBuffer events) {
+        buffer.putShort((short) events.size());
+        for (int i = 0; i < events.size(); i++) {
+            buffer.put((byte) events.typeAt(i).ordinal())
+                    .putShort((short) events.slotAt(i)); // NO_SLOT (-1) becomes 0xFFFF
+        }
+    }
+
+    static short quantizePosition(double value) {
+        return (short) clamp(Math.round(value * POSITION_SCALE), Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    static short quantizeSize(double value) {
+        return (short) clamp(Math.round(value * POSITION_SCALE), 0, 0xFFFF);
+    }
+
+    static short quantizeAngle(double value) {
+        double turn = value % (2 * Math.PI);
+        if (turn < 0) {
+            turn += 2 * Math.PI;
+        }
+        return (short) ((long) (turn * ANGLE_SCALE) & 0xFFFF);
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * Reuses the game's scratch buffer, growing it when a bigger round needs more room.
+     */
+    private static ByteBuffer frameBuffer(GameInstance game, int bytes) {
+        ByteBuffer buffer = game.getFrameBuffer();
+        if (buffer == null || buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocate(bytes);
+            game.setFrameBuffer(buffer);
+        }
+        return buffer.clear();
+    }
+}
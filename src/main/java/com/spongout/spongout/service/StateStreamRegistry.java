@@ -0,0 +1,382 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.WebSocketConstants;
+import com.spongout.spongout.model.InterestHistory;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of who listens to the state of which game and in which format.
+ * <p>
+ * Clients pick the format when they subscribe: {@code /topic/game.state/{gameId}} gets the JSON state,
+ * {@code /user/queue/game.frame/{gameId}} gets binary frames (see {@link StateFrameEncoder}) encoded for that client
+ * against the last tick it acknowledged. The tick only encodes formats somebody is actually subscribed to.
+ * Either way every subscriber has its own {@link FrameOutbox}: JSON state doesn't go through the broker, it is sent
+ * to each subscribed session directly, so a slow JSON client conflates like a binary one.
+ * <p>
+ * Binary frames can also skip STOMP and the broker completely: the client opens a plain WebSocket on
+ * {@code /ws/state?token=...} with the stream token it got in its {@code GameStartDto}, see {@code StateSocketHandler}.
+ */
+@Slf4j
+@Component
+public class StateStreamRegistry {
+
+    public enum Format {
+        JSON,
+        BINARY
+    }
+
+    /** How binary frames reach a client. */
+    public enum Transport {
+        STOMP,
+        RAW_SOCKET
+    }
+
+    /**
+     * Outbound path of one client. {@link FrameSender} hands it one frame at a time and waits for the frame
+     * to be written before the next one, so a slow client's frames wait in its {@link FrameOutbox}, not here.
+     */
+    @FunctionalInterface
+    public interface FrameSink {
+        /**
+         * Starts writing the frame. {@code written} must run exactly once, when the frame is on the client's socket
+         * (or lost), from whichever thread finished the write.
+         */
+        void send(byte[] frame, Runnable written) throws IOException;
+
+        /**
+         * @return bytes the transport still holds for the client although their {@code written} already ran
+         */
+        default int bufferedBytes() {
+            return 0;
+        }
+
+        /**
+         * Gives up on the client, e.g. because it can't keep up even with events.
+         */
+        default void close() {
+        }
+    }
+
+    /** What a stream token grants: the binary state of one game, for one player. */
+    public record StreamTicket(UUID gameId, String sessionId) {
+    }
+
+    /**
+     * The roster goes out with the next few frames instead of just one, so a client that wasn't listening yet
+     * for the first one (e.g. set up its frame handler a moment after subscribing) still gets it.
+     */
+    private static final int ROSTER_RESENDS = 3;
+
+    private final MessageChannel clientOutboundChannel;
+    private final SessionSendBuffers sessionSendBuffers;
+
+    private final Map<UUID, GameStreams> streamsByGame = new ConcurrentHashMap<>();
+
+    /** sessionId -> (subscriptionId -> subscription), to resolve unsubscribes and disconnects. */
+    private final Map<String, Map<String, Subscription>> subscriptionsBySession = new ConcurrentHashMap<>();
+
+    private final Map<String, StreamTicket> ticketsByToken = new ConcurrentHashMap<>();
+    private final Map<String, String> tokensBySession = new ConcurrentHashMap<>();
+
+    public StateStreamRegistry(@Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+                               SessionSendBuffers sessionSendBuffers) {
+        this.clientOutboundChannel = clientOutboundChannel;
+        this.sessionSendBuffers = sessionSendBuffers;
+    }
+
+    private record Subscription(UUID gameId, Format format, FrameSubscriber frameSubscriber) {
+    }
+
+    /**
+     * One client receiving the state. The tick thread doesn't write to the client directly, it puts frames
+     * into the client's {@link FrameOutbox} and a {@link FrameSender} thread writes them out.
+     */
+    @Getter
+    public static class FrameSubscriber {
+        private final String sessionId; // STOMP session of the player
+        private final Format format;
+        private final Transport transport;
+        private final FrameSink sink;
+        /** Last broadcast tick the client confirmed, the baseline for its delta frames. -1 = none yet. */
+        private volatile long ackedTick = -1;
+        private final AtomicInteger rosterResends = new AtomicInteger(ROSTER_RESENDS);
+        /** What this client got in its last frames, for area of interest filtering. Tick thread only. */
+        private final InterestHistory interestHistory = new InterestHistory();
+        private final FrameOutbox outbox = new FrameOutbox();
+        /** Tick of the last frame encoded for this client. Tick thread only. */
+        private long lastFrameTick = -1;
+
+        public FrameSubscriber(String sessionId, Transport transport, FrameSink sink) {
+            this(sessionId, Format.BINARY, transport, sink);
+        }
+
+        public FrameSubscriber(String sessionId, Format format, Transport transport, FrameSink sink) {
+            this.sessionId = sessionId;
+            this.format = format;
+            this.transport = transport;
+            this.sink = sink;
+        }
+
+        /**
+         * Records that the client got the frame of {@code tick}. Acks can come out of order, only newer ones count.
+         */
+        public void acknowledge(long tick) {
+            if (tick > ackedTick) {
+                ackedTick = tick;
+            }
+        }
+
+        /**
+         * Called by the tick before encoding frames of {@code tick}. When the game's ticks started over (new round,
+         * reused game) acks and interest from before point into a history that's gone - or worse, at new snapshots
+         * with the same tick numbers - so the client starts over from a full frame.
+         */
+        public void beginFrame(long tick) {
+            if (tick <= lastFrameTick || ackedTick > tick) {
+                ackedTick = -1;
+                interestHistory.clear();
+            }
+            lastFrameTick = tick;
+        }
+
+        /**
+         * @return true if the roster should go out to this client with this frame
+         */
+        public boolean takeRosterResend() {
+            return rosterResends.get() > 0 && rosterResends.getAndUpdate(left -> Math.max(left - 1, 0)) > 0;
+        }
+    }
+
+    /**
+     * Subscribers of one game.
+     */
+    @Getter
+    public static class GameStreams {
+        private final List<FrameSubscriber> jsonSubscribers = new CopyOnWriteArrayList<>();
+        private final List<FrameSubscriber> frameSubscribers = new CopyOnWriteArrayList<>();
+
+        private boolean isEmpty() {
+            return jsonSubscribers.isEmpty() && frameSubscribers.isEmpty();
+        }
+
+        private List<FrameSubscriber> of(Format format) {
+            return format == Format.JSON ? jsonSubscribers : frameSubscribers;
+        }
+    }
+
+    /**
+     * @return subscribers of the game, or null if nobody listens to it
+     */
+    public GameStreams find(UUID gameId) {
+        return streamsByGame.get(gameId);
+    }
+
+    /**
+     * Makes the roster go out again, e.g. because a new round started.
+     */
+    public void requestRoster(UUID gameId) {
+        GameStreams streams = streamsByGame.get(gameId);
+        if (streams != null) {
+            streams.frameSubscribers.forEach(subscriber -> subscriber.rosterResends.set(ROSTER_RESENDS));
+        }
+    }
+
+    /**
+     * Creates the token a player uses to open the raw state socket of his game.
+     */
+    public String issueStreamToken(UUID gameId, String sessionId) {
+        String token = UUID.randomUUID().toString();
+        ticketsByToken.put(token, new StreamTicket(gameId, sessionId));
+        String previous = tokensBySession.put(sessionId, token);
+        if (previous != null) {
+            ticketsByToken.remove(previous);
+        }
+        return token;
+    }
+
+    /**
+     * @return what the token grants, or null if it's unknown or its player is gone
+     */
+    public StreamTicket redeemStreamToken(String token) {
+        return token == null ? null : ticketsByToken.get(token);
+    }
+
+    /**
+     * Adds a binary client that isn't a STOMP subscription (raw state socket).
+     */
+    public void addFrameSubscriber(UUID gameId, FrameSubscriber subscriber) {
+        streamsByGame.computeIfAbsent(gameId, id -> new GameStreams()).frameSubscribers.add(subscriber);
+        log.debug("Session {} streams binary state of game {} over {}", subscriber.sessionId, gameId, subscriber.transport);
+    }
+
+    public void removeFrameSubscriber(UUID gameId, FrameSubscriber subscriber) {
+        release(new Subscription(gameId, Format.BINARY, subscriber));
+    }
+
+    /**
+     * Forgets everything about a reaped game: its subscribers (raw sockets get closed, the game is over) and the
+     * stream tokens nobody redeemed.
+     */
+    public void releaseGame(UUID gameId) {
+        GameStreams streams = streamsByGame.remove(gameId);
+        if (streams != null) {
+            streams.jsonSubscribers.forEach(subscriber -> subscriber.getOutbox().close());
+            for (FrameSubscriber subscriber : streams.frameSubscribers) {
+                subscriber.getOutbox().close();
+                if (subscriber.transport == Transport.RAW_SOCKET) {
+                    subscriber.sink.close();
+                }
+            }
+        }
+        subscriptionsBySession.values().forEach(subscriptions ->
+                subscriptions.values().removeIf(subscription -> subscription.gameId().equals(gameId)));
+        ticketsByToken.entrySet().removeIf(ticket -> {
+            if (!ticket.getValue().gameId().equals(gameId)) {
+                return false;
+            }
+            tokensBySession.remove(ticket.getValue().sessionId(), ticket.getKey());
+            return true;
+        });
+    }
+
+    /**
+     * Records that the client got the frame of {@code tick}, so the next ones can be deltas against it.
+     */
+    public void acknowledge(UUID gameId, String sessionId, long tick) {
+        GameStreams streams = streamsByGame.get(gameId);
+        if (streams == null) {
+            return;
+        }
+        for (FrameSubscriber subscriber : streams.frameSubscribers) {
+            if (subscriber.sessionId.equals(sessionId) && subscriber.transport == Transport.STOMP) {
+                subscriber.acknowledge(tick);
+            }
+        }
+    }
+
+    @EventListener
+    public void handleSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        String sessionId = accessor.getSessionId();
+        String destination = accessor.getDestination();
+        if (sessionId == null || destination == null || accessor.getSubscriptionId() == null) {
+            return;
+        }
+
+        Subscription subscription;
+        if (destination.startsWith(WebSocketConstants.GAME_STATE_TOPIC)) {
+            UUID gameId = parseGameId(destination, WebSocketConstants.GAME_STATE_TOPIC);
+            subscription = gameId == null ? null : new Subscription(gameId, Format.JSON,
+                    stompSubscriber(sessionId, Format.JSON, accessor.getSubscriptionId(), destination));
+        } else if (destination.startsWith(WebSocketConstants.USER_GAME_FRAME_QUEUE)) {
+            UUID gameId = parseGameId(destination, WebSocketConstants.USER_GAME_FRAME_QUEUE);
+            subscription = gameId == null ? null : new Subscription(gameId, Format.BINARY,
+                    stompSubscriber(sessionId, Format.BINARY, accessor.getSubscriptionId(), destination));
+        } else {
+            return;
+        }
+        if (subscription == null) {
+            return;
+        }
+
+        subscriptionsBySession.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>())
+                .put(accessor.getSubscriptionId(), subscription);
+        streamsByGame.compute(subscription.gameId(), (id, streams) -> {
+            streams = streams != null ? streams : new GameStreams();
+            streams.of(subscription.format()).add(subscription.frameSubscriber());
+            return streams;
+        });
+        log.debug("Session {} subscribed to {} state of game {}", sessionId, subscription.format(), subscription.gameId());
+    }
+
+    @EventListener
+    public void handleUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor accessor = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, Subscription> subscriptions = subscriptionsBySession.get(accessor.getSessionId());
+        if (subscriptions != null && accessor.getSubscriptionId() != null) {
+            release(subscriptions.remove(accessor.getSubscriptionId()));
+        }
+    }
+
+    @EventListener
+    public void handleDisconnect(SessionDisconnectEvent event) {
+        Map<String, Subscription> subscriptions = subscriptionsBySession.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::release);
+        }
+        String token = tokensBySession.remove(event.getSessionId());
+        if (token != null) {
+            ticketsByToken.remove(token);
+        }
+    }
+
+    /**
+     * Frames go straight to the session's outbound channel instead of through the broker: they're for exactly this
+     * subscription anyway, and the channel tells when a frame has been handed to the session, see
+     * {@link FrameWrittenInterceptor}. What the session still buffers after that counts as the client's backlog.
+     */
+    private FrameSubscriber stompSubscriber(String sessionId, Format format, String subscriptionId, String destination) {
+        return new FrameSubscriber(sessionId, format, Transport.STOMP, new FrameSink() {
+            @Override
+            public void send(byte[] frame, Runnable written) {
+                SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+                headers.setSessionId(sessionId);
+                headers.setSubscriptionId(subscriptionId);
+                headers.setDestination(destination);
+                headers.setContentType(format == Format.JSON
+                        ? MimeTypeUtils.APPLICATION_JSON
+                        : MimeTypeUtils.APPLICATION_OCTET_STREAM);
+                headers.setHeader(FrameWrittenInterceptor.WRITTEN_HEADER, written);
+                clientOutboundChannel.send(MessageBuilder.createMessage(frame, headers.getMessageHeaders()));
+            }
+
+            @Override
+            public int bufferedBytes() {
+                return sessionSendBuffers.bufferedBytes(sessionId);
+            }
+        });
+    }
+
+    private void release(Subscription subscription) {
+        if (subscription == null) {
+            return;
+        }
+        if (subscription.frameSubscriber() != null) {
+            subscription.frameSubscriber().getOutbox().close();
+        }
+        streamsByGame.computeIfPresent(subscription.gameId(), (id, streams) -> {
+            streams.of(subscription.format()).remove(subscription.frameSubscriber());
+            return streams.isEmpty() ? null : streams;
+        });
+    }
+
+    private static UUID parseGameId(String destination, String prefix) {
+        try {
+            return UUID.fromString(destination.substring(prefix.length()));
+        } catch (IllegalArgumentException e) {
+            log.warn("Subscription to state of unknown game id: {}", destination);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watchdog for the game loop shards.
+ * <ul>
+ *     <li>A shard that didn't start a frame for {@code tick-stall-ms} is flagged as stalled and its other games are
+ *     moved to healthy shards, so one stuck tick doesn't freeze every game next to it.</li>
+ *     <li>A shard that stays overloaded degrades step by step: first its games broadcast at half rate
+ *     ({@link #DEGRADED_BROADCAST}), then they also simulate at half rate ({@link #DEGRADED_SIMULATION}).
+ *     When it calms down it climbs back the same way.</li>
+ * </ul>
+ * Ticks that throw or go over budget are handled by the shards themselves, see {@link GameLoopRuntime}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TickSupervisor {
+
+    public static final int DEGRADED_BROADCAST = 1;
+    public static final int DEGRADED_SIMULATION = 2;
+
+    private static final long SUPERVISE_EVERY_MS = 250;
+
+    private final GameLoopRuntime gameLoopRuntime;
+    private final GameConstants gameConstants;
+    private final TaskScheduler taskScheduler;
+
+    @PostConstruct
+    void start() {
+        taskScheduler.scheduleAtFixedRate(this::supervise, Duration.ofMillis(SUPERVISE_EVERY_MS));
+    }
+
+    void supervise() {
+        // an exception would cancel the periodic task and leave the loop without a watchdog
+        try {
+            long now = System.nanoTime();
+            for (GameLoopRuntime.Shard shard : gameLoopRuntime.shards()) {
+                checkStall(shard, now);
+                adjustDegradation(shard, now);
+            }
+        } catch (Exception e) {
+            log.error("Supervising the game loop shards failed", e);
+        }
+    }
+
+    private void checkStall(GameLoopRuntime.Shard shard, long now) {
+        boolean silent = now - shard.heartbeatNanos > TimeUnit.MILLISECONDS.toNanos(gameConstants.getTickStallMs());
+        if (silent) {
+            if (!shard.stalled) {
+                shard.stalled = true;
+                log.error("Game loop shard {} didn't tick for over {} ms, moving its games away",
+                        shard.index, gameConstants.getTickStallMs());
+            }
+            // keep evacuating, games could have been added right before it got stuck
+            gameLoopRuntime.evacuate(shard);
+        } else if (shard.stalled) {
+            shard.stalled = false;
+            log.warn("Game loop shard {} is ticking again", shard.index);
+        }
+    }
+
+    private void adjustDegradation(GameLoopRuntime.Shard shard, long now) {
+        double utilization = shard.utilization;
+        if (utilization > gameConstants.getOverloadUtilization()) {
+            shard.calmSinceNanos = 0;
+            if (shard.overloadedSinceNanos == 0) {
+                shard.overloadedSinceNanos = now;
+            } else if (shard.degradationLevel < DEGRADED_SIMULATION
+                    && now - shard.overloadedSinceNanos > TimeUnit.MILLISECONDS.toNanos(gameConstants.getDegradeAfterMs())) {
+                shard.degradationLevel++;
+                shard.overloadedSinceNanos = now; // the next step needs another full period of overload
+                log.warn("Game loop shard {} overloaded (utilization {}), degrading to level {}",
+                        shard.index, String.format("%.2f", utilization), shard.degradationLevel);
+            }
+        } else if (utilization < gameConstants.getRecoverUtilization()) {
+            shard.overloadedSinceNanos = 0;
+            if (shard.calmSinceNanos == 0) {
+                shard.calmSinceNanos = now;
+            } else if (shard.degradationLevel > 0
+                    && now - shard.calmSinceNanos > TimeUnit.MILLISECONDS.toNanos(gameConstants.getRecoverAfterMs())) {
+                shard.degradationLevel--;
+                shard.calmSinceNanos = now;
+                log.info("Game loop shard {} recovered (utilization {}), back to level {}",
+                        shard.index, String.format("%.2f", utilization), shard.degradationLevel);
+            }
+        } else {
+            // in between - hold the current level
+            shard.overloadedSinceNanos = 0;
+            shard.calmSinceNanos = 0;
+        }
+    }
+}
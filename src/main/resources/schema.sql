@@ -0,0 +1,12 @@
+-- Player stats behind the leaderboard, see PlayerStatsRepository. Players are known by nickname only,
+-- there are no accounts.
+CREATE TABLE IF NOT EXISTS player_stats (
+    nickname     VARCHAR(64) PRIMARY KEY,
+    wins         BIGINT    NOT NULL,
+    rounds       BIGINT    NOT NULL,
+    eliminations BIGINT    NOT NULL,
+    score        BIGINT    NOT NULL,
+    updated_at   TIMESTAMP NOT NULL
+);
+-- the leaderboard loads the top at startup
+CREATE INDEX IF NOT EXISTS player_stats_ranking ON player_stats (score DESC, wins DESC, nickname);
@@ -36,6 +36,38 @@ var winnerInfo = null;
 var latestGameState = null;
 var latestGameEvent = null;
 
+// State format, picked when subscribing: compact binary frames by default, `?format=json` for the old JSON.
+const useBinaryState = new URLSearchParams(window.location.search).get("format") !== "json";
+// Binary frames come over a plain WebSocket next to STOMP, `?transport=stomp` keeps them on the broker instead.
+const useStateSocket = new URLSearchParams(window.location.search).get("transport") !== "stomp";
+const DEFAULT_BROKER_URL = 'ws://localhost:8080/ws';
+var brokerUrl = DEFAULT_BROKER_URL; // changes when a cluster hands us over to the node running our game
+var stateSocket = null;
+
+// Has to match StateFrameEncoder on the server
+const FRAME_STATE = 1;
+const FRAME_ROSTER = 2;
+const FRAME_DELTA = 3;
+const FLAG_ELIMINATED = 1;
+const DELTA_X = 0x01, DELTA_Y = 0x02, DELTA_SIZE = 0x04, DELTA_ANGLE = 0x08, DELTA_ELIMINATED = 0x80;
+const POSITION_SCALE = 16;
+const ANGLE_SCALE = 65536 / (2 * Math.PI);
+// GameEventType in declaration order, events in frames carry the ordinal
+const EVENT_TYPES = ['PLAYER_JOINED_LOBBY', 'LOBBY_COUNTDOWN_STARTED', 'LOBBY_COUNTDOWN_CANCELLED', 'PLAYER_JOINED_GAME',
+    'PLAYER_LEFT_GAME', 'GAME_READY', 'PLAYER_ELIMINATED', 'SUDDEN_DEATH', 'ROUND_WINNER', 'ROUND_ABORTED'];
+const NO_SLOT = 0xFFFF;
+
+var roster = {}; // slot -> nickname, comes once per round
+var frameHistory = new Map(); // tick -> decoded players, baselines for delta frames
+const FRAME_HISTORY_SIZE = 64; // more than the server keeps, so we always have what we acked
+const ACK_INTERVAL_MS = 50;
+var lastAckAt = 0;
+
+// RTT from a ping every few seconds, smoothed
+const PING_INTERVAL_MS = 2000;
+var rttMs = null;
+var pingTimer = null;
+
 let spongeImg;
 let googleyEyes;
 
@@ -155,6 +187,16 @@ function draw() {
     if (winnerInfo) {
         drawStatusText(winnerInfo.message );
     }
+
+    if (rttMs !== null) {
+        push();
+        textAlign(LEFT, TOP);
+        textSize(12);
+        fill(200);
+        noStroke();
+        text(`ping ${Math.round(rttMs)} ms`, 10, 10);
+        pop();
+    }
 }
 
 
@@ -204,23 +246,31 @@ function keyPressed() {
     if (key === ' ' && client && client.active && gameId) {
         client.publish({
             destination: `/app/game.action/${gameId}`,
-            body: JSON.stringify({ action: 'EXPEL' })
+            // the tick on screen, so the server launches at the angle we see (lag compensation)
+            body: JSON.stringify({ action: 'EXPEL', clientTick: latestGameState ? latestGameState.tick : null })
         });
     }
 }
 
-function initNetworking(nickname) {
+// handoffToken set = we were handed over to this server, bind to the game instead of looking for one
+function initNetworking(nickname, handoffToken = null, reconnectDelay = 5000) {
     client = new StompJs.Client({
-        brokerURL: 'ws://localhost:8080/ws',
-        reconnectDelay: 5000,
+        brokerURL: brokerUrl,
+        reconnectDelay: reconnectDelay,
         debug: msg => console.log('[STOMP]', msg),
         onConnect: (frame) => {
             isJoining = false;
             client.subscribe('/user/queue/private', onPrivateMessage);
-            client.publish({
-                destination: '/app/game.find',
-                body: JSON.stringify({ nickname: nickname })
-            });
+            client.subscribe('/user/queue/clock', onClockSync);
+            pingTimer = pingTimer || setInterval(sendPing, PING_INTERVAL_MS);
+            if (handoffToken) {
+                client.publish({ destination: '/app/game.bind', body: JSON.stringify({ handoffToken: handoffToken }) });
+            } else {
+                client.publish({
+                    destination: '/app/game.find',
+                    body: JSON.stringify({ nickname: nickname })
+                });
+            }
         },
         onStompError: (frame) => {
             console.error('Broker reported error: ' + frame.headers['message']);
@@ -230,50 +280,198 @@ function initNetworking(nickname) {
     client.activate();
 }
 
+function sendPing() {
+    if (client && client.connected) {
+        client.publish({ destination: '/app/game.ping', body: JSON.stringify({ clientTime: Date.now() }) });
+    }
+}
+
+function onClockSync(message) {
+    const sync = JSON.parse(message.body);
+    // echoed right away, the server measures our RTT from it to bound the lag compensation
+    client.publish({ destination: '/app/game.pong', body: JSON.stringify(sync) });
+    const rtt = Date.now() - sync.clientTime;
+    rttMs = rttMs === null ? rtt : rttMs * 0.8 + rtt * 0.2;
+}
+
 function onPrivateMessage(message) {
     const data = JSON.parse(message.body);
+    if (data.retryAfterMs !== undefined) {
+        // server is being redeployed: come back to the next one, into our game if we were in one
+        console.log(`Server going away, reconnecting in ${data.retryAfterMs} ms`);
+        isJoining = true;
+        if (data.serverUrl) {
+            brokerUrl = data.serverUrl;
+        }
+        // the new server may take a moment to come up, keep knocking often
+        client.deactivate().then(() => setTimeout(() => initNetworking(myNickname, data.handoffToken, 500), data.retryAfterMs));
+        return;
+    }
+    if (data.handoffToken) {
+        // cluster: the game runs on another node, move over there
+        console.log(`Game ${data.gameId} runs on ${data.serverUrl}, reconnecting`);
+        brokerUrl = data.serverUrl;
+        client.deactivate().then(() => initNetworking(myNickname, data.handoffToken));
+        return;
+    }
     if (data.gameId) {
         gameId = data.gameId;
+        frameHistory.clear(); // ticks start over in every game, old frames must not pass for baselines
         // console.log(`Joined game! Game ID: ${gameId}`);
 
-        client.subscribe(`/topic/game.state/${gameId}`, (message) => {
+        if (useBinaryState && useStateSocket) {
+            openStateSocket(data.streamToken);
+        } else if (useBinaryState) {
+            client.subscribe(`/user/queue/game.frame/${gameId}`, (message) => {
+                const tick = decodeFrame(message.binaryBody);
+                if (tick !== null && Date.now() - lastAckAt >= ACK_INTERVAL_MS) {
+                    lastAckAt = Date.now();
+                    client.publish({
+                        destination: `/app/game.ack/${gameId}`,
+                        body: JSON.stringify({ tick: tick })
+                    });
+                }
+            });
+        } else client.subscribe(`/topic/game.state/${gameId}`, (message) => {
             latestGameState = JSON.parse(message.body);
-
-            // if (latestGameState.players) {
-            //     latestGameState.players.forEach(p => {
-            //         if (!playerStatus[p.nickname]) {
-            //             playerStatus[p.nickname] = { isAlive: true };
-            //         }
-            //     });
-            // }
+            latestGameState.events.forEach(handleGameEvent);
         });
 
-        client.subscribe(`/topic/game.events/${gameId}`, (message) => {
-            latestGameEvent = JSON.parse(message.body);
-            console.log("latestGameEvent: ",latestGameEvent);
-            
-
-            if (latestGameEvent.eventType === 'PLAYER_ELIMINATED') {
-                const eliminatedPlayerNickname = latestGameEvent.message;
-
-                if (eliminatedPlayerNickname === myNickname) {
-                    floatingTexts.push(new FloatingText("You were eliminated!", width / 2, height / 2, 'local'));
-                } else {
-                    const player = latestGameState.players.find(p => p.nickname === eliminatedPlayerNickname);
-                    if (player) {
-                    const screenX = parseFloat(player.x) + width / 2;
-                    const screenY = parseFloat(player.y) + height / 2;
-                    floatingTexts.push(new FloatingText(`${eliminatedPlayerNickname} eliminated!`, screenX, screenY, 'remote'));
-                }
-            }
-        } else if (latestGameEvent.eventType === 'ROUND_WINNER') {
-            const winnerNickname = latestGameEvent.message;
-            if (winnerNickname === myNickname) {
-                winnerInfo = { message: "Congratulations!! You Won!" };
-            } else {
-                winnerInfo = { message: `${winnerNickname} wins!, better luck next time` };
+        // only for what can't wait for a state frame (e.g. the round crashing), the rest comes with the state
+        client.subscribe(`/topic/game.events/${gameId}`, (message) => handleGameEvent(JSON.parse(message.body)));
+    }
+}
+
+// Events come inside the state frame of the tick they happened in, so latestGameState is already that tick.
+function handleGameEvent(event) {
+    latestGameEvent = event;
+    console.log("latestGameEvent: ", latestGameEvent);
+
+    if (latestGameEvent.eventType === 'PLAYER_ELIMINATED') {
+        const eliminatedPlayerNickname = latestGameEvent.message;
+
+        if (eliminatedPlayerNickname === myNickname) {
+            floatingTexts.push(new FloatingText("You were eliminated!", width / 2, height / 2, 'local'));
+        } else {
+            const player = latestGameState.players.find(p => p.nickname === eliminatedPlayerNickname);
+            if (player) {
+                const screenX = parseFloat(player.x) + width / 2;
+                const screenY = parseFloat(player.y) + height / 2;
+                floatingTexts.push(new FloatingText(`${eliminatedPlayerNickname} eliminated!`, screenX, screenY, 'remote'));
             }
         }
-    });
+    } else if (latestGameEvent.eventType === 'ROUND_WINNER') {
+        const winnerNickname = latestGameEvent.message;
+        if (winnerNickname === myNickname) {
+            winnerInfo = { message: "Congratulations!! You Won!" };
+        } else {
+            winnerInfo = { message: `${winnerNickname} wins!, better luck next time` };
+        }
+    } else if (latestGameEvent.eventType === 'ROUND_ABORTED') {
+        winnerInfo = { message: "Round crashed, sorry! Hit F5 to play again" };
+    }
+}
+
+function openStateSocket(streamToken) {
+    if (stateSocket) {
+        stateSocket.close();
+    }
+    // state socket lives next to the STOMP endpoint of the server running the game
+    stateSocket = new WebSocket(`${brokerUrl}/state?token=${encodeURIComponent(streamToken)}`);
+    stateSocket.binaryType = 'arraybuffer';
+    stateSocket.onmessage = (event) => {
+        const tick = decodeFrame(new Uint8Array(event.data));
+        if (tick !== null && Date.now() - lastAckAt >= ACK_INTERVAL_MS) {
+            lastAckAt = Date.now();
+            const ack = new DataView(new ArrayBuffer(4));
+            ack.setUint32(0, tick);
+            stateSocket.send(ack.buffer);
+        }
+    };
+    stateSocket.onclose = (event) => console.log('[STATE] socket closed', event.code);
 }
+
+// Returns the tick of a decoded state frame (to acknowledge), null for anything else.
+function decodeFrame(bytes) {
+    const view = new DataView(bytes.buffer, bytes.byteOffset, bytes.byteLength);
+    const type = view.getUint8(0);
+    if (type === FRAME_ROSTER) {
+        const count = view.getUint16(2);
+        let offset = 4;
+        const decoder = new TextDecoder();
+        for (let i = 0; i < count; i++) {
+            const slot = view.getUint16(offset);
+            const length = view.getUint8(offset + 2);
+            roster[slot] = decoder.decode(bytes.subarray(offset + 3, offset + 3 + length));
+            offset += 3 + length;
+        }
+        frameHistory.forEach(players => players.forEach((player, slot) => player.nickname = roster[slot]));
+        return null;
+    }
+
+    let tick, arenaRadius, players, offset;
+    if (type === FRAME_STATE) {
+        tick = view.getUint32(2);
+        arenaRadius = view.getFloat32(6);
+        const count = view.getUint16(10);
+        offset = 12;
+        const previous = latestGameState ? latestGameState.players : [];
+        players = [];
+        for (let i = 0; i < count; i++) {
+            const slot = view.getUint16(offset);
+            const flags = view.getUint8(offset + 2);
+            offset += 3;
+            const player = previous[slot] ? { ...previous[slot] } : { nickname: roster[slot] || '?', x: 0, y: 0, size: 0, angle: 0 };
+            player.eliminated = (flags & FLAG_ELIMINATED) !== 0;
+            if (!player.eliminated) {
+                player.x = view.getInt16(offset) / POSITION_SCALE;
+                player.y = view.getInt16(offset + 2) / POSITION_SCALE;
+                player.size = view.getUint16(offset + 4) / POSITION_SCALE;
+                player.angle = view.getUint16(offset + 6) / ANGLE_SCALE;
+                offset += 8;
+            }
+            players[slot] = player;
+        }
+    } else if (type === FRAME_DELTA) {
+        tick = view.getUint32(2);
+        const baseline = frameHistory.get(view.getUint32(6));
+        arenaRadius = view.getFloat32(10);
+        const changed = view.getUint16(16);
+        // without the baseline (not acked by us) the state can't be applied - the server falls back to a full
+        // frame soon - but it's still read through to get to the events
+        players = baseline ? baseline.map(player => ({ ...player })) : null;
+        offset = 18;
+        for (let i = 0; i < changed; i++) {
+            const player = players ? players[view.getUint16(offset)] : {};
+            const mask = view.getUint8(offset + 2);
+            offset += 3;
+            player.eliminated = (mask & DELTA_ELIMINATED) !== 0;
+            if (mask & DELTA_X) { player.x = view.getInt16(offset) / POSITION_SCALE; offset += 2; }
+            if (mask & DELTA_Y) { player.y = view.getInt16(offset) / POSITION_SCALE; offset += 2; }
+            if (mask & DELTA_SIZE) { player.size = view.getUint16(offset) / POSITION_SCALE; offset += 2; }
+            if (mask & DELTA_ANGLE) { player.angle = view.getUint16(offset) / ANGLE_SCALE; offset += 2; }
+        }
+    } else {
+        return null;
+    }
+
+    if (players) {
+        frameHistory.set(tick, players);
+        if (frameHistory.size > FRAME_HISTORY_SIZE) {
+            frameHistory.delete(frameHistory.keys().next().value);
+        }
+        latestGameState = { tick, arenaRadius, players };
+    }
+
+    const eventCount = view.getUint16(offset);
+    offset += 2;
+    for (let i = 0; i < eventCount; i++) {
+        const slot = view.getUint16(offset + 1);
+        handleGameEvent({
+            eventType: EVENT_TYPES[view.getUint8(offset)],
+            message: slot === NO_SLOT ? null : roster[slot]
+        });
+        offset += 3;
+    }
+    return players ? tick : null;
 }
@@ -0,0 +1,212 @@
+package com.spongout.spongout.cluster;
+
+import com.spongout.spongout.SpongOutApplication;
+import com.spongout.spongout.config.ClusterConstants;
+import com.spongout.spongout.repository.GameRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Three SpongOut instances in one JVM on the loopback transport, each on its own random port, with players
+ * joining through different nodes.
+ */
+class ClusterTest {
+
+    private static final List<String> NODE_IDS = List.of("node-a", "node-b", "node-c");
+
+    @TempDir
+    static Path dataDirectory;
+
+    private static final Map<String, ConfigurableApplicationContext> nodes = new HashMap<>();
+    private static final Map<String, String> urls = new HashMap<>();
+
+    @BeforeAll
+    static void startNodes() {
+        for (String nodeId : NODE_IDS) {
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(SpongOutApplication.class).run(
+                    "--server.port=0",
+                    "--spring.jmx.enabled=false",
+                    "--spring.datasource.url=jdbc:h2:mem:" + nodeId,
+                    "--app.config.cluster.enabled=true",
+                    "--app.config.cluster.node-id=" + nodeId,
+                    "--app.config.drain.enabled=false",
+                    "--app.config.drain.directory=" + dataDirectory.resolve(nodeId),
+                    "--app.config.game.countdown-seconds=1",
+                    "--logging.level.com.spongout.spongout=INFO");
+            String url = "ws://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/ws";
+            // the port is only known now, games this node owns will send their players here
+            context.getBean(ClusterConstants.class).setPublicUrl(url);
+            nodes.put(nodeId, context);
+            urls.put(nodeId, url);
+        }
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        nodes.values().forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void allNodesAgreeOnLeaderAndOwners() {
+        Map<String, Integer> owned = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            UUID gameId = UUID.randomUUID();
+            Set<String> owners = NODE_IDS.stream()
+                    .map(nodeId -> coordinator(nodeId).ownerOf(gameId))
+                    .collect(Collectors.toSet());
+            assertEquals(1, owners.size(), "nodes disagree on the owner of " + gameId);
+            owned.merge(owners.iterator().next(), 1, Integer::sum);
+        }
+        for (String nodeId : NODE_IDS) {
+            assertEquals(NODE_IDS, nodes.get(nodeId).getBean(ClusterTransport.class).members());
+            assertEquals("node-a", coordinator(nodeId).leader());
+            assertTrue(owned.getOrDefault(nodeId, 0) > 50, "games aren't spread evenly: " + owned);
+        }
+    }
+
+    @Test
+    void playersOfDifferentNodesMeetOnTheOwner() throws Exception {
+        // node-b forwards its player to the leader, the game goes to whichever node wins it
+        Client alice = new Client("alice", "node-a");
+        Client bob = new Client("bob", "node-b");
+        alice.find();
+        bob.find();
+
+        UUID gameId = alice.gameStarted.get(15, TimeUnit.SECONDS);
+        assertEquals(gameId, bob.gameStarted.get(15, TimeUnit.SECONDS));
+        String owner = coordinator("node-a").ownerOf(gameId);
+        for (String nodeId : NODE_IDS) {
+            boolean hasGame = nodes.get(nodeId).getBean(GameRepository.class).findById(gameId).isPresent();
+            assertEquals(nodeId.equals(owner), hasGame, "game " + gameId + " on " + nodeId + ", owner " + owner);
+        }
+
+        // players that didn't connect to the owner were sent over with a handoff token and bound there
+        for (Client client : List.of(alice, bob)) {
+            if (client.homeNode.equals(owner)) {
+                assertNull(client.redirectedTo);
+            } else {
+                assertEquals(urls.get(owner), client.redirectedTo);
+            }
+            assertEquals(urls.get(owner), client.playingOn);
+        }
+
+        // both are in the same running game on the owner
+        List<?> players = alice.firstState.get(10, TimeUnit.SECONDS);
+        assertEquals(Set.of("alice", "bob"),
+                players.stream().map(player -> ((Map<?, ?>) player).get("nickname")).collect(Collectors.toSet()));
+        assertNotNull(bob.firstState.get(10, TimeUnit.SECONDS));
+        alice.disconnect();
+        bob.disconnect();
+    }
+
+    private static ClusterCoordinator coordinator(String nodeId) {
+        return nodes.get(nodeId).getBean(ClusterCoordinator.class);
+    }
+
+    /**
+     * A player doing what sketch.js does: join, follow the redirect to the owner, watch the game state.
+     */
+    private static final class Client {
+        private final String nickname;
+        private final String homeNode;
+        private final List<StompSession> sessions = new ArrayList<>();
+        private final CompletableFuture<UUID> gameStarted = new CompletableFuture<>();
+        private final CompletableFuture<List<?>> firstState = new CompletableFuture<>();
+        private volatile String redirectedTo;
+        private volatile String playingOn;
+
+        Client(String nickname, String homeNode) {
+            this.nickname = nickname;
+            this.homeNode = homeNode;
+        }
+
+        void find() throws Exception {
+            connect(urls.get(homeNode), session -> session.send("/app/game.find", Map.of("nickname", nickname)));
+        }
+
+        void disconnect() {
+            sessions.forEach(session -> {
+                if (session.isConnected()) {
+                    session.disconnect();
+                }
+            });
+        }
+
+        /**
+         * Connects and subscribes to the private queue, then sends right away like sketch.js does.
+         */
+        private void connect(String url, Consumer<StompSession> then) throws Exception {
+            WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+            stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+            StompSession session = stompClient.connectAsync(url, new StompSessionHandlerAdapter() {
+            }).get(5, TimeUnit.SECONDS);
+            sessions.add(session);
+            session.subscribe("/user/queue/private", handler(message -> onPrivate(url, session, message)));
+            then.accept(session);
+        }
+
+        private void onPrivate(String url, StompSession session, Map<?, ?> message) {
+            Object handoffToken = message.get("handoffToken");
+            if (handoffToken != null) {
+                redirectedTo = (String) message.get("serverUrl");
+                try {
+                    connect(redirectedTo, owner -> {
+                        owner.send("/app/game.bind", Map.of("handoffToken", handoffToken));
+                        session.disconnect();
+                    });
+                } catch (Exception e) {
+                    gameStarted.completeExceptionally(e);
+                }
+                return;
+            }
+            UUID gameId = UUID.fromString((String) message.get("gameId"));
+            playingOn = url;
+            session.subscribe("/topic/game.state/" + gameId,
+                    handler(state -> firstState.complete((List<?>) state.get("players"))));
+            gameStarted.complete(gameId);
+        }
+
+        private static StompFrameHandler handler(Consumer<Map<?, ?>> onMessage) {
+            return new StompFrameHandler() {
+                @Override
+                public Type getPayloadType(StompHeaders headers) {
+                    return Map.class;
+                }
+
+                @Override
+                public void handleFrame(StompHeaders headers, Object payload) {
+                    onMessage.accept((Map<?, ?>) payload);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.spongout.spongout.harness;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.config.WebSocketConstants;
+import com.spongout.spongout.model.GameCommand;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.monitoring.GameMetrics;
+import com.spongout.spongout.service.BenchmarkGames;
+import com.spongout.spongout.service.FrameSender;
+import com.spongout.spongout.service.FrameTransportStats;
+import com.spongout.spongout.service.FrameWrittenInterceptor;
+import com.spongout.spongout.service.GameEngine;
+import com.spongout.spongout.service.SessionSendBuffers;
+import com.spongout.spongout.service.StateBroadcaster;
+import com.spongout.spongout.service.StateFrameEncoder;
+import com.spongout.spongout.service.StateStreamRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Headless capacity harness: thousands of games with bot players, ticked flat out on N threads the way a loop shard
+ * ticks them (commands, engine update, JSON snapshot and binary frames, rewind frame), no network - messages go to a
+ * template that only serializes them, frames to sinks that drop them. Reports ticks/s, finished rounds/s and tick
+ * time percentiles per thread count, and how many games at the configured tick rate that is.
+ * <p>
+ * Not part of the normal test run (the name doesn't end with Test), run it with
+ * <pre>
+ * ./mvnw test -Dtest=EngineHarness [-Dharness.games=2000] [-Dharness.players=5] [-Dharness.seconds=10]
+ *     [-Dharness.threads=1,2,4] [-Dharness.expels-per-second=0.5] [-Dharness.max-p99-us=0]
+ *     [-Dapp.config.game.fixed-timestep=true ...]
+ * </pre>
+ * {@code harness.max-p99-us} turns it into a regression gate: the single thread p99 tick time must stay below it.
+ * Game settings come from application.yaml, {@code -Dapp.config...} overrides them.
+ */
+class EngineHarness {
+
+    private final int games = Integer.getInteger("harness.games", 2000);
+    private final int players = Integer.getInteger("harness.players", 5);
+    private final int seconds = Integer.getInteger("harness.seconds", 10);
+    private final int warmupSeconds = Integer.getInteger("harness.warmup-seconds", 3);
+    private final double expelsPerSecond = Double.parseDouble(System.getProperty("harness.expels-per-second", "0.5"));
+    private final long maxP99Us = Long.getLong("harness.max-p99-us", 0);
+
+    private BenchmarkGames benchmarkGames;
+    private GameConstants gameConstants;
+    private GameEngine engine;
+    private StateBroadcaster broadcaster;
+    private StateStreamRegistry registry;
+
+    @Test
+    void capacity() throws Exception {
+        setUp();
+        List<GameInstance> instances = new ArrayList<>();
+        for (int g = 0; g < games; g++) {
+            instances.add(newGame(g));
+        }
+        System.out.printf("HARNESS %d games x %d players, %s timestep, tick every %d ms, %d cores%n", games, players,
+                gameConstants.isFixedTimestep() ? "fixed" : "variable", gameConstants.getTickRateMs(),
+                Runtime.getRuntime().availableProcessors());
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        run(instances, cores, warmupSeconds, false); // JIT first, it would skew the single thread numbers
+        Histogram singleThread = null;
+        for (int threads : threadCounts(cores)) {
+            Histogram ticks = run(instances, threads, seconds, true);
+            singleThread = singleThread != null ? singleThread : ticks;
+        }
+        if (maxP99Us > 0) {
+            long p99 = singleThread.getValueAtPercentile(99) / 1000;
+            assertTrue(p99 <= maxP99Us, "p99 tick time " + p99 + " us is over the gate of " + maxP99Us + " us");
+        }
+    }
+
+    private void setUp() {
+        benchmarkGames = new BenchmarkGames();
+        gameConstants = benchmarkGames.gameConstants;
+        engine = benchmarkGames.engine;
+
+        // the JSON state is serialized with the broker's converter
+        SimpMessagingTemplate template = new SimpMessagingTemplate((message, timeout) -> true);
+        template.setMessageConverter(new MappingJackson2MessageConverter());
+        GameMetrics gameMetrics = new GameMetrics(new SimpleMeterRegistry());
+        // JSON state goes to the outbound channel: written as soon as it's sent
+        registry = new StateStreamRegistry((message, timeout) -> {
+            if (message.getHeaders().get(FrameWrittenInterceptor.WRITTEN_HEADER) instanceof Runnable written) {
+                written.run();
+            }
+            return true;
+        }, new SessionSendBuffers());
+        broadcaster = new StateBroadcaster(template, registry, new StateFrameEncoder(gameConstants),
+                new FrameSender(new FrameTransportStats(), gameMetrics, gameConstants), gameConstants, gameMetrics);
+    }
+
+    private GameInstance newGame(int index) {
+        GameInstance game = benchmarkGames.newGame("harness-" + index + "-", players, index);
+        // every bot is on binary frames, and somebody watches the JSON topic
+        for (String sessionId : game.getPlayers().keySet()) {
+            registry.addFrameSubscriber(game.getGameId(),
+                    new StateStreamRegistry.FrameSubscriber(sessionId, StateStreamRegistry.Transport.RAW_SOCKET,
+                            (frame, written) -> written.run()));
+        }
+        StompHeaderAccessor subscribe = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+        subscribe.setSessionId("harness-" + index + "-0");
+        subscribe.setSubscriptionId("state");
+        subscribe.setDestination(WebSocketConstants.GAME_STATE_TOPIC + game.getGameId());
+        registry.handleSubscribe(new SessionSubscribeEvent(this,
+                MessageBuilder.createMessage(new byte[0], subscribe.getMessageHeaders())));
+        return game;
+    }
+
+    /**
+     * Ticks all games on {@code threads} threads for {@code seconds}, every thread owning a slice of them.
+     *
+     * @return tick times of all threads
+     */
+    private Histogram run(List<GameInstance> instances, int threads, int seconds, boolean report)
+            throws InterruptedException {
+        Histogram[] histograms = new Histogram[threads];
+        long[] ticks = new long[threads];
+        long[] rounds = new long[threads];
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            histograms[t] = new Histogram(TimeUnit.SECONDS.toNanos(1), 3);
+            List<GameInstance> owned = instances.subList(instances.size() * t / threads, instances.size() * (t + 1) / threads);
+            Thread thread = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(index);
+                while (System.nanoTime() < deadline) {
+                    for (GameInstance game : owned) {
+                        long start = System.nanoTime();
+                        rounds[index] += tick(game, random) ? 1 : 0;
+                        histograms[index].recordValue(Math.min(System.nanoTime() - start, TimeUnit.SECONDS.toNanos(1)));
+                        ticks[index]++;
+                    }
+                }
+                done.countDown();
+            }, "harness-" + t);
+            thread.start();
+        }
+        done.await();
+
+        Histogram all = new Histogram(TimeUnit.SECONDS.toNanos(1), 3);
+        long totalTicks = 0;
+        long totalRounds = 0;
+        for (int t = 0; t < threads; t++) {
+            all.add(histograms[t]);
+            totalTicks += ticks[t];
+            totalRounds += rounds[t];
+        }
+        if (!report) {
+            return all;
+        }
+        double ticksPerSecond = (double) totalTicks / seconds;
+        System.out.printf("HARNESS threads=%d ticks/s=%.0f rounds/s=%.1f tick_us p50=%.1f p99=%.1f p99.9=%.1f max=%.1f"
+                        + " capacity=%.0f games at %.1f ticks/s%n",
+                threads, ticksPerSecond, (double) totalRounds / seconds,
+                all.getValueAtPercentile(50) / 1000.0, all.getValueAtPercentile(99) / 1000.0,
+                all.getValueAtPercentile(99.9) / 1000.0, all.getMaxValue() / 1000.0,
+                ticksPerSecond * gameConstants.getTickRateMs() / 1000, 1000.0 / gameConstants.getTickRateMs());
+        return all;
+    }
+
+    /**
+     * One loop frame of the game, as GameExecutionService ticks it - {@link BenchmarkGames#frame} plus commands,
+     * broadcast and rewind frame.
+     *
+     * @return true if the round ended (the game starts the next one right away)
+     */
+    private boolean tick(GameInstance game, SplittableRandom random) {
+        long frameMillis = gameConstants.getTickRateMs();
+        double pressChance = expelsPerSecond * frameMillis / 1000;
+        for (Player player : game.getPlayers().values()) {
+            if (random.nextDouble() < pressChance) {
+                game.getCommands().offer(GameCommand.expel(player.getSessionId(), -1));
+            }
+        }
+        benchmarkGames.rewindClocks(game);
+
+        engine.applyCommands(game);
+        engine.update(game);
+        broadcaster.broadcast(game);
+        engine.recordRewindFrame(game);
+        for (Player player : game.getPlayers().values()) {
+            registry.acknowledge(game.getGameId(), player.getSessionId(), game.getBroadcastTick()); // instant clients
+        }
+        return benchmarkGames.restartIfOver(game, random.nextLong());
+    }
+
+    private static TreeSet<Integer> threadCounts(int cores) {
+        TreeSet<Integer> counts = new TreeSet<>();
+        String configured = System.getProperty("harness.threads");
+        if (configured != null) {
+            for (String count : configured.split(",")) {
+                counts.add(Integer.parseInt(count.trim()));
+            }
+            return counts;
+        }
+        for (int threads = 1; threads < cores; threads *= 2) {
+            counts.add(threads);
+        }
+        counts.add(cores);
+        return counts;
+    }
+}
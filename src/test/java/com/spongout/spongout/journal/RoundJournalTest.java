@@ -0,0 +1,169 @@
+package com.spongout.spongout.journal;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.config.JournalConstants;
+import com.spongout.spongout.config.LoggingConstants;
+import com.spongout.spongout.model.GameCommand;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.WorldState;
+import com.spongout.spongout.service.GameEngine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Records seeded rounds through the real journal writer and replays them from the segment file,
+ * the same way {@link ReplayTool} does.
+ */
+class RoundJournalTest {
+
+    private static final int PLAYERS = 5;
+    private static final int MAX_UPDATES = 20_000;
+
+    @TempDir
+    Path directory;
+
+    private GameConstants gameConstants;
+    private LoggingConstants loggingConstants;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Binder binder = new Binder(ConfigurationPropertySources.from(
+                new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yaml"))));
+        gameConstants = binder.bind("app.config.game", GameConstants.class).get();
+        loggingConstants = binder.bind("app.config.logging", LoggingConstants.class).get();
+    }
+
+    @Test
+    void variableTimestepRoundReplaysExactly() throws Exception {
+        gameConstants.setFixedTimestep(false);
+        assertReplaysExactly(recordRounds(11, 12));
+    }
+
+    @Test
+    void fixedTimestepRoundReplaysExactly() throws Exception {
+        gameConstants.setFixedTimestep(true);
+        assertReplaysExactly(recordRounds(21, 22));
+    }
+
+    @Test
+    void replayNoticesADifferentRound() throws Exception {
+        gameConstants.setFixedTimestep(true);
+        JournaledRound round = recordRounds(31).get(0);
+        JournaledRound otherSpawn = new JournaledRound(round.gameId(), round.startEpochMs(), round.seed() + 1,
+                round.constants(), round.sessionIds(), round.nicknames(), round.records());
+
+        RoundReplayer.Result result = RoundReplayer.replay(otherSpawn, line -> { });
+        assertFalse(result.matches());
+    }
+
+    @Test
+    void unwritableDirectoryLeavesTheJournalOff() throws Exception {
+        Path notADirectory = Files.createFile(directory.resolve("taken"));
+        JournalConstants journalConstants = new JournalConstants();
+        journalConstants.setEnabled(true);
+        journalConstants.setDirectory(notADirectory.resolve("journal").toString());
+        RoundJournal journal = new RoundJournal(journalConstants, gameConstants);
+        journal.start();
+
+        assertFalse(journal.getStats().enabled());
+        GameInstance game = new GameInstance();
+        journal.begin(game, 1);
+        assertFalse(game.getJournal().isRecording());
+        journal.stop();
+    }
+
+    private static void assertReplaysExactly(List<JournaledRound> rounds) {
+        for (JournaledRound round : rounds) {
+            List<String> trace = new ArrayList<>();
+            RoundReplayer.Result result = RoundReplayer.replay(round, trace::add);
+            assertEquals(result.expectedChecksum(), result.checksum(), "checksum of game " + round.gameId());
+            assertTrue(result.matches(), "game " + round.gameId() + " ended differently: " + result);
+            assertTrue(result.steps() > 0);
+            assertFalse(trace.isEmpty(), "no inputs were replayed");
+        }
+    }
+
+    /**
+     * Plays one round per seed with bots pressing EXPEL at random, journals them and reads them back.
+     */
+    private List<JournaledRound> recordRounds(long... seeds) throws Exception {
+        JournalConstants journalConstants = new JournalConstants();
+        journalConstants.setEnabled(true);
+        journalConstants.setDirectory(directory.toString());
+        journalConstants.setSegmentSizeMb(1);
+        journalConstants.setRetentionDays(1);
+        journalConstants.setMaxQueuedMb(16);
+        RoundJournal journal = new RoundJournal(journalConstants, gameConstants);
+        journal.start();
+        try {
+            GameEngine engine = new GameEngine(gameConstants, loggingConstants);
+            for (long seed : seeds) {
+                playRound(engine, journal, seed);
+            }
+        } finally {
+            journal.stop();
+        }
+        assertEquals(seeds.length, journal.getStats().writtenRounds());
+
+        List<JournaledRound> rounds = new ArrayList<>();
+        try (Stream<Path> segments = Files.list(directory)) {
+            for (Path segment : segments.sorted().toList()) {
+                rounds.addAll(JournaledRound.readSegment(segment));
+            }
+        }
+        assertEquals(seeds.length, rounds.size());
+        return rounds;
+    }
+
+    private void playRound(GameEngine engine, RoundJournal journal, long seed) {
+        GameInstance game = new GameInstance();
+        for (int p = 0; p < PLAYERS; p++) {
+            String sessionId = "session-" + seed + "-" + p;
+            game.getPlayers().put(sessionId, new Player("bot" + p, sessionId));
+        }
+        engine.startRound(game, seed);
+        journal.begin(game, seed);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        long frameMs = gameConstants.getTickRateMs();
+        for (int update = 0; update < MAX_UPDATES && game.getCurrentState() != GameInstance.GameState.ROUND_OVER; update++) {
+            if (random.nextInt(30) == 0) {
+                String sessionId = "session-" + seed + "-" + random.nextInt(PLAYERS);
+                game.getCommands().offer(GameCommand.expel(sessionId, game.getBroadcastTick()));
+            }
+            if (update == 500) {
+                game.getCommands().offer(GameCommand.leave("session-" + seed + "-0"));
+            }
+            // as if one frame of wall clock time went by since the last update, round time included
+            game.setLastLoopNanos(System.nanoTime() - frameMs * 1_000_000);
+            game.setLastTickTime(System.currentTimeMillis() - frameMs);
+            game.setRoundStartTime(game.getRoundStartTime() - frameMs);
+            engine.applyCommands(game);
+            engine.update(game);
+        }
+        assertEquals(GameInstance.GameState.ROUND_OVER, game.getCurrentState(), "round " + seed + " didn't end");
+
+        WorldState world = game.getWorld();
+        int winnerSlot = world.firstAlive();
+        journal.finish(game, winnerSlot < 0 ? JournalFormat.Outcome.NO_SURVIVORS : JournalFormat.Outcome.WINNER,
+                winnerSlot);
+    }
+}
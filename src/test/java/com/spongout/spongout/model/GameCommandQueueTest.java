@@ -0,0 +1,33 @@
+package com.spongout.spongout.model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameCommandQueueTest {
+
+    @Test
+    void floodOfExpelsDoesNotDropControlCommands() {
+        GameCommandQueue queue = new GameCommandQueue();
+        for (int i = 0; i < GameCommandQueue.CAPACITY; i++) {
+            assertTrue(queue.offer(GameCommand.expel("spammer", -1)));
+        }
+        assertFalse(queue.offer(GameCommand.expel("spammer", -1)));
+        assertTrue(queue.offer(GameCommand.leave("leaver")));
+        assertTrue(queue.offer(GameCommand.join(new Player("joiner", "joiner"))));
+        assertEquals(1, queue.getDropped());
+
+        for (int i = 0; i < GameCommandQueue.CAPACITY; i++) {
+            assertEquals(GameCommand.Type.EXPEL, queue.poll().type());
+        }
+        assertEquals(GameCommand.Type.LEAVE, queue.poll().type());
+        assertEquals(GameCommand.Type.JOIN, queue.poll().type());
+        assertNull(queue.poll());
+
+        // room for expels again once the tick drained them
+        assertTrue(queue.offer(GameCommand.expel("spammer", -1)));
+    }
+}
@@ -0,0 +1,133 @@
+package com.spongout.spongout.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpatialGridTest {
+
+    private final SpatialGrid grid = new SpatialGrid();
+
+    @Test
+    void findsEveryPairBruteForceFinds() {
+        SplittableRandom random = new SplittableRandom(42);
+        for (int round = 0; round < 200; round++) {
+            int count = random.nextInt(1, 300);
+            double spread = random.nextDouble(10, 1000);
+            double contactDistance = random.nextDouble(1, 60);
+            double[] x = new double[count];
+            double[] y = new double[count];
+            for (int i = 0; i < count; i++) {
+                x[i] = random.nextDouble(-spread, spread);
+                y[i] = random.nextDouble(-spread, spread);
+            }
+            assertFindsAllPairs(x, y, contactDistance);
+        }
+    }
+
+    @Test
+    void findsPairsAcrossCellBoundaries() {
+        // bodies on exact multiples of the cell size, every neighbour exactly at contact distance
+        double[] x = new double[25];
+        double[] y = new double[25];
+        for (int i = 0; i < 25; i++) {
+            x[i] = (i % 5) * 10.0;
+            y[i] = (i / 5) * 10.0;
+        }
+        assertFindsAllPairs(x, y, 10);
+        // diagonal neighbours across a cell corner
+        assertFindsAllPairs(new double[]{9.999, 10.001, 0, 30}, new double[]{9.999, 10.001, 30, 0}, 1);
+    }
+
+    @Test
+    void findsPairsAtTheFarEdge() {
+        // the body at max x / max y would land one cell outside, it's clamped into the last column / row
+        assertFindsAllPairs(new double[]{0, 20, 19.5, 20}, new double[]{0, 20, 20, 19.5}, 10);
+        assertFindsAllPairs(new double[]{-500, 500, 499, -499}, new double[]{-500, 500, 499, -499}, 2);
+    }
+
+    @Test
+    void findsPairsWhenTheCellCountIsCapped() {
+        // tiny contact distance over a huge extent - cells grow instead of multiplying
+        SplittableRandom random = new SplittableRandom(7);
+        double[] x = new double[500];
+        double[] y = new double[500];
+        for (int i = 0; i < x.length; i += 2) {
+            x[i] = random.nextDouble(-1e6, 1e6);
+            y[i] = random.nextDouble(-1e6, 1e6);
+            x[i + 1] = x[i] + 0.5;
+            y[i + 1] = y[i];
+        }
+        assertFindsAllPairs(x, y, 1);
+    }
+
+    @Test
+    void handlesDegenerateInputs() {
+        assertFindsAllPairs(new double[]{3}, new double[]{3}, 10);
+        assertFindsAllPairs(new double[]{1, 1, 1}, new double[]{2, 2, 2}, 0);
+
+        grid.reset(0);
+        grid.build(10);
+        assertEquals(0, grid.size());
+    }
+
+    @Test
+    void reusedGridForgetsThePreviousPass() {
+        double[] many = new double[100];
+        assertFindsAllPairs(many, many, 5);
+        assertFindsAllPairs(new double[]{0, 100}, new double[]{0, 0}, 5);
+        assertEquals(0, candidates(0).size());
+    }
+
+    /**
+     * Every pair within contact distance must be among the candidates, each reported once,
+     * and candidates come sorted and only with higher indices.
+     */
+    private void assertFindsAllPairs(double[] x, double[] y, double contactDistance) {
+        grid.reset(x.length);
+        for (int i = 0; i < x.length; i++) {
+            grid.put(i, x[i], y[i]);
+        }
+        grid.build(contactDistance);
+
+        Set<Long> reported = new HashSet<>();
+        int[] out = new int[x.length];
+        for (int i = 0; i < x.length; i++) {
+            int found = grid.candidatesAfter(i, out);
+            for (int k = 0; k < found; k++) {
+                assertTrue(out[k] > i, "candidate " + out[k] + " of " + i + " isn't after it");
+                assertTrue(k == 0 || out[k - 1] < out[k], "candidates of " + i + " aren't sorted");
+                assertTrue(reported.add(pair(i, out[k])), "pair reported twice");
+            }
+        }
+        for (int i = 0; i < x.length; i++) {
+            for (int j = i + 1; j < x.length; j++) {
+                double dx = x[i] - x[j];
+                double dy = y[i] - y[j];
+                if (dx * dx + dy * dy <= contactDistance * contactDistance) {
+                    assertTrue(reported.contains(pair(i, j)), "missed pair " + i + ", " + j
+                            + " at distance " + Math.sqrt(dx * dx + dy * dy));
+                }
+            }
+        }
+    }
+
+    private Set<Integer> candidates(int index) {
+        int[] out = new int[grid.size()];
+        int found = grid.candidatesAfter(index, out);
+        Set<Integer> candidates = new HashSet<>();
+        for (int k = 0; k < found; k++) {
+            candidates.add(out[k]);
+        }
+        return candidates;
+    }
+
+    private static long pair(int a, int b) {
+        return (long) a << 32 | b;
+    }
+}
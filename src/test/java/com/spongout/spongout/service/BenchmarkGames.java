@@ -0,0 +1,89 @@
+package com.spongout.spongout.service;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.config.LoggingConstants;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.core.env.PropertiesPropertySource;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ClassPathResource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Engine and bot games without Spring, shared by the JMH benchmarks (src/jmh) and the EngineHarness: settings
+ * straight from application.yaml, {@code -Dapp.config...} overrides them.
+ */
+public final class BenchmarkGames {
+
+    public final GameConstants gameConstants;
+    public final GameEngine engine;
+
+    public BenchmarkGames() {
+        // spawns and launches log at INFO, that's not what we measure
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+        try {
+            List<PropertySource<?>> sources = new ArrayList<>();
+            sources.add(new PropertiesPropertySource("system", System.getProperties()));
+            sources.addAll(new YamlPropertySourceLoader().load("application", new ClassPathResource("application.yaml")));
+            Binder binder = new Binder(ConfigurationPropertySources.from(sources));
+            gameConstants = binder.bind("app.config.game", GameConstants.class).get();
+            engine = new GameEngine(gameConstants, binder.bind("app.config.logging", LoggingConstants.class).get());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * A running round of {@code players} bots, with session ids {@code sessionPrefix0, sessionPrefix1...}.
+     */
+    public GameInstance newGame(String sessionPrefix, int players, long seed) {
+        GameInstance game = new GameInstance();
+        for (int p = 0; p < players; p++) {
+            String sessionId = sessionPrefix + p;
+            game.getPlayers().put(sessionId, new Player("bot" + p, sessionId));
+        }
+        engine.startRound(game, seed);
+        return game;
+    }
+
+    /**
+     * One loop frame of the game, engine only. A finished round starts over - once every round's worth of frames.
+     */
+    public void frame(GameInstance game) {
+        rewindClocks(game);
+        engine.update(game);
+        restartIfOver(game, game.getSimulationTick());
+    }
+
+    /**
+     * Moves the game's clocks back by one frame, so the next update simulates exactly one frame however fast the
+     * caller goes.
+     */
+    public void rewindClocks(GameInstance game) {
+        long frameMillis = gameConstants.getTickRateMs();
+        game.setLastLoopNanos(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(frameMillis));
+        game.setLastTickTime(System.currentTimeMillis() - frameMillis);
+    }
+
+    /**
+     * @return true if the round was over and the next one started
+     */
+    public boolean restartIfOver(GameInstance game, long seed) {
+        if (game.getCurrentState() != GameInstance.GameState.ROUND_OVER) {
+            return false;
+        }
+        engine.startRound(game, seed);
+        return true;
+    }
+}
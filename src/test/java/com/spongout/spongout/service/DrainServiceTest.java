@@ -0,0 +1,189 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.SpongOutApplication;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.repository.GameRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A checkpoint left by the previous process, restored by a real instance: players bind with their resume tokens
+ * and the game goes on, then the next shutdown checkpoints it again.
+ */
+class DrainServiceTest {
+
+    private static final String NODE_ID = "drain-node";
+
+    @TempDir
+    Path directory;
+
+    private ConfigurableApplicationContext context;
+    private final List<StompSession> sessions = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        sessions.forEach(session -> {
+            if (session.isConnected()) {
+                session.disconnect();
+            }
+        });
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    void playersTakeTheirSeatsBackAndTheGameGoesOn() throws Exception {
+        GameInstance game = checkpointedGame();
+        GameCheckpoints.Checkpoint checkpoint = GameCheckpoints.encode(game, System.currentTimeMillis());
+        GameCheckpoints.writeFile(checkpointFile(), List.of(checkpoint), System.currentTimeMillis());
+        start();
+
+        assertFalse(Files.exists(checkpointFile()), "a checkpoint is resumed once");
+        GameInstance restored = context.getBean(GameRepository.class).findById(game.getGameId()).orElseThrow();
+        assertEquals(game.getBroadcastTick(), restored.getBroadcastTick(), "nothing ticks it before the players are back");
+
+        List<LinkedBlockingQueue<Map<?, ?>>> inboxes = new ArrayList<>();
+        for (GameCheckpoints.ResumeSeat seat : checkpoint.seats()) {
+            LinkedBlockingQueue<Map<?, ?>> inbox = new LinkedBlockingQueue<>();
+            connect(inbox).send("/app/game.bind", Map.of("handoffToken", seat.token()));
+            inboxes.add(inbox);
+        }
+        for (LinkedBlockingQueue<Map<?, ?>> inbox : inboxes) {
+            Map<?, ?> gameStart = inbox.poll(5, TimeUnit.SECONDS);
+            assertNotNull(gameStart, "no game start after the bind");
+            assertEquals(game.getGameId().toString(), gameStart.get("gameId"));
+            assertNotNull(gameStart.get("streamToken"));
+        }
+
+        // both are back, the round runs again
+        waitFor(() -> restored.getBroadcastTick() > game.getBroadcastTick());
+
+        // next deploy: the running game is checkpointed again and everybody gets a new token
+        context.close();
+        context = null;
+        GameCheckpoints.CheckpointFile drained = GameCheckpoints.readFile(checkpointFile());
+        assertEquals(1, drained.games().size());
+        GameInstance checkpointedAgain = new GameInstance();
+        List<GameCheckpoints.ResumeSeat> seats =
+                GameCheckpoints.decode(drained.games().get(0), checkpointedAgain, System.currentTimeMillis());
+        assertEquals(game.getGameId(), checkpointedAgain.getGameId());
+        assertTrue(checkpointedAgain.getBroadcastTick() > game.getBroadcastTick());
+
+        // the new sessions took over the old players, slots and all
+        assertEquals(List.of("alice", "bob"), seats.stream().map(GameCheckpoints.ResumeSeat::nickname).toList());
+        for (Player player : checkpointedAgain.getPlayers().values()) {
+            assertFalse(player.getSessionId().startsWith("old-"), player.getNickname() + " wasn't rebound");
+            assertEquals(player, checkpointedAgain.getWorld().getPlayers()[
+                    checkpointedAgain.getWorld().slotOf(player.getSessionId())]);
+        }
+        assertEquals(300, checkpointedAgain.getPlayers().values().stream()
+                .filter(player -> player.getNickname().equals("alice")).findFirst().orElseThrow().getScore());
+        for (LinkedBlockingQueue<Map<?, ?>> inbox : inboxes) {
+            Map<?, ?> reconnect = inbox.poll(5, TimeUnit.SECONDS);
+            assertNotNull(reconnect, "no reconnect on the drain");
+            assertNotNull(reconnect.get("handoffToken"));
+        }
+    }
+
+    @Test
+    void staleCheckpointIsDropped() throws Exception {
+        long longAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        GameInstance game = checkpointedGame();
+        GameCheckpoints.writeFile(checkpointFile(), List.of(GameCheckpoints.encode(game, longAgo)), longAgo);
+        start();
+
+        assertFalse(Files.exists(checkpointFile()));
+        assertTrue(context.getBean(GameRepository.class).findById(game.getGameId()).isEmpty());
+    }
+
+    private void start() {
+        context = new SpringApplicationBuilder(SpongOutApplication.class).run(
+                "--server.port=0",
+                "--spring.jmx.enabled=false",
+                "--spring.datasource.url=jdbc:h2:mem:" + NODE_ID + "-" + UUID.randomUUID(),
+                "--app.config.cluster.node-id=" + NODE_ID,
+                "--app.config.drain.enabled=true",
+                "--app.config.drain.directory=" + directory,
+                "--app.config.drain.finish-timeout-ms=100",
+                "--logging.level.com.spongout.spongout=INFO");
+    }
+
+    private Path checkpointFile() {
+        return directory.resolve("checkpoint-" + NODE_ID + ".bin");
+    }
+
+    /**
+     * Two players mid-round in the process that went away.
+     */
+    private static GameInstance checkpointedGame() {
+        GameInstance game = new GameInstance();
+        game.setGameId(UUID.randomUUID());
+        for (String nickname : List.of("alice", "bob")) {
+            game.getPlayers().put("old-" + nickname, new Player(nickname, "old-" + nickname));
+        }
+        game.setCurrentArenaRadius(500);
+        game.spawnPlayers(20, 3);
+        game.setCurrentState(GameInstance.GameState.RUNNING);
+        game.setBroadcastTick(100);
+        game.setRoundStartTime(System.currentTimeMillis() - 2_000);
+        game.getPlayers().get("old-alice").setScore(300);
+        return game;
+    }
+
+    private StompSession connect(LinkedBlockingQueue<Map<?, ?>> inbox) throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        String url = "ws://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/ws";
+        StompSession session = stompClient.connectAsync(url, new StompSessionHandlerAdapter() {
+        }).get(5, TimeUnit.SECONDS);
+        sessions.add(session);
+        session.subscribe("/user/queue/private", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                inbox.add((Map<?, ?>) payload);
+            }
+        });
+        return session;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.monitoring.GameMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameSenderTest {
+
+    private FrameSender sender;
+    private SlowSink sink;
+    private StateStreamRegistry.FrameSubscriber subscriber;
+
+    @BeforeEach
+    void setUp() {
+        GameConstants gameConstants = new GameConstants();
+        gameConstants.setSenderThreads(2);
+        sender = new FrameSender(new FrameTransportStats(), new GameMetrics(new SimpleMeterRegistry()), gameConstants);
+        sink = new SlowSink();
+        subscriber = new StateStreamRegistry.FrameSubscriber("session", StateStreamRegistry.Transport.RAW_SOCKET, sink);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sender.stop();
+    }
+
+    @Test
+    void slowClientGetsLatestStateInsteadOfBacklog() throws InterruptedException {
+        FrameOutbox outbox = subscriber.getOutbox();
+        offerState(0);
+        Runnable firstWritten = sink.awaitSend();
+        assertArrayEquals(frame(0), sink.frames.get(0));
+
+        // the client doesn't take the first frame for a while, the ticks go on
+        for (int tick = 1; tick <= 50; tick++) {
+            offerState(tick);
+        }
+        assertNull(sink.pending.poll(50, TimeUnit.MILLISECONDS), "second frame sent while the first is still in flight");
+        assertTrue(outbox.backlogBytes() > 0);
+
+        firstWritten.run();
+        sink.awaitSend().run();
+        assertEquals(2, sink.frames.size());
+        assertArrayEquals(frame(50), sink.frames.get(1), "newest state goes out, the ones in between are conflated");
+        assertTrue(outbox.getSendEvery() > 1, "state rate should back off");
+        assertFalse(sink.closed);
+        assertFalse(outbox.isClosed());
+    }
+
+    @Test
+    void stateRateBacksOffOnWhatTheTransportStillBuffers() throws InterruptedException {
+        // every frame is taken right away, but the session can't write it out
+        sink.buffered = 64 * 1024;
+        for (int tick = 0; tick < 3; tick++) {
+            offerState(tick);
+            sink.awaitSend().run();
+        }
+        assertEquals(3, sink.frames.size(), "nothing was conflated");
+        assertTrue(subscriber.getOutbox().getSendEvery() > 1, "state rate should back off");
+    }
+
+    @Test
+    void orderedFramesAreNeverConflated() throws InterruptedException {
+        offerState(0);
+        Runnable firstWritten = sink.awaitSend();
+        for (int event = 1; event <= 20; event++) {
+            assertTrue(subscriber.getOutbox().offerOrdered(frame(event)));
+            sender.schedule(subscriber);
+        }
+        offerState(21);
+
+        firstWritten.run();
+        for (int i = 0; i < 21; i++) {
+            sink.awaitSend().run();
+        }
+        assertEquals(22, sink.frames.size());
+        for (int event = 1; event <= 21; event++) {
+            assertArrayEquals(frame(event), sink.frames.get(event), "frame " + event + " out of order");
+        }
+        assertFalse(sink.closed);
+    }
+
+    private void offerState(int tick) {
+        subscriber.getOutbox().offerState(frame(tick));
+        sender.schedule(subscriber);
+    }
+
+    private static byte[] frame(int tick) {
+        return new byte[]{(byte) tick, 0, 0, 0};
+    }
+
+    /**
+     * Client that takes its frames only when the test says so.
+     */
+    private static final class SlowSink implements StateStreamRegistry.FrameSink {
+        private final List<byte[]> frames = new CopyOnWriteArrayList<>();
+        private final LinkedBlockingQueue<Runnable> pending = new LinkedBlockingQueue<>();
+        private volatile boolean closed;
+        private volatile int buffered;
+
+        @Override
+        public void send(byte[] frame, Runnable written) {
+            frames.add(frame);
+            pending.add(written);
+        }
+
+        @Override
+        public int bufferedBytes() {
+            return buffered;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        Runnable awaitSend() throws InterruptedException {
+            Runnable written = pending.poll(2, TimeUnit.SECONDS);
+            assertNotNull(written, "no frame sent");
+            return written;
+        }
+    }
+}
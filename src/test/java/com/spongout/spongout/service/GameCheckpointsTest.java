@@ -0,0 +1,190 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.WorldState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameCheckpointsTest {
+
+    private static final long WRITTEN_AT = 10_000;
+    private static final long RESTORED_AT = 50_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void gameSurvivesTheRoundTrip() throws IOException {
+        GameInstance game = runningGame();
+        GameCheckpoints.Checkpoint checkpoint = GameCheckpoints.encode(game, WRITTEN_AT);
+        Path file = directory.resolve("checkpoint.bin");
+        GameCheckpoints.writeFile(file, List.of(checkpoint), WRITTEN_AT);
+
+        GameCheckpoints.CheckpointFile read = GameCheckpoints.readFile(file);
+        assertEquals(WRITTEN_AT, read.writtenAtMillis());
+        assertEquals(1, read.games().size());
+        assertArrayEquals(checkpoint.data(), read.games().get(0));
+        assertFalse(Files.exists(directory.resolve("checkpoint.bin.tmp")));
+
+        // restored into a recycled instance, like DrainService does with the pool
+        GameInstance restored = recycledGame();
+        List<GameCheckpoints.ResumeSeat> seats = GameCheckpoints.decode(read.games().get(0), restored, RESTORED_AT);
+
+        assertEquals(game.getGameId(), restored.getGameId());
+        assertEquals(game.getCurrentState(), restored.getCurrentState());
+        assertEquals(game.getCurrentArenaRadius(), restored.getCurrentArenaRadius());
+        assertEquals(game.getSimulationTick(), restored.getSimulationTick());
+        assertEquals(game.getSimulatedNanos(), restored.getSimulatedNanos());
+        assertEquals(game.getAccumulatorNanos(), restored.getAccumulatorNanos());
+        assertEquals(game.getBroadcastTick(), restored.getBroadcastTick());
+        assertEquals(RESTORED_AT - 3_000, restored.getRoundStartTime(), "the round goes on from where it was");
+
+        WorldState expected = game.getWorld();
+        WorldState actual = restored.getWorld();
+        assertEquals(expected.getCount(), actual.getCount());
+        for (int slot = 0; slot < expected.getCount(); slot++) {
+            Player before = expected.getPlayers()[slot];
+            Player after = actual.getPlayers()[slot];
+            assertEquals(before.getSessionId(), after.getSessionId());
+            assertEquals(before.getNickname(), after.getNickname());
+            assertEquals(before.getScore(), after.getScore());
+            assertEquals(before.isEliminated(), after.isEliminated());
+            assertEquals(before.isGoingToExpel(), after.isGoingToExpel());
+            assertEquals(before.getExpelAngle(), after.getExpelAngle());
+            assertEquals(expected.getAlive()[slot], actual.getAlive()[slot]);
+            assertEquals(expected.getX()[slot], actual.getX()[slot]);
+            assertEquals(expected.getY()[slot], actual.getY()[slot]);
+            assertEquals(expected.getVx()[slot], actual.getVx()[slot]);
+            assertEquals(expected.getVy()[slot], actual.getVy()[slot]);
+            assertEquals(expected.getSize()[slot], actual.getSize()[slot]);
+            assertEquals(expected.getAngle()[slot], actual.getAngle()[slot]);
+            assertEquals(slot, actual.slotOf(after.getSessionId()));
+        }
+        assertEquals(expected.getAliveCount(), actual.getAliveCount());
+
+        // carol left before the checkpoint: her slot stays for the state, but nobody plays it
+        assertEquals(Set.of("session-alice", "session-bob", "session-dave", "session-erin"),
+                restored.getPlayers().keySet());
+        assertTrue(actual.slotOf("session-carol") >= 0);
+        assertTrue(actual.slotOf("session-erin") < 0, "the bench player waits for the next round");
+
+        assertEquals(checkpoint.seats(), seats);
+        assertEquals(List.of("alice", "bob", "dave", "erin"),
+                seats.stream().map(GameCheckpoints.ResumeSeat::nickname).toList());
+        assertEquals(4, seats.stream().map(GameCheckpoints.ResumeSeat::token).distinct().count());
+    }
+
+    @Test
+    void everyGameOfTheFileIsKept() throws IOException {
+        GameInstance first = runningGame();
+        GameInstance second = runningGame();
+        Path file = directory.resolve("checkpoint.bin");
+        GameCheckpoints.writeFile(file, List.of(GameCheckpoints.encode(first, WRITTEN_AT),
+                GameCheckpoints.encode(second, WRITTEN_AT)), WRITTEN_AT);
+        // written again, like the next drain would
+        GameCheckpoints.writeFile(file, List.of(GameCheckpoints.encode(second, WRITTEN_AT)), WRITTEN_AT + 1);
+
+        GameCheckpoints.CheckpointFile read = GameCheckpoints.readFile(file);
+        assertEquals(WRITTEN_AT + 1, read.writtenAtMillis());
+        assertEquals(1, read.games().size());
+        GameInstance restored = new GameInstance();
+        GameCheckpoints.decode(read.games().get(0), restored, RESTORED_AT);
+        assertEquals(second.getGameId(), restored.getGameId());
+    }
+
+    @Test
+    void rejectsForeignFiles() throws IOException {
+        Path file = directory.resolve("checkpoint.bin");
+        GameCheckpoints.writeFile(file, List.of(GameCheckpoints.encode(runningGame(), WRITTEN_AT)), WRITTEN_AT);
+        byte[] valid = Files.readAllBytes(file);
+
+        byte[] wrongMagic = valid.clone();
+        ByteBuffer.wrap(wrongMagic).putInt(0, 0xCAFEBABE);
+        Files.write(file, wrongMagic);
+        assertThrows(IOException.class, () -> GameCheckpoints.readFile(file));
+
+        byte[] wrongVersion = valid.clone();
+        ByteBuffer.wrap(wrongVersion).putInt(Integer.BYTES, ByteBuffer.wrap(valid).getInt(Integer.BYTES) + 1);
+        Files.write(file, wrongVersion);
+        assertThrows(IOException.class, () -> GameCheckpoints.readFile(file));
+
+        Files.write(file, new byte[]{1, 2, 3});
+        assertThrows(IOException.class, () -> GameCheckpoints.readFile(file));
+    }
+
+    @Test
+    void everyCheckpointHandsOutNewTokens() {
+        GameInstance game = runningGame();
+        List<GameCheckpoints.ResumeSeat> first = GameCheckpoints.encode(game, WRITTEN_AT).seats();
+        List<GameCheckpoints.ResumeSeat> second = GameCheckpoints.encode(game, WRITTEN_AT).seats();
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).previousSessionId(), second.get(i).previousSessionId());
+            assertNotEquals(first.get(i).token(), second.get(i).token());
+        }
+    }
+
+    /**
+     * Four players mid-round: alice about to expel, bob plain, carol left the game, dave knocked out,
+     * and erin joined after the start and waits on the bench.
+     */
+    private static GameInstance runningGame() {
+        GameInstance game = new GameInstance();
+        game.setGameId(UUID.randomUUID());
+        for (String nickname : List.of("alice", "bob", "carol", "dave")) {
+            game.getPlayers().put("session-" + nickname, new Player(nickname, "session-" + nickname));
+        }
+        game.setCurrentArenaRadius(500);
+        game.spawnPlayers(20, 42);
+        game.setCurrentState(GameInstance.GameState.RUNNING);
+        game.setCurrentArenaRadius(431.5);
+        game.setSimulationTick(1234);
+        game.setSimulatedNanos(20_566_000_000L);
+        game.setAccumulatorNanos(4_000_000);
+        game.setBroadcastTick(617);
+        game.setRoundStartTime(WRITTEN_AT - 3_000);
+
+        WorldState world = game.getWorld();
+        for (int slot = 0; slot < world.getCount(); slot++) {
+            world.getVx()[slot] = slot * 1.5;
+            world.getVy()[slot] = -slot * 0.25;
+            world.getAngle()[slot] = slot + 0.125;
+        }
+        Player alice = game.getPlayers().get("session-alice");
+        alice.setGoingToExpel(true);
+        alice.setExpelAngle(2.75);
+        alice.setScore(300);
+        game.getPlayers().remove("session-carol");
+        Player dave = game.getPlayers().get("session-dave");
+        dave.setEliminated(true);
+        world.kill(world.slotOf(dave.getSessionId()));
+        game.getPlayers().put("session-erin", new Player("erin", "session-erin"));
+        return game;
+    }
+
+    private static GameInstance recycledGame() {
+        GameInstance game = new GameInstance();
+        for (int i = 0; i < 6; i++) {
+            game.getPlayers().put("old-" + i, new Player("old" + i, "old-" + i));
+        }
+        game.setCurrentArenaRadius(800);
+        game.spawnPlayers(20, 7);
+        game.reset(UUID.randomUUID());
+        return game;
+    }
+}
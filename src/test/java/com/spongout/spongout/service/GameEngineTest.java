@@ -0,0 +1,91 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.config.LoggingConstants;
+import com.spongout.spongout.model.GameCommand;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GameEngineTest {
+
+    private GameConstants gameConstants;
+    private GameEngine engine;
+    private GameInstance game;
+    private Player player;
+
+    @BeforeEach
+    void setUp() {
+        gameConstants = new GameConstants();
+        gameConstants.setArenaInitialRadius(500);
+        gameConstants.setPlayerStartingSize(20);
+        gameConstants.setMaxRewindMs(250);
+        gameConstants.setRewindSlackMs(50);
+        engine = new GameEngine(gameConstants, new LoggingConstants());
+        game = new GameInstance();
+        player = new Player("alice", "session-a");
+        game.getPlayers().put(player.getSessionId(), player);
+        game.getPlayers().put("session-b", new Player("bob", "session-b"));
+        engine.startRound(game, 1);
+
+        // the client was shown angle 1.0, the arrow spun on since
+        game.getWorld().getAngle()[slot()] = 1.0;
+        engine.recordRewindFrame(game);
+        game.getWorld().getAngle()[slot()] = 2.0;
+    }
+
+    @Test
+    void expelUsesTheAngleThePlayerSaw() {
+        expelAfter(0);
+        assertEquals(1.0, player.getExpelAngle());
+    }
+
+    @Test
+    void measuredRttKeepsTheRewindShort() {
+        player.recordRtt(100);
+        expelAfter(20);
+        assertEquals(1.0, player.getExpelAngle(), "20 ms old frame is within RTT + slack");
+
+        setUp();
+        player.recordRtt(0);
+        gameConstants.setRewindSlackMs(0);
+        expelAfter(5);
+        assertTrue(Double.isNaN(player.getExpelAngle()), "frame older than the RTT can't be the one the player saw");
+    }
+
+    @Test
+    void rttNeverWidensTheRewindWindow() {
+        gameConstants.setMaxRewindMs(1);
+        player.recordRtt(1000);
+        expelAfter(5);
+        assertTrue(Double.isNaN(player.getExpelAngle()));
+    }
+
+    @Test
+    void rttIsSmoothed() {
+        Player fresh = new Player("carol", "session-c");
+        assertEquals(-1, fresh.getRttMs());
+        fresh.recordRtt(100);
+        assertEquals(100, fresh.getRttMs());
+        fresh.recordRtt(200);
+        assertEquals(120, fresh.getRttMs());
+    }
+
+    private void expelAfter(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        game.getCommands().offer(GameCommand.expel(player.getSessionId(), 0));
+        engine.applyCommands(game);
+    }
+
+    private int slot() {
+        return game.getWorld().slotOf(player.getSessionId());
+    }
+}
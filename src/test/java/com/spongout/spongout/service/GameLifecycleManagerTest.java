@@ -0,0 +1,149 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.SpongOutApplication;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.repository.GameRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A real instance plays a short round and reaps it: nothing points at the game afterwards and its instance
+ * comes back from the pool like new.
+ */
+class GameLifecycleManagerTest {
+
+    private ConfigurableApplicationContext context;
+    private final List<StompSession> sessions = new ArrayList<>();
+    private final LinkedBlockingQueue<GameLifecycleManager.ReapedGame> reaped = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        context = new SpringApplicationBuilder(SpongOutApplication.class).run(
+                "--server.port=0",
+                "--spring.jmx.enabled=false",
+                "--spring.datasource.url=jdbc:h2:mem:lifecycle-" + UUID.randomUUID(),
+                "--app.config.drain.enabled=false",
+                "--app.config.game.countdown-seconds=1",
+                "--app.config.game.reap-interval-ms=100",
+                "--app.config.game.reap-grace-ms=200",
+                "--logging.level.com.spongout.spongout=INFO");
+        // registered after the lobby's, sees the indexes already cleaned up
+        context.getBean(GameLifecycleManager.class).onReap(reaped::add);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sessions.forEach(session -> {
+            if (session.isConnected()) {
+                session.disconnect();
+            }
+        });
+        context.close();
+    }
+
+    @Test
+    void reapedGameLeavesNothingBehind() throws Exception {
+        GameLobbyService lobby = context.getBean(GameLobbyService.class);
+        LinkedBlockingQueue<Map<?, ?>> alice = new LinkedBlockingQueue<>();
+        LinkedBlockingQueue<Map<?, ?>> bob = new LinkedBlockingQueue<>();
+        connect(alice).send("/app/game.find", Map.of("nickname", "alice"));
+        StompSession bobSession = connect(bob);
+        bobSession.send("/app/game.find", Map.of("nickname", "bob"));
+
+        UUID gameId = gameIdOf(alice.poll(10, TimeUnit.SECONDS));
+        assertEquals(gameId, gameIdOf(bob.poll(10, TimeUnit.SECONDS)));
+        assertEquals(2, lobby.getSeatedSessions());
+
+        // bob's entry goes with his session, alice wins and the finished game is reaped
+        bobSession.disconnect();
+        waitFor(() -> lobby.getSeatedSessions() == 1);
+        GameLifecycleManager.ReapedGame reapedGame = reaped.poll(10, TimeUnit.SECONDS);
+        assertNotNull(reapedGame, "game wasn't reaped");
+        assertEquals(gameId, reapedGame.gameId());
+        assertEquals(2, reapedGame.sessionIds().size(), "bob left, but he's still one of the game's sessions");
+        for (String sessionId : reapedGame.sessionIds()) {
+            assertFalse(lobby.isSeatedIn(sessionId, gameId));
+        }
+        assertEquals(0, lobby.getSeatedSessions());
+        assertTrue(context.getBean(GameRepository.class).findById(gameId).isEmpty());
+
+        GameInstancePool pool = context.getBean(GameInstancePool.class);
+        waitFor(() -> pool.getIdleCount() == 1); // released right after the listeners ran
+        GameInstance recycled = pool.acquire();
+        assertEquals(1, pool.getHits());
+        assertNotEquals(gameId, recycled.getGameId());
+        assertEquals(GameInstance.GameState.WAITING_FOR_PLAYERS, recycled.getCurrentState());
+        assertTrue(recycled.getPlayers().isEmpty());
+        assertEquals(0, recycled.getWorld().getCount());
+        assertEquals(0, recycled.getWorld().getAliveCount());
+        assertEquals(-1, recycled.getWorld().slotOf(reapedGame.sessionIds().iterator().next()));
+        assertEquals(0, recycled.getBroadcastTick());
+        assertEquals(0, recycled.getSimulationTick());
+        assertEquals(0, recycled.getCurrentArenaRadius());
+        assertNull(recycled.getCommands().poll());
+        assertTrue(recycled.getPendingEvents().isEmpty());
+        assertTrue(recycled.getSnapshotHistory().indexOf(1) < 0, "snapshots of the old game");
+        assertTrue(recycled.getRewindHistory().indexOf(1) < 0, "rewind frames of the old game");
+        assertFalse(recycled.getJournal().isRecording());
+    }
+
+    private StompSession connect(LinkedBlockingQueue<Map<?, ?>> inbox) throws Exception {
+        WebSocketStompClient stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+        stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+        String url = "ws://localhost:" + context.getEnvironment().getProperty("local.server.port") + "/ws";
+        StompSession session = stompClient.connectAsync(url, new StompSessionHandlerAdapter() {
+        }).get(5, TimeUnit.SECONDS);
+        sessions.add(session);
+        session.subscribe("/user/queue/private", new StompFrameHandler() {
+            @Override
+            public Type getPayloadType(StompHeaders headers) {
+                return Map.class;
+            }
+
+            @Override
+            public void handleFrame(StompHeaders headers, Object payload) {
+                inbox.add((Map<?, ?>) payload);
+            }
+        });
+        return session;
+    }
+
+    private static UUID gameIdOf(Map<?, ?> gameStart) {
+        assertNotNull(gameStart, "no game start");
+        return UUID.fromString((String) gameStart.get("gameId"));
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+}
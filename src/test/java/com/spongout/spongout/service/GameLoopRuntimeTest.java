@@ -0,0 +1,172 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.config.StartupConstants;
+import com.spongout.spongout.controller.dto.ShardLoadDto;
+import com.spongout.spongout.monitoring.GameMetrics;
+import com.spongout.spongout.monitoring.StartupProbe;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two shards ticking counting loops every 5 ms.
+ */
+class GameLoopRuntimeTest {
+
+    private GameLoopRuntime runtime;
+
+    @BeforeEach
+    void setUp() {
+        GameConstants gameConstants = new GameConstants();
+        gameConstants.setLoopThreads(2);
+        gameConstants.setTickRateMs(5);
+        gameConstants.setTickMaxFailures(3);
+        StartupConstants startupConstants = new StartupConstants();
+        startupConstants.setWarmupTicks(1);
+        startupConstants.setWarmupBucketTicks(1);
+        runtime = new GameLoopRuntime(gameConstants, new GameMetrics(new SimpleMeterRegistry()),
+                new StartupProbe(startupConstants));
+        runtime.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        runtime.stop();
+    }
+
+    @Test
+    void newGamesGoToTheLeastLoadedShard() throws InterruptedException {
+        List<AtomicInteger> ticks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            AtomicInteger count = new AtomicInteger();
+            ticks.add(count);
+            runtime.register(UUID.randomUUID(), count::incrementAndGet, () -> { });
+        }
+
+        assertEquals(List.of(2, 2), games());
+        for (AtomicInteger count : ticks) {
+            waitFor(() -> count.get() > 3);
+        }
+    }
+
+    @Test
+    void stalledShardsGamesMoveAndAreCountedOnce() throws InterruptedException {
+        CountDownLatch stuck = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean blocking = new AtomicBoolean();
+        GameLoopRuntime.LoopRegistration stuckLoop = runtime.register(UUID.randomUUID(), () -> {
+            if (blocking.get()) {
+                stuck.countDown();
+                awaitQuietly(release);
+            }
+        }, () -> { });
+        List<GameLoopRuntime.LoopRegistration> loops = new ArrayList<>();
+        List<AtomicInteger> ticks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            AtomicInteger count = new AtomicInteger();
+            ticks.add(count);
+            loops.add(runtime.register(UUID.randomUUID(), count::incrementAndGet, () -> { }));
+        }
+        GameLoopRuntime.Shard stalled = shardOf(stuckLoop);
+        List<GameLoopRuntime.LoopRegistration> neighbours = loops.stream()
+                .filter(loop -> shardOf(loop) == stalled).toList();
+        assertTrue(neighbours.size() >= 2);
+
+        blocking.set(true);
+        assertTrue(stuck.await(2, TimeUnit.SECONDS));
+        // one of the loops stuck behind it was cancelled right before the supervisor moved the rest
+        GameLoopRuntime.LoopRegistration cancelledBefore = neighbours.get(0);
+        cancelledBefore.cancel();
+        stalled.stalled = true;
+        runtime.evacuate(stalled);
+
+        GameLoopRuntime.Shard healthy = runtime.shards()[stalled.index == 0 ? 1 : 0];
+        for (GameLoopRuntime.LoopRegistration loop : neighbours.subList(1, neighbours.size())) {
+            assertTrue(healthy.owned().contains(loop));
+        }
+        assertTrue(stalled.owned().contains(cancelledBefore), "the stalled shard still owns what it has to drop");
+        assertEquals(List.of(2, 4), stalled.index == 0 ? games() : games().reversed());
+        for (int i = 0; i < loops.size(); i++) {
+            AtomicInteger count = ticks.get(i);
+            if (loops.get(i) != cancelledBefore) {
+                int before = count.get();
+                waitFor(() -> count.get() > before + 3);
+            }
+        }
+
+        // one moved loop is cancelled on its new shard, then the stalled shard wakes up
+        GameLoopRuntime.LoopRegistration cancelledAfter = neighbours.get(1);
+        cancelledAfter.cancel();
+        waitFor(() -> !healthy.owned().contains(cancelledAfter));
+        stalled.stalled = false;
+        release.countDown();
+        waitFor(() -> !stalled.owned().contains(cancelledBefore));
+        assertEquals(List.of(1, 3), stalled.index == 0 ? games() : games().reversed());
+
+        stuckLoop.cancel();
+        loops.forEach(GameLoopRuntime.LoopRegistration::cancel);
+        waitFor(() -> games().equals(List.of(0, 0)));
+    }
+
+    @Test
+    void failingGameIsAbortedAndTheShardGoesOn() throws InterruptedException {
+        CountDownLatch aborted = new CountDownLatch(1);
+        runtime.register(UUID.randomUUID(), () -> {
+            throw new StackOverflowError("broken game");
+        }, aborted::countDown);
+        AtomicInteger ticks = new AtomicInteger();
+        runtime.register(UUID.randomUUID(), ticks::incrementAndGet, () -> { });
+
+        assertTrue(aborted.await(2, TimeUnit.SECONDS), "errors count as failed ticks too");
+        waitFor(() -> games().stream().mapToInt(Integer::intValue).sum() == 1);
+        int before = ticks.get();
+        waitFor(() -> ticks.get() > before + 3);
+        for (GameLoopRuntime.Shard shard : runtime.shards()) {
+            assertTrue(shard.heartbeatNanos > System.nanoTime() - TimeUnit.SECONDS.toNanos(1),
+                    "shard " + shard.index + " stopped");
+        }
+    }
+
+    private List<Integer> games() {
+        return runtime.getShardLoads().stream().map(ShardLoadDto::games).toList();
+    }
+
+    private GameLoopRuntime.Shard shardOf(GameLoopRuntime.LoopRegistration loop) {
+        for (GameLoopRuntime.Shard shard : runtime.shards()) {
+            if (shard.owned().contains(loop)) {
+                return shard;
+            }
+        }
+        throw new AssertionError("loop of game " + loop.getGameId() + " has no shard");
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
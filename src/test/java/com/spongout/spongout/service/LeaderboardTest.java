@@ -0,0 +1,125 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.LeaderboardConstants;
+import com.spongout.spongout.controller.dto.LeaderboardEntryDto;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.PlayerStats;
+import com.spongout.spongout.repository.PlayerStatsRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The leaderboard over a real H2 database with a top of two and one recent player kept in memory.
+ */
+class LeaderboardTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private PlayerStatsRepository repository;
+    private LeaderboardConstants leaderboardConstants;
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource =
+                new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(dataSource);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        repository = new PlayerStatsRepository(jdbcTemplate);
+        repository.saveAll(List.of(
+                new PlayerStats("alice", 5, 10, 5, 500),
+                new PlayerStats("bob", 4, 10, 6, 400),
+                new PlayerStats("carol", 3, 10, 7, 300)));
+
+        leaderboardConstants = new LeaderboardConstants();
+        leaderboardConstants.setTopSize(2);
+        leaderboardConstants.setRecentPlayers(1);
+        leaderboardConstants.setFlushIntervalMs(60_000);
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        taskScheduler.shutdown();
+        jdbcTemplate.execute("SHUTDOWN");
+    }
+
+    @Test
+    void startsWithTheTopOnly() {
+        Leaderboard leaderboard = start();
+        assertEquals(List.of("alice", "bob"), nicknames(leaderboard.getTop(10)));
+
+        // carol isn't in memory, she comes from the database
+        jdbcTemplate.update("UPDATE player_stats SET wins = 99 WHERE nickname = 'carol'");
+        assertEquals(99, leaderboard.find("carol").orElseThrow().wins());
+        assertEquals(Optional.empty(), leaderboard.find("nobody"));
+    }
+
+    @Test
+    void playerNotInMemoryContinuesHisStats() {
+        Leaderboard leaderboard = start();
+        playRound(leaderboard, "carol", "dave");
+        leaderboard.flush();
+
+        assertEquals(new PlayerStats("carol", 4, 11, 7, 500), leaderboard.find("carol").orElseThrow());
+        assertEquals(new PlayerStats("dave", 0, 1, 1, 0), repository.findByNickname("dave").orElseThrow());
+        assertEquals(List.of("alice", "carol"), nicknames(leaderboard.getTop(10)));
+        // a restart sees the same
+        assertEquals(List.of("alice", "carol"), nicknames(start().getTop(10)));
+    }
+
+    @Test
+    void forgetsTheLeastRecentPlayersOutsideTheTop() {
+        Leaderboard leaderboard = start();
+        playRound(leaderboard, "carol", "dave"); // pushes bob out of the top
+        leaderboard.flush();
+        playRound(leaderboard, "erin", "frank");
+        leaderboard.flush();
+
+        // only in memory players still show up once their rows are gone
+        jdbcTemplate.update("DELETE FROM player_stats");
+        for (String nickname : List.of("alice", "carol", "frank")) {
+            assertTrue(leaderboard.find(nickname).isPresent(), nickname + " was forgotten");
+        }
+        for (String nickname : List.of("bob", "dave", "erin")) {
+            assertTrue(leaderboard.find(nickname).isEmpty(), nickname + " is still in memory");
+        }
+    }
+
+    private Leaderboard start() {
+        Leaderboard leaderboard = new Leaderboard(repository, leaderboardConstants, taskScheduler);
+        leaderboard.start();
+        return leaderboard;
+    }
+
+    /**
+     * The first player wins against the second.
+     */
+    private static void playRound(Leaderboard leaderboard, String winner, String loser) {
+        GameInstance game = new GameInstance();
+        game.getPlayers().put(winner, new Player(winner, winner));
+        game.getPlayers().put(loser, new Player(loser, loser));
+        game.setCurrentArenaRadius(500);
+        game.spawnPlayers(20, 1);
+        game.getPlayers().get(loser).setEliminated(true);
+        leaderboard.recordRound(game, game.getWorld().slotOf(winner));
+    }
+
+    private static List<String> nicknames(List<LeaderboardEntryDto> entries) {
+        return entries.stream().map(LeaderboardEntryDto::nickname).toList();
+    }
+}
@@ -0,0 +1,97 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.monitoring.GameMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MatchmakerTest {
+
+    private static final int COUNTDOWN_SECONDS = 2;
+
+    private Matchmaker matchmaker;
+    private final LinkedBlockingQueue<List<String>> formedGames = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        GameConstants gameConstants = new GameConstants();
+        gameConstants.setMinPlayersToStart(2);
+        gameConstants.setMaxPlayersInLobby(5);
+        gameConstants.setCountdownSeconds(COUNTDOWN_SECONDS);
+        gameConstants.setMatchmakerThreads(1);
+        matchmaker = new Matchmaker(gameConstants, new GameMetrics(new SimpleMeterRegistry()));
+        matchmaker.start(players -> formedGames.add(players.stream().map(Player::getNickname).toList()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        matchmaker.stop();
+    }
+
+    @Test
+    void lateJoinsStartTheirOwnCountdown() throws InterruptedException {
+        join("a1", "a2");
+        awaitStats(() -> matchmaker.getRunningCountdowns() == 1);
+
+        // past half of the first countdown, the first lobby doesn't take joins anymore
+        Thread.sleep(TimeUnit.SECONDS.toMillis(COUNTDOWN_SECONDS) * 2 / 3);
+        join("b1", "b2");
+        awaitStats(() -> matchmaker.getRunningCountdowns() == 2);
+        assertEquals(2, matchmaker.getOpenBuckets());
+        assertTrue(formedGames.isEmpty());
+
+        assertEquals(List.of("a1", "a2"), awaitGame());
+        assertEquals(List.of("b1", "b2"), awaitGame());
+    }
+
+    @Test
+    void earlyJoinsFillTheCountingLobby() throws InterruptedException {
+        join("p1", "p2");
+        awaitStats(() -> matchmaker.getRunningCountdowns() == 1);
+        join("p3");
+        awaitStats(() -> matchmaker.getWaitingPlayers() == 3);
+        assertEquals(1, matchmaker.getOpenBuckets());
+
+        assertEquals(List.of("p1", "p2", "p3"), awaitGame());
+    }
+
+    @Test
+    void fullLobbyFormsWithoutCountdown() throws InterruptedException {
+        join("f1", "f2", "f3", "f4", "f5", "n1");
+        List<String> game = formedGames.poll(COUNTDOWN_SECONDS * 500L, TimeUnit.MILLISECONDS);
+        assertEquals(List.of("f1", "f2", "f3", "f4", "f5"), game);
+        awaitStats(() -> matchmaker.getWaitingPlayers() == 1 && matchmaker.getRunningCountdowns() == 0);
+    }
+
+    private void join(String... nicknames) {
+        for (String nickname : nicknames) {
+            matchmaker.join(new Player(nickname, "session-" + nickname));
+        }
+    }
+
+    private List<String> awaitGame() throws InterruptedException {
+        List<String> game = formedGames.poll(COUNTDOWN_SECONDS * 2L, TimeUnit.SECONDS);
+        assertNotNull(game, "no game formed");
+        return game;
+    }
+
+    private static void awaitStats(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "matchmaker stats didn't get there");
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package com.spongout.spongout.service;
+
+import com.spongout.spongout.config.GameConstants;
+import com.spongout.spongout.model.GameEventType;
+import com.spongout.spongout.model.GameInstance;
+import com.spongout.spongout.model.InterestHistory;
+import com.spongout.spongout.model.Player;
+import com.spongout.spongout.model.SnapshotHistory;
+import com.spongout.spongout.model.WorldState;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StateFrameEncoderTest {
+
+    private static final double POSITION_STEP = 1 / StateFrameEncoder.POSITION_SCALE;
+    private static final double ANGLE_STEP = 2 * Math.PI / 65536;
+
+    private StateFrameEncoder encoder;
+    private GameInstance game;
+
+    @BeforeEach
+    void setUp() {
+        GameConstants gameConstants = new GameConstants();
+        gameConstants.setInterestRadiusFraction(0.5);
+        gameConstants.setFarUpdateEvery(4);
+        encoder = new StateFrameEncoder(gameConstants);
+        game = newGame(500, "alice", "bob", "carol");
+    }
+
+    @Test
+    void stateFrameRoundTripsWithinQuantization() {
+        place(0, 123.456, -78.9, 20.3, 1.234);
+        place(1, -0.01, 0.01, 0, -Math.PI / 2);
+        place(2, 499.99, -499.99, 512.5, 7 * Math.PI);
+        game.getPendingEvents().add(GameEventType.PLAYER_ELIMINATED, 1);
+        game.getPendingEvents().add(GameEventType.SUDDEN_DEATH);
+
+        ClientCopy client = new ClientCopy();
+        client.apply(encodeState());
+
+        assertEquals(0, client.tick);
+        assertEquals(500, client.arenaRadius, 1e-3);
+        assertEquals(3, client.count);
+        for (int slot = 0; slot < 3; slot++) {
+            assertClose(slot, client);
+        }
+        assertEquals(List.of(GameEventType.PLAYER_ELIMINATED.ordinal() + ":1",
+                GameEventType.SUDDEN_DEATH.ordinal() + ":65535"), client.events);
+    }
+
+    @Test
+    void eliminatedPlayersOnlySendTheirFlags() {
+        place(0, 10, 10, 20, 0);
+        game.getWorld().kill(1);
+
+        byte[] frame = encodeState();
+        ClientCopy client = new ClientCopy();
+        client.apply(frame);
+
+        assertTrue(client.eliminated[1]);
+        assertTrue(!client.eliminated[0] && !client.eliminated[2]);
+        // header, 2 alive players, 1 eliminated (slot + flags), no events
+        assertEquals(12 + 2 * 11 + 3 + 2, frame.length);
+    }
+
+    @Test
+    void positionsAtTheArenaEdgeStayExact() {
+        double radius = game.getCurrentArenaRadius();
+        place(0, radius, 0, 20, 0);
+        place(1, 0, -radius, 20, 0);
+        place(2, -radius * Math.sqrt(0.5), radius * Math.sqrt(0.5), 20, 0);
+
+        ClientCopy client = new ClientCopy();
+        client.apply(encodeState());
+
+        for (int slot = 0; slot < 3; slot++) {
+            assertClose(slot, client);
+        }
+    }
+
+    @Test
+    void valuesOutOfRangeAreClamped() {
+        assertEquals(Short.MAX_VALUE, StateFrameEncoder.quantizePosition(5000));
+        assertEquals(Short.MIN_VALUE, StateFrameEncoder.quantizePosition(-5000));
+        assertEquals(0xFFFF, StateFrameEncoder.quantizeSize(5000) & 0xFFFF);
+        assertEquals(0, StateFrameEncoder.quantizeSize(-1));
+        // a player flung far out of the arena doesn't wrap around to the other side
+        place(0, 3000, -3000, 5000, 0);
+
+        ClientCopy client = new ClientCopy();
+        client.apply(encodeState());
+
+        assertEquals(Short.MAX_VALUE * POSITION_STEP, client.x[0]);
+        assertEquals(Short.MIN_VALUE * POSITION_STEP, client.y[0]);
+        assertEquals(0xFFFF * POSITION_STEP, client.size[0]);
+    }
+
+    @Test
+    void anglesWrapToOneTurn() {
+        assertEquals(StateFrameEncoder.quantizeAngle(1.0), StateFrameEncoder.quantizeAngle(1.0 + 4 * Math.PI));
+        assertEquals(StateFrameEncoder.quantizeAngle(2 * Math.PI - 1.0), StateFrameEncoder.quantizeAngle(-1.0));
+        assertEquals(0, StateFrameEncoder.quantizeAngle(2 * Math.PI));
+    }
+
+    @Test
+    void rosterMapsSlotsToNicknames() {
+        game = newGame(500, "alice", "žluťoučký kůň", "x".repeat(300));
+
+        ByteBuffer frame = ByteBuffer.wrap(encoder.encodeRoster(game));
+        assertEquals(StateFrameEncoder.FRAME_ROSTER, frame.get());
+        assertEquals(StateFrameEncoder.VERSION, frame.get());
+        assertEquals(3, frame.getShort());
+        List<String> nicknames = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, frame.getShort());
+            byte[] nickname = new byte[frame.get() & 0xFF];
+            frame.get(nickname);
+            nicknames.add(new String(nickname, StandardCharsets.UTF_8));
+        }
+        assertEquals(List.of("alice", "žluťoučký kůň", "x".repeat(255)), nicknames);
+        assertEquals(0, frame.remaining());
+    }
+
+    @Test
+    void deltaCarriesOnlyWhatChangedSinceTheAckedBaseline() {
+        place(0, 10, 10, 20, 0);
+        place(1, -10, 10, 20, 1);
+        place(2, 0, -10, 20, 2);
+        ClientCopy client = new ClientCopy();
+        client.apply(encodeState());
+
+        nextTick();
+        place(0, 12, 10, 20, 0); // moved along x only
+        place(1, -10, 10, 20.01, 1); // below one quantization step, nothing to send
+        game.getWorld().kill(2);
+        game.getPendingEvents().add(GameEventType.PLAYER_ELIMINATED, 2);
+        encoder.snapshot(game);
+        byte[] delta = encoder.encodeDelta(game, 0);
+        client.apply(delta);
+
+        assertEquals(1, client.tick);
+        assertEquals(0, client.baselineTick);
+        assertEquals(List.of(0, 2), client.changedSlots);
+        assertTrue(client.eliminated[2]);
+        assertClose(0, client);
+        assertClose(1, client);
+        assertEquals(List.of(GameEventType.PLAYER_ELIMINATED.ordinal() + ":2"), client.events);
+        // header, slot 0 with just x, slot 2 eliminated, one event
+        assertEquals(18 + (3 + 2) + 3 + (2 + 3), delta.length);
+    }
+
+    @Test
+    void deltaAgainstAnOlderAckedBaselineCatchesUp() {
+        place(0, 10, 10, 20, 0);
+        ClientCopy client = new ClientCopy();
+        client.apply(encodeState());
+
+        // the client doesn't ack the next frames, every one is still encoded against tick 0
+        for (int tick = 1; tick <= 5; tick++) {
+            nextTick();
+            place(0, 10 + tick, 10 - tick, 20 + tick, tick * 0.1);
+            encoder.snapshot(game);
+        }
+        client.apply(encoder.encodeDelta(game, 0));
+
+        assertEquals(5, client.tick);
+        assertEquals(List.of(0), client.changedSlots);
+        for (int slot = 0; slot < 3; slot++) {
+            assertClose(slot, client);
+        }
+    }
+
+    @Test
+    void missingBaselineFallsBackToAFullFrame() {
+        encodeState();
+        // the acked tick falls out of the history
+        for (int tick = 1; tick <= SnapshotHistory.CAPACITY; tick++) {
+            nextTick();
+            encoder.snapshot(game);
+        }
+        assertNull(encoder.encodeDelta(game, 0));
+        // a baseline from the future (acked in an earlier round) is no baseline either
+        assertNull(encoder.encodeDelta(game, game.getBroadcastTick()));
+        assertNull(encoder.encodeDelta(game, game.getBroadcastTick() + 10));
+        assertNotNull(encoder.encodeDelta(game, game.getBroadcastTick() - 1));
+
+        ClientCopy client = new ClientCopy();
+        client.apply(encoder.encodeState(game));
+        assertEquals(SnapshotHistory.CAPACITY, client.tick);
+        for (int slot = 0; slot < 3; slot++) {
+            assertClose(slot, client);
+        }
+    }
+
+    @Test
+    void staleAckIsDroppedWhenTheTicksStartOver() {
+        StateStreamRegistry.FrameSubscriber subscriber = new StateStreamRegistry.FrameSubscriber("session",
+                StateStreamRegistry.Transport.RAW_SOCKET, (frame, written) -> written.run());
+        for (long tick = 0; tick < 40; tick++) {
+            subscriber.beginFrame(tick);
+        }
+        subscriber.acknowledge(39);
+        subscriber.beginFrame(40);
+        assertEquals(39, subscriber.getAckedTick());
+
+        // next round, ticks are counted from zero again
+        subscriber.beginFrame(0);
+        assertEquals(-1, subscriber.getAckedTick());
+    }
+
+    @Test
+    void farPlayersGoOutLessOften() {
+        // viewer in the middle, near = within 0.5 * 500
+        place(0, 0, 0, 20, 0);
+        place(1, 100, 0, 20, 0);
+        place(2, 400, 0, 20, 0);
+        InterestHistory interest = new InterestHistory();
+        ClientCopy client = fullFrame(interest);
+
+        for (int tick = 1; tick <= 8; tick++) {
+            nextTick();
+            for (int slot = 0; slot < 3; slot++) {
+                game.getWorld().getY()[slot] += 1; // everybody moves every tick
+            }
+            client.apply(interestDelta(interest, tick - 1, 0));
+
+            // slot 2 is staggered onto the ticks where (tick + 2) % 4 == 0
+            List<Integer> expected = (tick + 2) % 4 == 0 ? List.of(0, 1, 2) : List.of(0, 1);
+            assertEquals(expected, client.changedSlots, "tick " + tick);
+            assertClose(0, client);
+            assertClose(1, client);
+        }
+        // the far copy is from its last refresh on tick 6, the next one comes on tick 10
+        assertEquals(6, client.y[2], POSITION_STEP / 2);
+    }
+
+    @Test
+    void farSlotIsEncodedAgainstTheCopyTheClientHas() {
+        place(0, 0, 0, 20, 0);
+        place(2, 400, 0, 20, 0);
+        InterestHistory interest = new InterestHistory();
+        ClientCopy client = fullFrame(interest);
+
+        for (int tick = 1; tick <= 6; tick++) {
+            nextTick();
+            if (tick == 3) {
+                place(2, 420, 0, 20, 0); // right after its refresh on tick 2, the client won't hear about it yet
+            }
+            client.apply(interestDelta(interest, tick - 1, 0));
+        }
+        // on tick 6 the baseline (tick 5) already has x = 420, but the client's copy is from tick 2
+        assertEquals(List.of(2), client.changedSlots);
+        assertClose(2, client);
+    }
+
+    @Test
+    void farEliminationsGoOutRightAway() {
+        place(0, 0, 0, 20, 0);
+        place(2, 400, 0, 20, 0);
+        InterestHistory interest = new InterestHistory();
+        ClientCopy client = fullFrame(interest);
+
+        nextTick();
+        game.getWorld().kill(2);
+        client.apply(interestDelta(interest, 0, 0));
+        assertEquals(List.of(2), client.changedSlots);
+        assertTrue(client.eliminated[2]);
+
+        // and only once
+        nextTick();
+        client.apply(interestDelta(interest, 1, 0));
+        assertEquals(List.of(), client.changedSlots);
+    }
+
+    @Test
+    void clientWithoutPlayerSeesEverythingAsNear() {
+        place(0, 0, 0, 20, 0);
+        place(2, 400, 0, 20, 0);
+        InterestHistory interest = new InterestHistory();
+        ClientCopy client = fullFrame(interest);
+
+        nextTick();
+        place(0, 1, 0, 20, 0);
+        place(2, 401, 0, 20, 0);
+        client.apply(interestDelta(interest, 0, -1));
+        assertEquals(List.of(0, 2), client.changedSlots);
+    }
+
+    @Test
+    void interestDeltaWithoutKnownBaselineNeedsAFullFrame() {
+        InterestHistory interest = new InterestHistory();
+        fullFrame(interest);
+
+        nextTick();
+        encoder.snapshot(game);
+        // never acked anything
+        assertNull(encoder.encodeInterestDelta(game, -1, interest, 0));
+        // acked a tick that has a snapshot, but no record of what this client got in it
+        assertNull(encoder.encodeInterestDelta(game, 0, new InterestHistory(), 0));
+        assertNotNull(encoder.encodeInterestDelta(game, 0, interest, 0));
+    }
+
+    private static GameInstance newGame(double arenaRadius, String... nicknames) {
+        GameInstance game = new GameInstance();
+        game.setCurrentArenaRadius(arenaRadius);
+        WorldState world = game.getWorld();
+        world.clear(nicknames.length);
+        for (String nickname : nicknames) {
+            world.add(new Player(nickname, "session-" + world.getCount()));
+        }
+        return game;
+    }
+
+    private void place(int slot, double x, double y, double size, double angle) {
+        WorldState world = game.getWorld();
+        world.getX()[slot] = x;
+        world.getY()[slot] = y;
+        world.getSize()[slot] = size;
+        world.getAngle()[slot] = angle;
+    }
+
+    private void nextTick() {
+        game.setBroadcastTick(game.getBroadcastTick() + 1);
+        game.getPendingEvents().clear();
+    }
+
+    /**
+     * Full frame of the current tick, the way StateBroadcaster sends it when interest filtering is on.
+     */
+    private ClientCopy fullFrame(InterestHistory interest) {
+        ClientCopy client = new ClientCopy();
+        client.apply(encodeState());
+        interest.recordAll(game.getBroadcastTick(), game.getWorld().getCount());
+        return client;
+    }
+
+    private byte[] interestDelta(InterestHistory interest, long baselineTick, int viewerSlot) {
+        encoder.snapshot(game);
+        byte[] frame = encoder.encodeInterestDelta(game, baselineTick, interest, viewerSlot);
+        assertNotNull(frame, "no baseline for tick " + game.getBroadcastTick());
+        return frame;
+    }
+
+    private byte[] encodeState() {
+        encoder.snapshot(game);
+        return encoder.encodeState(game);
+    }
+
+    private void assertClose(int slot, ClientCopy client) {
+        WorldState world = game.getWorld();
+        String message = "slot " + slot;
+        assertEquals(world.getX()[slot], client.x[slot], POSITION_STEP / 2, message);
+        assertEquals(world.getY()[slot], client.y[slot], POSITION_STEP / 2, message);
+        assertEquals(world.getSize()[slot], client.size[slot], POSITION_STEP / 2, message);
+        double angle = world.getAngle()[slot] % (2 * Math.PI);
+        angle = angle < 0 ? angle + 2 * Math.PI : angle;
+        assertEquals(angle, client.angle[slot], ANGLE_STEP, message);
+    }
+
+    /**
+     * What sketch.js keeps for one game: the last known state of every slot, updated by every frame.
+     */
+    static final class ClientCopy {
+        long tick = -1;
+        long baselineTick = -1;
+        double arenaRadius;
+        int count;
+        final double[] x = new double[64];
+        final double[] y = new double[64];
+        final double[] size = new double[64];
+        final double[] angle = new double[64];
+        final boolean[] eliminated = new boolean[64];
+        final List<Integer> changedSlots = new ArrayList<>();
+        final List<String> events = new ArrayList<>();
+
+        void apply(byte[] bytes) {
+            ByteBuffer frame = ByteBuffer.wrap(bytes);
+            byte type = frame.get();
+            assertEquals(StateFrameEncoder.VERSION, frame.get());
+            tick = frame.getInt();
+            baselineTick = type == StateFrameEncoder.FRAME_DELTA ? frame.getInt() : -1;
+            arenaRadius = frame.getFloat();
+            count = frame.getShort();
+            changedSlots.clear();
+            if (type == StateFrameEncoder.FRAME_STATE) {
+                for (int i = 0; i < count; i++) {
+                    int slot = frame.getShort();
+                    changedSlots.add(slot);
+                    eliminated[slot] = frame.get() == StateFrameEncoder.FLAG_ELIMINATED;
+                    if (!eliminated[slot]) {
+                        readFields(frame, slot, StateFrameEncoder.DELTA_X | StateFrameEncoder.DELTA_Y
+                                | StateFrameEncoder.DELTA_SIZE | StateFrameEncoder.DELTA_ANGLE);
+                    }
+                }
+            } else {
+                assertEquals(StateFrameEncoder.FRAME_DELTA, type);
+                int changed = frame.getShort();
+                for (int i = 0; i < changed; i++) {
+                    int slot = frame.getShort();
+                    int mask = frame.get() & 0xFF;
+                    changedSlots.add(slot);
+                    eliminated[slot] = (mask & StateFrameEncoder.DELTA_ELIMINATED) != 0;
+                    readFields(frame, slot, mask);
+                }
+            }
+            events.clear();
+            int eventCount = frame.getShort();
+            for (int i = 0; i < eventCount; i++) {
+                events.add(frame.get() + ":" + (frame.getShort() & 0xFFFF));
+            }
+            assertEquals(0, frame.remaining(), "trailing bytes");
+        }
+
+        private void readFields(ByteBuffer frame, int slot, int mask) {
+            if ((mask & StateFrameEncoder.DELTA_X) != 0) {
+                x[slot] = frame.getShort() * POSITION_STEP;
+            }
+            if ((mask & StateFrameEncoder.DELTA_Y) != 0) {
+                y[slot] = frame.getShort() * POSITION_STEP;
+            }
+            if ((mask & StateFrameEncoder.DELTA_SIZE) != 0) {
+                size[slot] = (frame.getShort() & 0xFFFF) * POSITION_STEP;
+            }
+            if ((mask & StateFrameEncoder.DELTA_ANGLE) != 0) {
+                angle[slot] = (frame.getShort() & 0xFFFF) * ANGLE_STEP;
+            }
+        }
+    }
+}